@@ -365,13 +365,13 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void openNotification() {
-        mBluetoothLe.enableNotification(true, SERVICE_UUID, STEP_NOTIFICATION_UUID)
-                .setOnNotificationListener(new OnLeNotificationListener() {
-                    @Override
-                    public void onSuccess(BluetoothGattCharacteristic characteristic) {
+        mBluetoothLe.enableNotification(true, SERVICE_UUID, STEP_NOTIFICATION_UUID);
+        mBluetoothLe.setOnNotificationListener(new OnLeNotificationListener() {
+            @Override
+            public void onSuccess(BluetoothGattCharacteristic characteristic) {
 
-                    }
-                });
+            }
+        });
     }
 
     private void openAllNotification() {
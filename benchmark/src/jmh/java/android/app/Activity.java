@@ -0,0 +1,12 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Benchmark stand-in.
+ */
+public abstract class Activity extends Context {
+
+    public abstract void startActivity(Intent intent);
+}
@@ -0,0 +1,24 @@
+package android.bluetooth;
+
+/**
+ * Benchmark stand-in: there is no adapter.
+ */
+public final class BluetoothAdapter {
+
+    public static final String ACTION_REQUEST_ENABLE = "android.bluetooth.adapter.action.REQUEST_ENABLE";
+
+    private BluetoothAdapter() {
+    }
+
+    public static BluetoothAdapter getDefaultAdapter() {
+        return null;
+    }
+
+    public boolean isEnabled() {
+        return false;
+    }
+
+    public boolean disable() {
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package android.bluetooth;
+
+import android.content.Context;
+
+/**
+ * Benchmark stand-in. Connections go through a GattTransport, never through connectGatt().
+ */
+public class BluetoothDevice {
+
+    public static final int BOND_NONE = 10;
+    public static final int BOND_BONDING = 11;
+    public static final int BOND_BONDED = 12;
+    public static final int TRANSPORT_LE = 2;
+
+    private final String mAddress;
+
+    public BluetoothDevice(String address) {
+        mAddress = address;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return null;
+    }
+
+    public int getBondState() {
+        return BOND_NONE;
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback, int transport) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,76 @@
+package android.bluetooth;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Benchmark stand-in: only the constants are used.
+ */
+public class BluetoothGatt implements BluetoothProfile {
+
+    public static final int GATT_SUCCESS = 0;
+    public static final int GATT_READ_NOT_PERMITTED = 2;
+    public static final int GATT_WRITE_NOT_PERMITTED = 3;
+    public static final int GATT_INSUFFICIENT_AUTHENTICATION = 5;
+    public static final int GATT_REQUEST_NOT_SUPPORTED = 6;
+    public static final int GATT_FAILURE = 257;
+
+    private BluetoothGatt() {
+    }
+
+    public boolean discoverServices() {
+        throw new UnsupportedOperationException();
+    }
+
+    public List<BluetoothGattService> getServices() {
+        throw new UnsupportedOperationException();
+    }
+
+    public BluetoothGattService getService(UUID uuid) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean requestMtu(int mtu) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean beginReliableWrite() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean executeReliableWrite() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void abortReliableWrite() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void abortReliableWrite(BluetoothDevice device) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void disconnect() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,101 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Benchmark stand-in with the framework's behaviour.
+ */
+public class BluetoothGattCharacteristic {
+
+    public static final int PROPERTY_BROADCAST = 0x01;
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+    public static final int PROPERTY_SIGNED_WRITE = 0x40;
+    public static final int PROPERTY_EXTENDED_PROPS = 0x80;
+
+    public static final int PERMISSION_READ = 0x01;
+    public static final int PERMISSION_WRITE = 0x10;
+
+    public static final int WRITE_TYPE_DEFAULT = 0x02;
+    public static final int WRITE_TYPE_NO_RESPONSE = 0x01;
+    public static final int WRITE_TYPE_SIGNED = 0x04;
+
+    private final UUID mUuid;
+    private final int mProperties;
+    private final int mPermissions;
+    private final List<BluetoothGattDescriptor> mDescriptors = new ArrayList<>();
+    private BluetoothGattService mService;
+    private int mWriteType = WRITE_TYPE_DEFAULT;
+    private byte[] mValue;
+
+    public BluetoothGattCharacteristic(UUID uuid, int properties, int permissions) {
+        mUuid = uuid;
+        mProperties = properties;
+        mPermissions = permissions;
+    }
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+    public int getInstanceId() {
+        return 0;
+    }
+
+    public int getProperties() {
+        return mProperties;
+    }
+
+    public int getPermissions() {
+        return mPermissions;
+    }
+
+    public int getWriteType() {
+        return mWriteType;
+    }
+
+    public void setWriteType(int writeType) {
+        mWriteType = writeType;
+    }
+
+    public byte[] getValue() {
+        return mValue;
+    }
+
+    public boolean setValue(byte[] value) {
+        mValue = value;
+        return true;
+    }
+
+    public BluetoothGattService getService() {
+        return mService;
+    }
+
+    void setService(BluetoothGattService service) {
+        mService = service;
+    }
+
+    public boolean addDescriptor(BluetoothGattDescriptor descriptor) {
+        mDescriptors.add(descriptor);
+        descriptor.setCharacteristic(this);
+        return true;
+    }
+
+    public List<BluetoothGattDescriptor> getDescriptors() {
+        return mDescriptors;
+    }
+
+    public BluetoothGattDescriptor getDescriptor(UUID uuid) {
+        for (BluetoothGattDescriptor descriptor : mDescriptors) {
+            if (uuid.equals(descriptor.getUuid())) {
+                return descriptor;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Benchmark stand-in with the framework's behaviour.
+ */
+public class BluetoothGattService {
+
+    public static final int SERVICE_TYPE_PRIMARY = 0;
+    public static final int SERVICE_TYPE_SECONDARY = 1;
+
+    private final UUID mUuid;
+    private final int mType;
+    private final List<BluetoothGattCharacteristic> mCharacteristics = new ArrayList<>();
+
+    public BluetoothGattService(UUID uuid, int serviceType) {
+        mUuid = uuid;
+        mType = serviceType;
+    }
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public boolean addCharacteristic(BluetoothGattCharacteristic characteristic) {
+        mCharacteristics.add(characteristic);
+        characteristic.setService(this);
+        return true;
+    }
+
+    public List<BluetoothGattCharacteristic> getCharacteristics() {
+        return mCharacteristics;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        for (BluetoothGattCharacteristic characteristic : mCharacteristics) {
+            if (uuid.equals(characteristic.getUuid())) {
+                return characteristic;
+            }
+        }
+        return null;
+    }
+}
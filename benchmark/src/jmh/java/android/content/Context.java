@@ -0,0 +1,13 @@
+package android.content;
+
+/**
+ * Benchmark stand-in: the benchmarks run without a context.
+ */
+public abstract class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract Context getApplicationContext();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
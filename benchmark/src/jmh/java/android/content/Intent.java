@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * Benchmark stand-in.
+ */
+public class Intent {
+
+    public Intent(String action) {
+    }
+}
@@ -0,0 +1,20 @@
+package android.content;
+
+/**
+ * Benchmark stand-in.
+ */
+public interface SharedPreferences {
+
+    boolean getBoolean(String key, boolean defValue);
+
+    Editor edit();
+
+    interface Editor {
+
+        Editor putBoolean(String key, boolean value);
+
+        Editor remove(String key);
+
+        void apply();
+    }
+}
@@ -0,0 +1,9 @@
+package android.content.pm;
+
+/**
+ * Benchmark stand-in.
+ */
+public abstract class PackageManager {
+
+    public static final int PERMISSION_GRANTED = 0;
+}
@@ -0,0 +1,60 @@
+package android.os;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark stand-in. Posted work runs on the calling thread, so a benchmark measures the
+ * main-thread part of a callback together with its binder-thread part; delayed work runs on a
+ * timer thread.
+ */
+public class Handler {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Handler-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Map<Runnable, ScheduledFuture<?>> mDelayed = new ConcurrentHashMap<>();
+
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public final boolean postDelayed(final Runnable r, long delayMillis) {
+        if (delayMillis <= 0) {
+            return post(r);
+        }
+        mDelayed.put(r, TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mDelayed.remove(r);
+                r.run();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS));
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        ScheduledFuture<?> future = mDelayed.remove(r);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
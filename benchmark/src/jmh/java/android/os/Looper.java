@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * Benchmark stand-in: there is no message loop, see {@link Handler}.
+ */
+public final class Looper {
+
+    private static final Looper MAIN = new Looper();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return MAIN;
+    }
+}
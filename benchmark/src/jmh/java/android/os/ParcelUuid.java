@@ -0,0 +1,23 @@
+package android.os;
+
+import java.util.UUID;
+
+/**
+ * Benchmark stand-in.
+ */
+public final class ParcelUuid {
+
+    private final UUID mUuid;
+
+    public ParcelUuid(UUID uuid) {
+        mUuid = uuid;
+    }
+
+    public static ParcelUuid fromString(String uuid) {
+        return new ParcelUuid(UUID.fromString(uuid));
+    }
+
+    public UUID getUuid() {
+        return mUuid;
+    }
+}
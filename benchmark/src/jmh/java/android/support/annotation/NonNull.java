@@ -0,0 +1,7 @@
+package android.support.annotation;
+
+/**
+ * Benchmark stand-in.
+ */
+public @interface NonNull {
+}
@@ -0,0 +1,16 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+
+/**
+ * Benchmark stand-in.
+ */
+public class ActivityCompat {
+
+    public static boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return false;
+    }
+
+    public static void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+    }
+}
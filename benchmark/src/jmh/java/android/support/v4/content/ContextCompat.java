@@ -0,0 +1,14 @@
+package android.support.v4.content;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+/**
+ * Benchmark stand-in.
+ */
+public class ContextCompat {
+
+    public static int checkSelfPermission(Context context, String permission) {
+        return PackageManager.PERMISSION_GRANTED;
+    }
+}
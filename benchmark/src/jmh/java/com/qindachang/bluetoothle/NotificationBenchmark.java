@@ -0,0 +1,76 @@
+package com.qindachang.bluetoothle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.qindachang.bluetoothle.StubGattTransport.CHARACTERISTIC_UUID;
+import static com.qindachang.bluetoothle.StubGattTransport.SERVICE_UUID;
+
+/**
+ * Latency distribution of one notification from onCharacteristicChanged until every listener
+ * has returned. Run with the gc profiler (the default of this module) for bytes allocated per
+ * notification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NotificationBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int listeners;
+
+    /**
+     * registry: tagged listeners on BleManager; subscription: per-characteristic subscribers of
+     * the connection.
+     */
+    @Param({"registry", "subscription"})
+    public String route;
+
+    private final byte[] mValue = new byte[20];
+    private BleManager mManager;
+    private StubGattTransport mTransport;
+    private long mReceivedBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        mManager = new BleManager(null);
+        mTransport = StubGattTransport.open(mManager, "00:11:22:33:44:55");
+        BleConnection connection = mManager.getConnection();
+        for (int i = 0; i < listeners; i++) {
+            OnLeNotificationSnapshotListener listener = new OnLeNotificationSnapshotListener() {
+                @Override
+                public void onNotification(NotificationSnapshot snapshot) {
+                    mReceivedBytes += snapshot.getLength();
+                }
+            };
+            if ("subscription".equals(route)) {
+                mManager.subscribe(connection, SERVICE_UUID, CHARACTERISTIC_UUID, listener);
+            } else {
+                mManager.addNotificationSnapshotListener("listener-" + i, CHARACTERISTIC_UUID, listener);
+            }
+        }
+        // the CCCD write of the first subscriber
+        mTransport.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mManager.close();
+    }
+
+    @Benchmark
+    public long notification() {
+        mTransport.notifyValue(mValue);
+        return mReceivedBytes;
+    }
+}
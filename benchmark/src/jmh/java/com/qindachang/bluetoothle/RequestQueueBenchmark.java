@@ -0,0 +1,76 @@
+package com.qindachang.bluetoothle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.qindachang.bluetoothle.StubGattTransport.CHARACTERISTIC_UUID;
+import static com.qindachang.bluetoothle.StubGattTransport.SERVICE_UUID;
+
+/**
+ * Requests per second through RequestQueue: enqueue, execute against the stub, complete in
+ * next() and post the result listeners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RequestQueueBenchmark {
+
+    private static final int BURST = 100;
+
+    private final byte[] mValue = new byte[20];
+    private BleManager mManager;
+    private BleConnection mConnection;
+    private StubGattTransport mTransport;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        mManager = new BleManager(null);
+        mTransport = StubGattTransport.open(mManager, "00:11:22:33:44:55");
+        mConnection = mManager.getConnection();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mManager.close();
+    }
+
+    @Benchmark
+    public void writeRoundTrip() {
+        mConnection.writeCharacteristicQueue(RequestPriority.NORMAL, mValue, SERVICE_UUID, CHARACTERISTIC_UUID);
+        mTransport.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void writeBurst() {
+        for (int i = 0; i < BURST; i++) {
+            mConnection.writeCharacteristicQueue(RequestPriority.NORMAL, mValue, SERVICE_UUID, CHARACTERISTIC_UUID);
+        }
+        mTransport.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void writeNoResponseBurst() {
+        for (int i = 0; i < BURST; i++) {
+            mConnection.writeCharacteristicNoResponseQueue(RequestPriority.NORMAL, mValue, SERVICE_UUID, CHARACTERISTIC_UUID);
+        }
+        mTransport.flush();
+    }
+
+    @Benchmark
+    public void readRoundTrip() {
+        mConnection.readCharacteristicQueue(RequestPriority.NORMAL, SERVICE_UUID, CHARACTERISTIC_UUID);
+        mTransport.flush();
+    }
+}
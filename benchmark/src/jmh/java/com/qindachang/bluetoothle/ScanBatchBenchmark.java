@@ -0,0 +1,73 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * Cost of turning one batch of scan results into a {@link ScanBatch} and summing it, against
+ * walking the ScanResult list. gc.alloc.rate.norm of the packed route should be 0 once the
+ * buffers have grown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScanBatchBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int batchSize;
+
+    private final ScanBatch mBatch = new ScanBatch();
+    private List<ScanResult> mResults;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mResults = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            // flags, complete name, manufacturer data; padded to 62 bytes like a legacy scan record
+            byte[] record = new byte[62];
+            byte[] advertisement = {2, 0x01, 0x06, 5, 0x09, 'Z', 'G', '-', (byte) ('0' + i % 10),
+                    7, (byte) 0xff, 0x4c, 0x00, 0x02, 0x15, (byte) i, (byte) (i >> 8)};
+            System.arraycopy(advertisement, 0, record, 0, advertisement.length);
+            String address = String.format(Locale.US, "00:11:22:33:%02X:%02X", (i >> 8) & 0xff, i & 0xff);
+            mResults.add(new ScanResult(new BluetoothDevice(address), ScanRecord.parseFromBytes(record),
+                    -40 - i % 50, 1000000L * i));
+        }
+    }
+
+    @Benchmark
+    public long packed() {
+        mBatch.fill(mResults);
+        long sum = 0;
+        for (int i = 0; i < mBatch.size(); i++) {
+            sum += mBatch.getAddress(i) + mBatch.getRssi(i) + mBatch.getAdvertisementLength(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long scanResults() {
+        long sum = 0;
+        for (ScanResult result : mResults) {
+            sum += ScanBatch.parseAddress(result.getDevice().getAddress()) + result.getRssi()
+                    + result.getScanRecord().getBytes().length;
+        }
+        return sum;
+    }
+}
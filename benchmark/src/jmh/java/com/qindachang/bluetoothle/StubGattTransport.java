@@ -0,0 +1,208 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A one-characteristic peripheral whose callbacks wait until the benchmark thread calls
+ * {@link #flush()}, so the whole callback path runs on the measuring thread. Queuing a callback
+ * does not allocate, which keeps the library's own allocations visible to the gc profiler.
+ */
+class StubGattTransport implements GattTransport, GattTransport.Factory {
+
+    static final UUID SERVICE_UUID = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    static final UUID CHARACTERISTIC_UUID = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private enum Event {
+        CONNECTED, SERVICES_DISCOVERED, READ, WRITE, DESCRIPTOR_WRITE, MTU_CHANGED, RELIABLE_WRITE_COMPLETED
+    }
+
+    private final BluetoothGattService mService;
+    private final BluetoothGattCharacteristic mCharacteristic;
+    private final List<BluetoothGattService> mServices;
+    // guarded by this: discovery is started from the Handler timer thread
+    private final ArrayDeque<Event> mEvents = new ArrayDeque<>();
+    private final ArrayDeque<Object> mTargets = new ArrayDeque<>();
+    private BleManagerGattCallback mCallback;
+    private int mMtu;
+
+    StubGattTransport() {
+        mService = new BluetoothGattService(SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        mCharacteristic = new BluetoothGattCharacteristic(CHARACTERISTIC_UUID,
+                BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE
+                        | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+        mCharacteristic.addDescriptor(new BluetoothGattDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID,
+                BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+        mService.addCharacteristic(mCharacteristic);
+        mServices = Collections.singletonList(mService);
+    }
+
+    /**
+     * Connects the manager to a new stub peripheral and waits until the connection is READY.
+     */
+    static StubGattTransport open(BleManager manager, String address) throws InterruptedException {
+        StubGattTransport transport = new StubGattTransport();
+        manager.setTransportFactory(transport);
+        BluetoothDevice device = new BluetoothDevice(address);
+        manager.connect(false, device);
+        BleConnection connection = manager.getConnection(device);
+        // discovery starts on the Handler timer thread after the settle delay
+        while (connection.getState() != ConnectionState.READY) {
+            transport.flush();
+            Thread.sleep(10);
+        }
+        transport.flush();
+        return transport;
+    }
+
+    /**
+     * Delivers the queued callbacks, including those queued while delivering.
+     */
+    void flush() {
+        while (true) {
+            Event event;
+            Object target;
+            synchronized (this) {
+                event = mEvents.poll();
+                target = mTargets.poll();
+            }
+            if (event == null) {
+                return;
+            }
+            switch (event) {
+                case CONNECTED:
+                    mCallback.onConnectionStateChange(this, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+                    break;
+                case SERVICES_DISCOVERED:
+                    mCallback.onServicesDiscovered(this, BluetoothGatt.GATT_SUCCESS);
+                    break;
+                case READ:
+                    mCallback.onCharacteristicRead(this, (BluetoothGattCharacteristic) target, BluetoothGatt.GATT_SUCCESS);
+                    break;
+                case WRITE:
+                    mCallback.onCharacteristicWrite(this, (BluetoothGattCharacteristic) target, BluetoothGatt.GATT_SUCCESS);
+                    break;
+                case DESCRIPTOR_WRITE:
+                    mCallback.onDescriptorWrite(this, (BluetoothGattDescriptor) target, BluetoothGatt.GATT_SUCCESS);
+                    break;
+                case MTU_CHANGED:
+                    mCallback.onMtuChanged(this, mMtu, BluetoothGatt.GATT_SUCCESS);
+                    break;
+                case RELIABLE_WRITE_COMPLETED:
+                    mCallback.onReliableWriteCompleted(this, BluetoothGatt.GATT_SUCCESS);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Calls onCharacteristicChanged on the calling thread, like a binder thread would.
+     */
+    void notifyValue(byte[] value) {
+        mCharacteristic.setValue(value);
+        mCallback.onCharacteristicChanged(this, mCharacteristic);
+    }
+
+    private synchronized boolean post(Event event, Object target) {
+        mEvents.add(event);
+        mTargets.add(target);
+        return true;
+    }
+
+    @Override
+    public GattTransport connect(Context context, BluetoothDevice device, boolean autoConnect, BleManagerGattCallback callback) {
+        mCallback = callback;
+        post(Event.CONNECTED, this);
+        return this;
+    }
+
+    @Override
+    public BluetoothGatt getBluetoothGatt() {
+        return null;
+    }
+
+    @Override
+    public int getBondState() {
+        return BluetoothDevice.BOND_NONE;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return post(Event.SERVICES_DISCOVERED, this);
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return mServices;
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid) {
+        return SERVICE_UUID.equals(uuid) ? mService : null;
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return post(Event.READ, characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return post(Event.WRITE, characteristic);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return true;
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return post(Event.DESCRIPTOR_WRITE, descriptor);
+    }
+
+    @Override
+    public synchronized boolean requestMtu(int mtu) {
+        mMtu = mtu;
+        return post(Event.MTU_CHANGED, this);
+    }
+
+    @Override
+    public boolean beginReliableWrite() {
+        return true;
+    }
+
+    @Override
+    public boolean executeReliableWrite() {
+        return post(Event.RELIABLE_WRITE_COMPLETED, this);
+    }
+
+    @Override
+    public void abortReliableWrite() {
+    }
+
+    @Override
+    public boolean refresh() {
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
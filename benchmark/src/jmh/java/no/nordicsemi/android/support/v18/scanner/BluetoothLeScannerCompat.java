@@ -0,0 +1,17 @@
+package no.nordicsemi.android.support.v18.scanner;
+
+import java.util.List;
+
+/**
+ * Benchmark stand-in: scanning is not benchmarked.
+ */
+public abstract class BluetoothLeScannerCompat {
+
+    public static BluetoothLeScannerCompat getScanner() {
+        throw new UnsupportedOperationException();
+    }
+
+    public abstract void startScan(List<ScanFilter> filters, ScanSettings settings, ScanCallback callback);
+
+    public abstract void stopScan(ScanCallback callback);
+}
@@ -0,0 +1,18 @@
+package no.nordicsemi.android.support.v18.scanner;
+
+import java.util.List;
+
+/**
+ * Benchmark stand-in.
+ */
+public abstract class ScanCallback {
+
+    public void onScanResult(int callbackType, ScanResult result) {
+    }
+
+    public void onBatchScanResults(List<ScanResult> results) {
+    }
+
+    public void onScanFailed(int errorCode) {
+    }
+}
@@ -0,0 +1,39 @@
+package no.nordicsemi.android.support.v18.scanner;
+
+import android.os.ParcelUuid;
+
+/**
+ * Benchmark stand-in.
+ */
+public final class ScanFilter {
+
+    private ScanFilter() {
+    }
+
+    public static final class Builder {
+
+        public Builder setDeviceName(String deviceName) {
+            return this;
+        }
+
+        public Builder setDeviceAddress(String deviceAddress) {
+            return this;
+        }
+
+        public Builder setServiceUuid(ParcelUuid serviceUuid) {
+            return this;
+        }
+
+        public Builder setServiceData(ParcelUuid serviceDataUuid, byte[] serviceData, byte[] serviceDataMask) {
+            return this;
+        }
+
+        public Builder setManufacturerData(int manufacturerId, byte[] manufacturerData, byte[] manufacturerDataMask) {
+            return this;
+        }
+
+        public ScanFilter build() {
+            return new ScanFilter();
+        }
+    }
+}
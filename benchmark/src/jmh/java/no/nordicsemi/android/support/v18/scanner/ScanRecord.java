@@ -0,0 +1,25 @@
+package no.nordicsemi.android.support.v18.scanner;
+
+/**
+ * Benchmark stand-in.
+ */
+public final class ScanRecord {
+
+    private final byte[] mBytes;
+
+    private ScanRecord(byte[] bytes) {
+        mBytes = bytes;
+    }
+
+    public static ScanRecord parseFromBytes(byte[] scanRecord) {
+        return new ScanRecord(scanRecord);
+    }
+
+    public byte[] getBytes() {
+        return mBytes;
+    }
+
+    public String getDeviceName() {
+        return null;
+    }
+}
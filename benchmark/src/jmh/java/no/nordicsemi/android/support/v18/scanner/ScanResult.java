@@ -0,0 +1,37 @@
+package no.nordicsemi.android.support.v18.scanner;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Benchmark stand-in.
+ */
+public final class ScanResult {
+
+    private final BluetoothDevice mDevice;
+    private final ScanRecord mScanRecord;
+    private final int mRssi;
+    private final long mTimestampNanos;
+
+    public ScanResult(BluetoothDevice device, ScanRecord scanRecord, int rssi, long timestampNanos) {
+        mDevice = device;
+        mScanRecord = scanRecord;
+        mRssi = rssi;
+        mTimestampNanos = timestampNanos;
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    public ScanRecord getScanRecord() {
+        return mScanRecord;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+}
@@ -0,0 +1,42 @@
+package no.nordicsemi.android.support.v18.scanner;
+
+/**
+ * Benchmark stand-in.
+ */
+public final class ScanSettings {
+
+    public static final int SCAN_MODE_OPPORTUNISTIC = -1;
+    public static final int SCAN_MODE_LOW_POWER = 0;
+    public static final int SCAN_MODE_BALANCED = 1;
+    public static final int SCAN_MODE_LOW_LATENCY = 2;
+
+    private ScanSettings() {
+    }
+
+    public static final class Builder {
+
+        public Builder setScanMode(int scanMode) {
+            return this;
+        }
+
+        public Builder setReportDelay(long reportDelayMillis) {
+            return this;
+        }
+
+        public Builder setUseHardwareBatchingIfSupported(boolean use) {
+            return this;
+        }
+
+        public Builder setMatchMode(int matchMode) {
+            return this;
+        }
+
+        public Builder setNumOfMatches(int numOfMatches) {
+            return this;
+        }
+
+        public ScanSettings build() {
+            return new ScanSettings();
+        }
+    }
+}
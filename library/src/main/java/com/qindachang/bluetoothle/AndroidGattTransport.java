@@ -0,0 +1,217 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.UUID;
+
+import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
+
+/**
+ * {@link GattTransport} on top of the framework {@link BluetoothGatt}.
+ */
+class AndroidGattTransport implements GattTransport {
+
+    private static final String TAG = AndroidGattTransport.class.getSimpleName();
+
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public GattTransport connect(Context context, BluetoothDevice device, boolean autoConnect, BleManagerGattCallback callback) {
+            AndroidGattTransport transport = new AndroidGattTransport(device, callback);
+            BluetoothGatt gatt;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                gatt = device.connectGatt(context, autoConnect, transport.mGattCallback, TRANSPORT_LE);
+            } else {
+                gatt = device.connectGatt(context, autoConnect, transport.mGattCallback);
+            }
+            transport.setGatt(gatt);
+            return transport;
+        }
+    };
+
+    private final BluetoothDevice mDevice;
+    private final BleManagerGattCallback mCallback;
+    // may be first seen in a callback that races connectGatt() returning
+    private volatile BluetoothGatt mGatt;
+
+    private AndroidGattTransport(BluetoothDevice device, BleManagerGattCallback callback) {
+        mDevice = device;
+        mCallback = callback;
+    }
+
+    private void setGatt(BluetoothGatt gatt) {
+        if (gatt != null) {
+            mGatt = gatt;
+        }
+    }
+
+    @Override
+    public BluetoothGatt getBluetoothGatt() {
+        return mGatt;
+    }
+
+    @Override
+    public int getBondState() {
+        return mDevice.getBondState();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.discoverServices();
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        final BluetoothGatt gatt = mGatt;
+        return gatt == null ? null : gatt.getServices();
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt == null ? null : gatt.getService(uuid);
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.setCharacteristicNotification(characteristic, enable);
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean beginReliableWrite() {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.beginReliableWrite();
+    }
+
+    @Override
+    public boolean executeReliableWrite() {
+        final BluetoothGatt gatt = mGatt;
+        return gatt != null && gatt.executeReliableWrite();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void abortReliableWrite() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            gatt.abortReliableWrite();
+        } else {
+            gatt.abortReliableWrite(mDevice);
+        }
+    }
+
+    @Override
+    public boolean refresh() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return false;
+        }
+        try {
+            Method e = BluetoothGatt.class.getMethod("refresh");
+            if (e != null) {
+                return ((Boolean) e.invoke(gatt)).booleanValue();
+            }
+        } catch (Exception exception) {
+            Log.e(TAG, "An exception occured while refreshing device", exception);
+        }
+        return false;
+    }
+
+    @Override
+    public void disconnect() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        final BluetoothGatt gatt = mGatt;
+        if (gatt != null) {
+            gatt.close();
+        }
+    }
+
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            setGatt(gatt);
+            mCallback.onConnectionStateChange(AndroidGattTransport.this, status, newState);
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            mCallback.onServicesDiscovered(AndroidGattTransport.this, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicRead(AndroidGattTransport.this, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            mCallback.onCharacteristicWrite(AndroidGattTransport.this, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            mCallback.onCharacteristicChanged(AndroidGattTransport.this, characteristic);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            mCallback.onDescriptorWrite(AndroidGattTransport.this, descriptor, status);
+        }
+
+        @Override
+        public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
+            mCallback.onReliableWriteCompleted(AndroidGattTransport.this, status);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mCallback.onMtuChanged(AndroidGattTransport.this, mtu, status);
+        }
+    };
+}
@@ -0,0 +1,24 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * What the background notification dispatcher, or a {@link LeNotificationPublisher} subscriber,
+ * does when its buffer is full.
+ */
+public enum BackpressurePolicy {
+
+    /** Discard the oldest undelivered notification to make room for the new one. */
+    DROP_OLDEST,
+
+    /**
+     * Hold the Bluetooth binder thread until the listener or subscriber has caught up, for at most
+     * {@link LeNotificationPublisher#BLOCK_TIMEOUT_MILLIS}, since every other GATT callback waits
+     * behind it; then drop the oldest notifications until it catches up.
+     */
+    BLOCK,
+
+    /**
+     * Keep only the newest undelivered notification of each characteristic; a publisher
+     * subscriber's buffer replaces its newest entry.
+     */
+    COALESCE
+}
@@ -0,0 +1,956 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One entry of the {@link BleManager} connection pool: the GATT link to a single device,
+ * with its own request queue, retry state and listeners.
+ */
+class BleConnection {
+
+    private static final String TAG = BleConnection.class.getSimpleName();
+
+    static final int DEFAULT_MTU = 23;
+    // ATT write request header: opcode + attribute handle
+    private static final int ATT_WRITE_HEADER_SIZE = 3;
+
+    // lets a fresh bond settle before service discovery
+    private static final int SERVICE_DISCOVERY_DELAY_MILLIS = 600;
+
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private final BleManager mBleManager;
+    private final Context mContext;
+    private final Handler mHandler;
+    private final BluetoothDevice mBluetoothDevice;
+
+    private GattTransport mTransport;
+    private final AtomicReference<ConnectionState> mState = new AtomicReference<>(ConnectionState.DISCONNECTED);
+    private boolean mAutoConnect;
+    private volatile boolean mDisconnectRequested;
+    private volatile int mMtu = DEFAULT_MTU;
+    private volatile boolean mClosed;
+
+    private OnLeConnectListener mOnLeConnectListener;
+    private OnLeNotificationListener mOnLeNotificationListener;
+    private OnLeNotificationSnapshotListener mOnLeNotificationSnapshotListener;
+    private OnLeWriteCharacteristicListener mOnLeWriteCharacteristicListener;
+    private OnLeReadCharacteristicListener mOnLeReadCharacteristicListener;
+
+    private final RequestQueue mRequestQueue;
+    private final SubscriptionTable mSubscriptions = new SubscriptionTable();
+    private final GattCache mGattCache = new GattCache();
+    private final ReconnectScheduler mReconnectScheduler;
+
+    BleConnection(BleManager bleManager, Context context, Handler handler, TimerWheel timerWheel, BluetoothDevice device) {
+        mBleManager = bleManager;
+        mContext = context;
+        mHandler = handler;
+        mBluetoothDevice = device;
+        mRequestQueue = new RequestQueue(this, timerWheel);
+        mReconnectScheduler = new ReconnectScheduler(this, bleManager, handler);
+    }
+
+    String getAddress() {
+        return mBluetoothDevice.getAddress();
+    }
+
+    BluetoothDevice getDevice() {
+        return mBluetoothDevice;
+    }
+
+    int getRequestTimeoutMillis() {
+        return mBleManager.getRequestTimeoutMillis();
+    }
+
+    TimeoutPolicy getRequestTimeoutPolicy() {
+        return mBleManager.getRequestTimeoutPolicy();
+    }
+
+    int getRequestRetryCount() {
+        return mBleManager.getRequestRetryCount();
+    }
+
+    RequestScheduling getRequestScheduling() {
+        return mBleManager.getRequestScheduling();
+    }
+
+    int getRequestLaneWeight(RequestPriority priority) {
+        return mBleManager.getRequestLaneWeight(priority);
+    }
+
+    RequestLaneStats getRequestLaneStats(RequestPriority priority) {
+        return mRequestQueue.getLaneStats(priority);
+    }
+
+    int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * The largest value one write request carries at the current MTU.
+     */
+    int getMaxWriteLength() {
+        return mMtu - ATT_WRITE_HEADER_SIZE;
+    }
+
+    int getWriteNoResponseWindow() {
+        return mBleManager.getWriteNoResponseWindow();
+    }
+
+    ConnectionState getState() {
+        return mState.get();
+    }
+
+    private boolean transition(ConnectionState from, ConnectionState to) {
+        if (mState.compareAndSet(from, to)) {
+            Log.d(TAG, getAddress() + ": " + from + " -> " + to);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to CONNECTING unless the link is already up.
+     */
+    private boolean enterConnecting() {
+        while (true) {
+            ConnectionState state = mState.get();
+            if (state.isConnected()) {
+                return false;
+            }
+            if (transition(state, ConnectionState.CONNECTING)) {
+                return true;
+            }
+        }
+    }
+
+    boolean connect(boolean autoConnect) {
+        mAutoConnect = autoConnect;
+        if (!enterConnecting()) {
+            Log.d(TAG, "Bluetooth has been connected. connect false.");
+            dispatchConnectFail();
+            return false;
+        }
+        mDisconnectRequested = false;
+        mReconnectScheduler.reset();
+        return connectGatt(autoConnect);
+    }
+
+    /**
+     * Attempt started by the {@link ReconnectScheduler}, which may ask for a background autoConnect.
+     */
+    void reconnect(boolean autoConnect) {
+        if (mDisconnectRequested || mClosed || !enterConnecting()) {
+            return;
+        }
+        connectGatt(autoConnect);
+    }
+
+    boolean isAutoConnect() {
+        return mAutoConnect;
+    }
+
+    ReconnectStats getReconnectStats() {
+        return mReconnectScheduler.getStats();
+    }
+
+    private boolean connectGatt(boolean autoConnect) {
+        if (mTransport != null) {
+            Log.d(TAG, "The GATT transport already exist, set it close() and null.");
+            mTransport.close();
+            mTransport = null;
+        }
+        Log.d(TAG, "create new device connection for BluetoothGatt. " + getAddress());
+
+        int attemptId = mReconnectScheduler.onAttemptStarted();
+        mTransport = mBleManager.getTransportFactory().connect(mContext, mBluetoothDevice, autoConnect, mGattCallback);
+        if (mOnLeConnectListener != null) {
+            mOnLeConnectListener.onDeviceConnecting();
+        }
+        mBleManager.dispatchDeviceConnecting();
+
+        checkConnected(attemptId);
+
+        return true;
+    }
+
+    private void checkConnected(final int attemptId) {
+        final int connectTimeoutMillis = mBleManager.getConnectTimeoutMillis();
+        // a background autoConnect request is meant to wait as long as it takes
+        if (mBleManager.isRetryConnectEnable() && connectTimeoutMillis > 0 && !mReconnectScheduler.isBackground()) {
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (mTransport != null && mReconnectScheduler.isCurrent(attemptId)
+                            && transition(ConnectionState.CONNECTING, ConnectionState.DISCONNECTED)) {
+                        // stop the pending connect so the radio is quiet during the backoff
+                        mTransport.close();
+                        mTransport = null;
+                        mReconnectScheduler.onAttemptFailed(attemptId, "connect timeout");
+                    }
+                }
+            }, connectTimeoutMillis);
+        }
+    }
+
+    private void checkServiceDiscover() {
+        final int serviceTimeoutMillis = mBleManager.getServiceTimeoutMillis();
+        final int attemptId = mReconnectScheduler.getAttemptId();
+        if (mBleManager.isRetryConnectEnable() && serviceTimeoutMillis > 0) {
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    ConnectionState state = mState.get();
+                    if (state.isConnected() && state != ConnectionState.READY && mTransport != null
+                            && mReconnectScheduler.isCurrent(attemptId)) {
+                        // the disconnect callback reports the failed attempt
+                        Log.d(TAG, "service discovery timeout. " + getAddress());
+                        mTransport.disconnect();
+                    }
+                }
+            }, serviceTimeoutMillis);
+        }
+    }
+
+    boolean getConnected() {
+        return mState.get().isConnected();
+    }
+
+    void disconnect() {
+        mDisconnectRequested = true;
+        mReconnectScheduler.reset();
+        ConnectionState state = mState.get();
+        if (mTransport == null) {
+            return;
+        }
+        if (state.isConnected() && transition(state, ConnectionState.DISCONNECTING)) {
+            mTransport.disconnect();
+        } else if (transition(ConnectionState.CONNECTING, ConnectionState.DISCONNECTED)) {
+            // cancels the pending connect, the stack may not call back for it
+            mTransport.disconnect();
+        }
+    }
+
+    void close() {
+        mClosed = true;
+        mDisconnectRequested = true;
+        mReconnectScheduler.reset();
+        mRequestQueue.cancelAll();
+        mGattCache.clear();
+        mState.set(ConnectionState.DISCONNECTED);
+        if (mTransport != null) {
+            mTransport.close();
+            mTransport = null;
+        }
+        for (SubscriptionTable.Subscription subscription : mSubscriptions.values()) {
+            for (LeListener listener : subscription.listeners) {
+                if (listener instanceof LeNotificationPublisher) {
+                    ((LeNotificationPublisher) listener).complete();
+                }
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    boolean clearDeviceCache() {
+        if (mTransport == null) {
+            Log.e(TAG, "please connected bluetooth then clear cache.");
+            return false;
+        }
+        mGattCache.clear();
+        BondedDeviceStore store = mBleManager.getBondedDeviceStore();
+        if (store != null) {
+            store.remove(getAddress());
+        }
+        boolean success = mTransport.refresh();
+        Log.i(TAG, "refresh Device Cache: " + success);
+        return success;
+    }
+
+    void setConnectListener(OnLeConnectListener onLeConnectListener) {
+        mOnLeConnectListener = onLeConnectListener;
+    }
+
+    void setOnLeNotificationListener(OnLeNotificationListener onLeNotificationListener) {
+        mOnLeNotificationListener = onLeNotificationListener;
+    }
+
+    void setOnLeNotificationSnapshotListener(OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mOnLeNotificationSnapshotListener = onLeNotificationSnapshotListener;
+    }
+
+    void setWriteCharacteristicListener(OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        mOnLeWriteCharacteristicListener = onLeWriteCharacteristicListener;
+    }
+
+    void setOnLeReadCharacteristicListener(OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        mOnLeReadCharacteristicListener = onLeReadCharacteristicListener;
+    }
+
+    void destroy() {
+        mOnLeConnectListener = null;
+        mOnLeNotificationListener = null;
+        mOnLeNotificationSnapshotListener = null;
+        mOnLeWriteCharacteristicListener = null;
+        mOnLeReadCharacteristicListener = null;
+    }
+
+    LeFuture enableNotificationQueue(RequestPriority priority, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        if (serviceUUID == null) {
+            Log.d(TAG, "the serviceUUID is null. ");
+            return LeFuture.failed("The serviceUUID is null", LeStatus.REQUEST_NOT_STARTED);
+        }
+        LeFuture[] futures = new LeFuture[characteristicUUIDs.length];
+        for (int i = 0; i < characteristicUUIDs.length; i++) {
+            Request request = newEnableNotificationsRequest(enable, serviceUUID, characteristicUUIDs[i]).priority(priority);
+            mRequestQueue.addRequest(request);
+            futures[i] = request.future;
+        }
+        return futures.length == 1 ? futures[0] : LeFuture.allOf(futures);
+    }
+
+    LeFuture enableNotificationQueue(RequestPriority priority, boolean enable, CharacteristicHandle handle) {
+        Request request = Request.newEnableNotificationsRequest(enable, handle.resolve())
+                .target(handle.getServiceUuid(), handle.getCharacteristicUuid())
+                .priority(priority);
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    private Request newEnableNotificationsRequest(boolean enable, UUID serviceUUID, UUID characteristicUUID) {
+        return Request.newEnableNotificationsRequest(enable, getCharacteristic(serviceUUID, characteristicUUID))
+                .target(serviceUUID, characteristicUUID);
+    }
+
+    int getGattGeneration() {
+        return mGattCache.getGeneration();
+    }
+
+    /**
+     * Looks the characteristic up in the table built by onServicesDiscovered, falling back to the
+     * GATT services before the table exists.
+     */
+    BluetoothGattCharacteristic getCharacteristic(UUID serviceUUID, UUID characteristicUUID) {
+        if (!mGattCache.isEmpty()) {
+            return mGattCache.get(serviceUUID, characteristicUUID);
+        }
+        final GattTransport gatt = mTransport;
+        BluetoothGattService service = gatt == null ? null : gatt.getService(serviceUUID);
+        return service == null ? null : service.getCharacteristic(characteristicUUID);
+    }
+
+    void subscribe(UUID serviceUUID, UUID characteristicUUID, LeListener listener) {
+        if (mSubscriptions.add(serviceUUID, characteristicUUID, listener) && mState.get() == ConnectionState.READY) {
+            enableNotificationQueue(RequestPriority.NORMAL, true, serviceUUID, new UUID[]{characteristicUUID});
+        }
+    }
+
+    void unsubscribe(UUID characteristicUUID, LeListener listener) {
+        SubscriptionTable.Subscription last = mSubscriptions.remove(characteristicUUID, listener);
+        if (last != null && mState.get() == ConnectionState.READY) {
+            enableNotificationQueue(RequestPriority.NORMAL, false, last.serviceUUID, new UUID[]{characteristicUUID});
+        }
+    }
+
+    /**
+     * Falls back to indications for a characteristic that cannot notify, so subscriptions work
+     * for both.
+     */
+    boolean enableNotification(boolean enable, BluetoothGattCharacteristic characteristic) {
+        if (characteristic == null)
+            return false;
+        final int properties = characteristic.getProperties();
+        if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0)
+            return enableIndication(enable, characteristic);
+        return writeClientConfig(characteristic, enable, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+    }
+
+    boolean enableIndication(boolean enable, BluetoothGattCharacteristic characteristic) {
+        if (characteristic == null)
+            return false;
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_INDICATE) == 0)
+            return false;
+        return writeClientConfig(characteristic, enable, BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+    }
+
+    private boolean writeClientConfig(BluetoothGattCharacteristic characteristic, boolean enable, byte[] enableValue) {
+        final GattTransport gatt = mTransport;
+        if (gatt == null)
+            return false;
+        gatt.setCharacteristicNotification(characteristic, enable);
+        final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID);
+        if (descriptor != null) {
+            descriptor.setValue(enable ? enableValue : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+            return gatt.writeDescriptor(descriptor);
+        }
+        return false;
+    }
+
+    LeFuture enableIndicationQueue(RequestPriority priority, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        if (serviceUUID == null) {
+            Log.d(TAG, "the serviceUUID is null. ");
+            return LeFuture.failed("The serviceUUID is null", LeStatus.REQUEST_NOT_STARTED);
+        }
+        LeFuture[] futures = new LeFuture[characteristicUUIDs.length];
+        for (int i = 0; i < characteristicUUIDs.length; i++) {
+            Request request = Request.newEnableIndicationsRequest(enable, getCharacteristic(serviceUUID, characteristicUUIDs[i]))
+                    .target(serviceUUID, characteristicUUIDs[i])
+                    .priority(priority);
+            mRequestQueue.addRequest(request);
+            futures[i] = request.future;
+        }
+        return futures.length == 1 ? futures[0] : LeFuture.allOf(futures);
+    }
+
+    LeFuture enableIndicationQueue(RequestPriority priority, boolean enable, CharacteristicHandle handle) {
+        Request request = Request.newEnableIndicationsRequest(enable, handle.resolve())
+                .target(handle.getServiceUuid(), handle.getCharacteristicUuid())
+                .priority(priority);
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    LeFuture reliableWriteQueue(RequestPriority priority, Request[] writes) {
+        if (writes.length == 0) {
+            Log.d(TAG, "the reliable write is empty. ");
+            return LeFuture.failed("The reliable write is empty", LeStatus.REQUEST_NOT_STARTED);
+        }
+        Request request = Request.newReliableWriteRequest(writes)
+                .priority(priority);
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    /**
+     * Starts a reliable write with its first prepared write.
+     */
+    boolean beginReliableWrite(Request first) {
+        final GattTransport gatt = mTransport;
+        if (gatt == null || !gatt.beginReliableWrite())
+            return false;
+        if (!writePrepared(first.getCharacteristic(), first.getValue())) {
+            gatt.abortReliableWrite();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Prepared writes need an acknowledged write, so write-without-response-only characteristics
+     * are refused.
+     */
+    boolean writePrepared(BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (characteristic == null || (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE) == 0)
+            return false;
+        return writeCharacteristic(characteristic, value);
+    }
+
+    boolean executeReliableWrite() {
+        final GattTransport gatt = mTransport;
+        return gatt != null && gatt.executeReliableWrite();
+    }
+
+    void abortReliableWrite() {
+        final GattTransport gatt = mTransport;
+        if (gatt != null) {
+            gatt.abortReliableWrite();
+        }
+    }
+
+    LeFuture writeCharacteristicQueue(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        if (serviceUUID == null || characteristicUUID == null) {
+            Log.d(TAG, "the serviceUUID or characteristicUUID is null. ");
+            return LeFuture.failed("The serviceUUID or characteristicUUID is null", LeStatus.REQUEST_NOT_STARTED);
+        }
+        Request request = Request.newWriteRequest(getCharacteristic(serviceUUID, characteristicUUID), bytes)
+                .target(serviceUUID, characteristicUUID)
+                .priority(priority)
+                .coalescing(mBleManager.isWriteCoalescing(characteristicUUID));
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    LeFuture writeCharacteristicQueue(RequestPriority priority, CharacteristicHandle handle, byte[] bytes) {
+        Request request = Request.newWriteRequest(handle.resolve(), bytes)
+                .target(handle.getServiceUuid(), handle.getCharacteristicUuid())
+                .priority(priority)
+                .coalescing(mBleManager.isWriteCoalescing(handle.getCharacteristicUuid()));
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value) {
+        final GattTransport gatt = mTransport;
+        if (gatt == null || characteristic == null)
+            return false;
+        // Check characteristic property
+        final int properties = characteristic.getProperties();
+        if ((properties & (BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) == 0)
+            return false;
+        if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0) {
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        }
+        characteristic.setValue(value);
+        return gatt.writeCharacteristic(characteristic);
+    }
+
+    LeFuture writeCharacteristicQueue(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteTransferListener listener) {
+        if (serviceUUID == null || characteristicUUID == null || bytes == null) {
+            Log.d(TAG, "the serviceUUID or characteristicUUID or bytes is null. ");
+            return LeFuture.failed("The serviceUUID or characteristicUUID or bytes is null", LeStatus.REQUEST_NOT_STARTED);
+        }
+        BluetoothGattCharacteristic characteristic = getCharacteristic(serviceUUID, characteristicUUID);
+        WriteTransfer transfer = new WriteTransfer(bytes, listener);
+        mRequestQueue.addRequest(Request.newWriteTransferRequest(characteristic, transfer)
+                .target(serviceUUID, characteristicUUID).priority(priority));
+        return transfer.future;
+    }
+
+    boolean requestMtu(int mtu) {
+        final GattTransport gatt = mTransport;
+        if (gatt == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return false;
+        return gatt.requestMtu(mtu);
+    }
+
+    LeFuture writeCharacteristicNoResponseQueue(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        if (serviceUUID == null || characteristicUUID == null) {
+            Log.d(TAG, "the serviceUUID or characteristicUUID is null. ");
+            return LeFuture.failed("The serviceUUID or characteristicUUID is null", LeStatus.REQUEST_NOT_STARTED);
+        }
+        Request request = Request.newWriteNoResponseRequest(getCharacteristic(serviceUUID, characteristicUUID), bytes)
+                .target(serviceUUID, characteristicUUID)
+                .priority(priority)
+                .coalescing(mBleManager.isWriteCoalescing(characteristicUUID));
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    LeFuture writeCharacteristicNoResponseQueue(RequestPriority priority, CharacteristicHandle handle, byte[] bytes) {
+        Request request = Request.newWriteNoResponseRequest(handle.resolve(), bytes)
+                .target(handle.getServiceUuid(), handle.getCharacteristicUuid())
+                .priority(priority)
+                .coalescing(mBleManager.isWriteCoalescing(handle.getCharacteristicUuid()));
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    boolean writeCharacteristicNoResponse(BluetoothGattCharacteristic characteristic, byte[] value) {
+        final GattTransport gatt = mTransport;
+        if (gatt == null || characteristic == null)
+            return false;
+        if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) == 0)
+            return false;
+        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        characteristic.setValue(value);
+        return gatt.writeCharacteristic(characteristic);
+    }
+
+    float getWriteThroughput() {
+        return mRequestQueue.getWriteThroughput();
+    }
+
+    LeFuture readCharacteristicQueue(RequestPriority priority, UUID serviceUUID, UUID characteristicUUID) {
+        if (serviceUUID == null || characteristicUUID == null) {
+            Log.d(TAG, "the serviceUUID or characteristicUUID is null. ");
+            return LeFuture.failed("The serviceUUID or characteristicUUID is null", LeStatus.REQUEST_NOT_STARTED);
+        }
+        Request request = Request.newReadRequest(getCharacteristic(serviceUUID, characteristicUUID))
+                .target(serviceUUID, characteristicUUID)
+                .priority(priority);
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    LeFuture readCharacteristicQueue(RequestPriority priority, CharacteristicHandle handle) {
+        Request request = Request.newReadRequest(handle.resolve())
+                .target(handle.getServiceUuid(), handle.getCharacteristicUuid())
+                .priority(priority);
+        mRequestQueue.addRequest(request);
+        return request.future;
+    }
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        final GattTransport gatt = mTransport;
+        if (gatt == null || characteristic == null)
+            return false;
+        // Check characteristic property
+        final int properties = characteristic.getProperties();
+        if ((properties & BluetoothGattCharacteristic.PROPERTY_READ) == 0)
+            return false;
+        return gatt.readCharacteristic(characteristic);
+    }
+
+    void clearQueue() {
+        mRequestQueue.cancelAll();
+    }
+
+    void onRequestFailed(Request request, final String msg, final int status) {
+        request.future.fail(msg, status);
+        if (request.transfer != null) {
+            onTransferChunkFailed(request.transfer, msg, status);
+            return;
+        }
+        final UUID characteristicUUID = request.getCharacteristic() == null ? null : request.getCharacteristic().getUuid();
+        switch (request.type) {
+            case WRITE:
+            case WRITE_NO_RESPONSE:
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeWriteCharacteristicListener != null) {
+                            mOnLeWriteCharacteristicListener.onFailed(msg, status);
+                        }
+                        mBleManager.dispatchWriteFailure(characteristicUUID, msg, status);
+                    }
+                });
+                break;
+            case READ:
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeReadCharacteristicListener != null) {
+                            mOnLeReadCharacteristicListener.onFailure(msg, status);
+                        }
+                        mBleManager.dispatchReadFailure(characteristicUUID, msg, status);
+                    }
+                });
+                break;
+            default:
+                Log.w(TAG, msg + ", status: " + status);
+                break;
+        }
+    }
+
+    void deliverNotification(NotificationSnapshot snapshot) {
+        SubscriptionTable.Subscription subscription = mSubscriptions.get(snapshot.getCharacteristicUuid());
+        if (subscription != null) {
+            for (LeListener listener : subscription.listeners) {
+                if (listener instanceof LeNotificationPublisher) {
+                    // already fed on the binder thread
+                    continue;
+                }
+                if (listener instanceof OnLeNotificationSnapshotListener) {
+                    ((OnLeNotificationSnapshotListener) listener).onNotification(snapshot);
+                } else {
+                    ((OnLeNotificationListener) listener).onSuccess(snapshot.characteristic);
+                }
+            }
+        }
+        if (mOnLeNotificationListener != null) {
+            mOnLeNotificationListener.onSuccess(snapshot.characteristic);
+        }
+        if (mOnLeNotificationSnapshotListener != null) {
+            mOnLeNotificationSnapshotListener.onNotification(snapshot);
+        }
+        mBleManager.dispatchNotification(snapshot);
+    }
+
+    private void onTransferWritten(final WriteTransfer transfer) {
+        transfer.future.complete(null);
+        if (transfer.listener != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    transfer.listener.onSuccess(transfer.length);
+                }
+            });
+        }
+    }
+
+    private void onTransferChunkFailed(final WriteTransfer transfer, final String msg, final int status) {
+        if (!transfer.fail()) {
+            return;
+        }
+        transfer.future.fail(msg, status);
+        if (transfer.listener != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    transfer.listener.onFailed(msg, status);
+                }
+            });
+        }
+    }
+
+    private void dispatchConnectFail() {
+        if (mOnLeConnectListener != null) {
+            mOnLeConnectListener.onDeviceConnectFail();
+        }
+        mBleManager.dispatchDeviceConnectFail();
+    }
+
+    private BleManagerGattCallback mGattCallback = new BleManagerGattCallback() {
+
+        @Override
+        public void onConnectionStateChange(final GattTransport gatt, final int status, int newState) {
+            super.onConnectionStateChange(gatt, status, newState);
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                if (!transition(ConnectionState.CONNECTING, ConnectionState.CONNECTED)) {
+                    if (!mState.get().isConnected()) {
+                        // disconnect() won the race against the stack
+                        Log.d(TAG, "drop connection that is no longer wanted. " + getAddress());
+                        gatt.disconnect();
+                    }
+                    return;
+                }
+                Log.d(TAG, "device connect success! " + getAddress());
+                mBleManager.onConnectionEstablished(BleConnection.this);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeConnectListener != null) {
+                            mOnLeConnectListener.onDeviceConnected();
+                        }
+                        mBleManager.dispatchDeviceConnected();
+                    }
+                });
+
+                // a bonded device discovered before answers from the stack's own GATT cache, no need to wait
+                BondedDeviceStore store = mBleManager.getBondedDeviceStore();
+                boolean cached = store != null && gatt.getBondState() == BluetoothDevice.BOND_BONDED
+                        && store.contains(getAddress());
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mTransport != null && gatt.getBondState() != BluetoothDevice.BOND_BONDING
+                                && transition(ConnectionState.CONNECTED, ConnectionState.DISCOVERING)) {
+                            mTransport.discoverServices();
+                            checkServiceDiscover();
+                        }
+                    }
+                }, cached ? 0 : SERVICE_DISCOVERY_DELAY_MILLIS);
+
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                Log.d(TAG, "device disconnect. " + getAddress());
+                ConnectionState from = mState.getAndSet(ConnectionState.DISCONNECTED);
+                Log.d(TAG, getAddress() + ": " + from + " -> " + ConnectionState.DISCONNECTED);
+                mRequestQueue.pause();
+                mMtu = DEFAULT_MTU;
+                mGattCache.clear();
+                final int attemptId = mReconnectScheduler.getAttemptId();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeConnectListener != null) {
+                            mOnLeConnectListener.onDeviceDisconnected();
+                        }
+                        mBleManager.dispatchDeviceDisconnected();
+                        if (!mDisconnectRequested) {
+                            mReconnectScheduler.onAttemptFailed(attemptId, "link lost, status " + status);
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(final GattTransport gatt, int status) {
+            super.onServicesDiscovered(gatt, status);
+
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "success with find services discovered .");
+                mGattCache.fill(gatt.getServices());
+                if (!transition(ConnectionState.DISCOVERING, ConnectionState.READY)) {
+                    Log.d(TAG, "ignore services discovered in state " + mState.get());
+                    return;
+                }
+                mReconnectScheduler.onReady();
+                BondedDeviceStore store = mBleManager.getBondedDeviceStore();
+                if (store != null && gatt.getBondState() == BluetoothDevice.BOND_BONDED && store.add(getAddress())) {
+                    Log.d(TAG, getAddress() + " remembered as a discovered bonded device.");
+                }
+                List<Request> setupRequests = new ArrayList<>();
+                int mtu = mBleManager.getRequestMtu();
+                if (mtu > DEFAULT_MTU && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    setupRequests.add(Request.newMtuRequest(mtu));
+                }
+                // the peripheral forgets the CCCD of an unbonded client, so subscriptions are written again
+                for (SubscriptionTable.Subscription subscription : mSubscriptions.values()) {
+                    setupRequests.add(newEnableNotificationsRequest(true, subscription.serviceUUID, subscription.characteristicUUID));
+                }
+                mRequestQueue.resume(setupRequests);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeConnectListener != null) {
+                            mOnLeConnectListener.onServicesDiscovered(gatt.getBluetoothGatt());
+                        }
+                        mBleManager.dispatchServicesDiscovered(gatt.getBluetoothGatt());
+                    }
+                });
+
+            } else if (status == BluetoothGatt.GATT_FAILURE) {
+                Log.d(TAG, "failure find services discovered.");
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(GattTransport gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+            super.onCharacteristicRead(gatt, characteristic, status);
+            final byte[] value = characteristic.getValue();
+            //read
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeReadCharacteristicListener != null) {
+                            mOnLeReadCharacteristicListener.onSuccess(characteristic);
+                        }
+                        mBleManager.dispatchReadSuccess(characteristic);
+                    }
+                });
+            } else {
+                final String info = status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION
+                        ? "Phone has lost bonding information" : "Error on reading characteristic";
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeReadCharacteristicListener != null) {
+                            mOnLeReadCharacteristicListener.onFailure(info, status);
+                        }
+                        mBleManager.dispatchReadFailure(characteristic.getUuid(), info, status);
+                    }
+                });
+            }
+            Request request = mRequestQueue.next(Request.Type.READ, characteristic, status);
+            if (request != null) {
+                completeFuture(request, status, "Error on reading characteristic",
+                        value == null ? null : value.clone());
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(GattTransport gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+            super.onCharacteristicWrite(gatt, characteristic, status);
+            if (mRequestQueue.onPreparedWrite(characteristic, status)) {
+                return;
+            }
+            Request request = mRequestQueue.next(Request.Type.WRITE, characteristic, status);
+            if (request != null && request.transfer != null) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    onTransferWritten(request.transfer);
+                } else {
+                    onTransferChunkFailed(request.transfer, "Error on writing characteristic", status);
+                }
+                return;
+            }
+            if (request != null) {
+                completeFuture(request, status, "Error on writing characteristic", request.getValue());
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeWriteCharacteristicListener != null) {
+                            mOnLeWriteCharacteristicListener.onSuccess(characteristic);
+                        }
+                        mBleManager.dispatchWriteSuccess(characteristic);
+                    }
+                });
+            } else {
+                final String msg = status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION
+                        ? "Phone has lost of bonding information. " : "Error on writing characteristic";
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mOnLeWriteCharacteristicListener != null) {
+                            mOnLeWriteCharacteristicListener.onFailed(msg, status);
+                        }
+                        mBleManager.dispatchWriteFailure(characteristic.getUuid(), msg, status);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(GattTransport gatt, final BluetoothGattCharacteristic characteristic) {
+            super.onCharacteristicChanged(gatt, characteristic);
+            long timestampNanos = SystemClock.elapsedRealtimeNanos();
+            SubscriptionTable.Subscription subscription = mSubscriptions.get(characteristic.getUuid());
+            if (subscription != null) {
+                for (LeListener listener : subscription.listeners) {
+                    if (listener instanceof LeNotificationPublisher) {
+                        ((LeNotificationPublisher) listener).publish(BleConnection.this, characteristic, timestampNanos);
+                    }
+                }
+            }
+            // copy the value now: the stack reuses this characteristic for the next packet
+            NotificationSnapshot snapshot = mBleManager.obtainSnapshot();
+            snapshot.fill(BleConnection.this, characteristic, timestampNanos);
+            NotificationDispatcher dispatcher = mBleManager.getNotificationDispatcher();
+            if (dispatcher != null) {
+                dispatcher.publish(snapshot);
+            } else {
+                mHandler.post(snapshot);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(GattTransport gatt, BluetoothGattDescriptor descriptor, int status) {
+            super.onDescriptorWrite(gatt, descriptor, status);
+            Request request = mRequestQueue.next(Request.Type.ENABLE_NOTIFICATIONS, descriptor.getCharacteristic(), status);
+            if (request != null) {
+                completeFuture(request, status, "Error on writing descriptor", null);
+            }
+        }
+
+        @Override
+        public void onReliableWriteCompleted(GattTransport gatt, int status) {
+            super.onReliableWriteCompleted(gatt, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "reliable write completed.");
+            } else {
+                Log.d(TAG, "failure reliable write, status: " + status);
+            }
+            Request request = mRequestQueue.onReliableWriteCompleted();
+            if (request != null) {
+                completeFuture(request, status, "Error on executing reliable write", null);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(GattTransport gatt, int mtu, int status) {
+            super.onMtuChanged(gatt, mtu, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "mtu changed: " + mtu);
+                mMtu = mtu;
+            } else {
+                Log.d(TAG, "failure request mtu, status: " + status);
+            }
+            Request request = mRequestQueue.next(Request.Type.REQUEST_MTU, null, status);
+            if (request != null) {
+                completeFuture(request, status, "Error on requesting mtu", null);
+            }
+        }
+    };
+
+    private static void completeFuture(Request request, int status, String msg, byte[] value) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            request.future.complete(value);
+        } else {
+            request.future.fail(msg, status);
+        }
+    }
+
+}
@@ -6,13 +6,9 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ParcelUuid;
@@ -20,14 +16,20 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
 import no.nordicsemi.android.support.v18.scanner.ScanCallback;
@@ -35,8 +37,6 @@ import no.nordicsemi.android.support.v18.scanner.ScanFilter;
 import no.nordicsemi.android.support.v18.scanner.ScanResult;
 import no.nordicsemi.android.support.v18.scanner.ScanSettings;
 
-import static android.bluetooth.BluetoothDevice.TRANSPORT_LE;
-
 
 class BleManager {
 
@@ -44,36 +44,79 @@ class BleManager {
 
     private int REQUEST_PERMISSION_REQ_CODE = 888;
 
+    static final int DEFAULT_MAX_CONNECTIONS = 7;
+    static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 5000;
+    static final int DEFAULT_WRITE_NO_RESPONSE_WINDOW = 4;
+    static final int DEFAULT_REQUEST_MTU = 517;
+    static final int DEFAULT_RECONNECT_BASE_DELAY_MILLIS = 1000;
+    static final int DEFAULT_RECONNECT_MAX_DELAY_MILLIS = 60000;
+    static final int DEFAULT_NORMAL_LANE_WEIGHT = 4;
+    static final int DEFAULT_BULK_LANE_WEIGHT = 1;
+    // how long an adaptive scan stays balanced before stepping down to low power
+    private static final int ADAPTIVE_SCAN_LOW_POWER_DELAY_MILLIS = 10000;
+    static final int DEFAULT_SCAN_WINDOW_MILLIS = 5 * 60 * 1000;
+
     private boolean isStopScanAfterConnected;
-    private boolean isScanning;
-    private boolean mConnected;
-    private boolean mServiceDiscovered;
+    private volatile boolean isScanning;
+    private volatile ScanProfile mScanProfile = ScanProfile.LOW_LATENCY;
+    private volatile boolean mScanHardwareBatching;
+    private volatile int mScanMatchMode;
+    private volatile int mScanNumOfMatches;
+    private volatile int mAdaptiveScanTarget = 1;
+    private List<ScanFilter> mScanFilters;
+    private volatile LeScanFilter mScanFilter;
+    private int mScanReportDelayMillis;
+    private int mScanMode;
+    private boolean mAdaptiveScan;
+    private final Set<String> mAdaptiveScanFound = new HashSet<>();
+    private boolean mContinuousScan;
+    private volatile int mScanWindowMillis = DEFAULT_SCAN_WINDOW_MILLIS;
+    private final ScanWindowMeter mScanWindowMeter = new ScanWindowMeter();
     private boolean mRetryConnectEnable;
     private int mRetryConnectCount = 1;
+    private volatile int mReconnectBaseDelayMillis = DEFAULT_RECONNECT_BASE_DELAY_MILLIS;
+    private volatile int mReconnectMaxDelayMillis = DEFAULT_RECONNECT_MAX_DELAY_MILLIS;
     private int connectTimeoutMillis;
     private int serviceTimeoutMillis;
-
-    private boolean mAutoConnect;
-    private BluetoothDevice mBluetoothDevice;
+    private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+    private volatile int mRequestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+    private volatile TimeoutPolicy mRequestTimeoutPolicy = TimeoutPolicy.SKIP;
+    private volatile int mRequestRetryCount;
+    private volatile RequestScheduling mRequestScheduling = RequestScheduling.STRICT;
+    private volatile int mNormalLaneWeight = DEFAULT_NORMAL_LANE_WEIGHT;
+    private volatile int mBulkLaneWeight = DEFAULT_BULK_LANE_WEIGHT;
+    private final Set<UUID> mCoalescingCharacteristics = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    private volatile int mWriteNoResponseWindow = DEFAULT_WRITE_NO_RESPONSE_WINDOW;
+    private volatile int mRequestMtu = DEFAULT_REQUEST_MTU;
+    private volatile NotificationDispatcher mNotificationDispatcher;
+    private volatile BondedDeviceStore mBondedDeviceStore;
+    private volatile GattTransport.Factory mTransportFactory = AndroidGattTransport.FACTORY;
 
     private Context mContext;
 
-    private BluetoothGatt mBluetoothGatt;
-
-    private OnLeScanListener mOnLeScanListener;
-    private OnLeConnectListener mOnLeConnectListener;
-    private OnLeNotificationListener mOnLeNotificationListener;
-    private OnLeWriteCharacteristicListener mOnLeWriteCharacteristicListener;
-    private OnLeReadCharacteristicListener mOnLeReadCharacteristicListener;
-
-    private RequestQueue mRequestQueue = new RequestQueue();
-    private List<Map<Object, OnLeScanListener>> scanListenerList = new ArrayList<>();
-    private List<Map<Object, OnLeConnectListener>> connectListenerList = new ArrayList<>();
-    private List<Map<Object, OnLeWriteCharacteristicListener>> writeCharacteristicListenerList = new ArrayList<>();
-    private List<Map<Object, OnLeReadCharacteristicListener>> readCharacteristicListenerList = new ArrayList<>();
-    private List<Map<Object, OnLeNotificationListener>> notificationListenerList = new ArrayList<>();
+    private final Map<String, BleConnection> mConnections = new LinkedHashMap<>();
+    private String mCurrentAddress;
+
+    private final ListenerRegistry<OnLeScanListener> mScanListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeScanDeviceListener> mScanDeviceListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeScanWindowListener> mScanWindowListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeScanBatchListener> mScanBatchListeners = new ListenerRegistry<>();
+    // filled on the main thread for each batch
+    private final ScanBatch mScanBatch = new ScanBatch();
+    private final ListenerRegistry<OnLeConnectListener> mConnectListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeWriteCharacteristicListener> mWriteListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeReadCharacteristicListener> mReadListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeNotificationListener> mNotificationListeners = new ListenerRegistry<>();
+    private final ListenerRegistry<OnLeNotificationSnapshotListener> mNotificationSnapshotListeners = new ListenerRegistry<>();
 
     private Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile TimerWheel mTimerWheel = new TimerWheel(50, 128);
+    // jitter of the reconnect backoff
+    private volatile Random mReconnectRandom = new Random();
+    private final SnapshotPool mSnapshotPool = new SnapshotPool(256);
+    // created on first use, drains every publisher subscription without a caller-supplied executor
+    private ExecutorService mPublisherExecutor;
+    private final ScanAggregator mScanAggregator = new ScanAggregator(this, mHandler);
 
     BleManager(Context context) {
         mContext = context;
@@ -111,50 +154,68 @@ class BleManager {
     }
 
     boolean clearDeviceCache() {
-        if (mBluetoothGatt == null) {
+        BleConnection connection = getConnection();
+        if (connection == null) {
             Log.e(TAG, "please connected bluetooth then clear cache.");
             return false;
         }
-        try {
-            Method e = BluetoothGatt.class.getMethod("refresh", new Class[0]);
-            if (e != null) {
-                boolean success = ((Boolean) e.invoke(mBluetoothGatt, new Object[0])).booleanValue();
-                Log.i(TAG, "refresh Device Cache: " + success);
-                return success;
-            }
-        } catch (Exception exception) {
-            Log.e(TAG, "An exception occured while refreshing device", exception);
-        }
-
-        return false;
+        return connection.clearDeviceCache();
     }
 
     void addScanLeListener(Object tag, OnLeScanListener onLeScanListener) {
-        if (scanListenerList.size() > 0) {
-            boolean canAdd = true;
-            for (Map<Object, OnLeScanListener> map : scanListenerList) {
-                if (map.containsKey(tag)) {
-                    canAdd = false;
-                }
-            }
-            if (canAdd) {
-                Map<Object, OnLeScanListener> map2 = new HashMap<>();
-                map2.put(tag, onLeScanListener);
-                scanListenerList.add(map2);
-            }
-        } else {
-            Map<Object, OnLeScanListener> map3 = new HashMap<>();
-            map3.put(tag, onLeScanListener);
-            scanListenerList.add(map3);
-        }
+        mScanListeners.putIfAbsent(tag, onLeScanListener);
     }
 
     void setOnLeScanListener(OnLeScanListener onLeScanListener) {
-        mOnLeScanListener = onLeScanListener;
+        mScanListeners.setDefault(onLeScanListener);
+    }
+
+    void addScanDeviceListener(Object tag, OnLeScanDeviceListener onLeScanDeviceListener) {
+        mScanDeviceListeners.putIfAbsent(tag, onLeScanDeviceListener);
+    }
+
+    void setOnLeScanDeviceListener(OnLeScanDeviceListener onLeScanDeviceListener) {
+        mScanDeviceListeners.setDefault(onLeScanDeviceListener);
+    }
+
+    void addScanBatchListener(Object tag, OnLeScanBatchListener onLeScanBatchListener) {
+        mScanBatchListeners.putIfAbsent(tag, onLeScanBatchListener);
+    }
+
+    void setOnLeScanBatchListener(OnLeScanBatchListener onLeScanBatchListener) {
+        mScanBatchListeners.setDefault(onLeScanBatchListener);
+    }
+
+    void addScanWindowListener(Object tag, OnLeScanWindowListener onLeScanWindowListener) {
+        mScanWindowListeners.putIfAbsent(tag, onLeScanWindowListener);
+    }
+
+    void setOnLeScanWindowListener(OnLeScanWindowListener onLeScanWindowListener) {
+        mScanWindowListeners.setDefault(onLeScanWindowListener);
+    }
+
+    void setScanWindow(int windowMillis) {
+        if (windowMillis < ScanWindowMeter.MAX_STARTS_WINDOW_MILLIS / ScanWindowMeter.MAX_STARTS) {
+            throw new IllegalArgumentException("scan window must be at least "
+                    + ScanWindowMeter.MAX_STARTS_WINDOW_MILLIS / ScanWindowMeter.MAX_STARTS + " ms");
+        }
+        mScanWindowMillis = windowMillis;
+    }
+
+    void setScanAggregation(int reportIntervalMillis, int rssiThreshold, int expireMillis) {
+        if (reportIntervalMillis < 0 || rssiThreshold < 0 || expireMillis <= 0) {
+            throw new IllegalArgumentException("invalid scan aggregation " + reportIntervalMillis + "/"
+                    + rssiThreshold + "/" + expireMillis);
+        }
+        mScanAggregator.configure(reportIntervalMillis, rssiThreshold, expireMillis);
+    }
+
+    List<ScannedDevice> getScannedDevices() {
+        return mScanAggregator.getDevices();
     }
 
     void scan(Activity activity, String filterDeviceName, String filterDeviceAddress, UUID uFilerServiceUUID,
-              int scanPeriod, int reportDelayMillis) {
+              LeScanFilter scanFilter, int scanPeriod, boolean continuous, int reportDelayMillis) {
         Log.d(TAG, "bluetooth le scanning...");
         if (ContextCompat.checkSelfPermission(mContext, Manifest.permission.ACCESS_COARSE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED) {
@@ -167,40 +228,182 @@ class BleManager {
             return;
         }
         BluetoothLeScannerCompat scannerCompat = BluetoothLeScannerCompat.getScanner();
-        ScanSettings scanSettings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                .setReportDelay(reportDelayMillis)
-                .setUseHardwareBatchingIfSupported(false)
-                .build();
         List<ScanFilter> filters = new ArrayList<>();
-        if (filterDeviceName != null) {
-            ScanFilter builder = new ScanFilter.Builder().setDeviceName(filterDeviceName).build();
-            filters.add(builder);
+        if (scanFilter != null) {
+            if (filterDeviceName != null || filterDeviceAddress != null || uFilerServiceUUID != null) {
+                Log.w(TAG, "scan filter is set, device name/address/service uuid filters are ignored.");
+            }
+            List<ScanFilter> hardwareFilters = scanFilter.toHardwareFilters();
+            if (hardwareFilters != null) {
+                filters = hardwareFilters;
+            }
+        } else {
+            if (filterDeviceName != null) {
+                ScanFilter builder = new ScanFilter.Builder().setDeviceName(filterDeviceName).build();
+                filters.add(builder);
+            }
+            if (filterDeviceAddress != null) {
+                ScanFilter builder = new ScanFilter.Builder().setDeviceAddress(filterDeviceAddress).build();
+                filters.add(builder);
+            }
+            if (uFilerServiceUUID != null) {
+                ScanFilter builder = new ScanFilter.Builder()
+                        .setServiceUuid(ParcelUuid.fromString(uFilerServiceUUID.toString())).build();
+                filters.add(builder);
+            }
         }
-        if (filterDeviceAddress != null) {
-            ScanFilter builder = new ScanFilter.Builder().setDeviceAddress(filterDeviceAddress).build();
-            filters.add(builder);
+        mScanFilters = filters;
+        mScanFilter = scanFilter;
+        mScanReportDelayMillis = reportDelayMillis;
+        mScanMode = mScanProfile.scanMode;
+        mAdaptiveScan = mScanProfile == ScanProfile.ADAPTIVE;
+        mAdaptiveScanFound.clear();
+        if (mScanWindowMeter.delayBeforeStart() > 0) {
+            Log.w(TAG, "more than " + ScanWindowMeter.MAX_STARTS + " scans in 30s, the system may not deliver results.");
         }
-        if (uFilerServiceUUID != null) {
-            ScanFilter builder = new ScanFilter.Builder()
-                    .setServiceUuid(ParcelUuid.fromString(uFilerServiceUUID.toString())).build();
-            filters.add(builder);
+        mScanWindowMeter.recordStart();
+        scannerCompat.startScan(filters, buildScanSettings(mScanMode), scanCallback);
+        mScanAggregator.start();
+        isScanning = true;
+
+        mContinuousScan = continuous;
+        if (continuous) {
+            mScanWindowMeter.reset();
+            mScanWindowMeter.openWindow();
+            mHandler.postDelayed(mScanWindowRotation, mScanWindowMillis);
+            return;
         }
-        scannerCompat.startScan(filters, scanSettings, scanCallback);
 
         int SCAN_DURATION = scanPeriod;
         if (SCAN_DURATION == 0) {
             SCAN_DURATION = 10000;
         }
-        isScanning = true;
-        mHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (isScanning) {
-                    stopScan();
-                }
+        mHandler.postDelayed(mScanPeriodTimeout, SCAN_DURATION);
+    }
+
+    private final Runnable mScanPeriodTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (isScanning) {
+                stopScan();
             }
-        }, SCAN_DURATION);
+        }
+    };
+
+    private ScanSettings buildScanSettings(int scanMode) {
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .setReportDelay(mScanReportDelayMillis)
+                .setUseHardwareBatchingIfSupported(mScanHardwareBatching);
+        if (mScanMatchMode != 0) {
+            builder.setMatchMode(mScanMatchMode)
+                    .setNumOfMatches(mScanNumOfMatches);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Restarts the running scan with another scan mode; the settings of a scan cannot be changed
+     * in place.
+     */
+    private void changeScanMode(int scanMode) {
+        if (!isScanning || mScanMode == scanMode) {
+            return;
+        }
+        Log.d(TAG, "adaptive scan: scan mode " + mScanMode + " -> " + scanMode);
+        mScanMode = scanMode;
+        BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
+        scanner.stopScan(scanCallback);
+        mScanWindowMeter.recordStart();
+        scanner.startScan(mScanFilters, buildScanSettings(scanMode), scanCallback);
+    }
+
+    /**
+     * Ends the current window of a continuous scan: restarts the system scanner, which otherwise
+     * degrades long running scans, waiting if the start budget is used up. Listeners see one
+     * stream of results across restarts.
+     */
+    private final Runnable mScanWindowRotation = new Runnable() {
+        @Override
+        public void run() {
+            if (!isScanning || !mContinuousScan) {
+                return;
+            }
+            BluetoothLeScannerCompat.getScanner().stopScan(scanCallback);
+            dispatchScanWindow(mScanWindowMeter.closeWindow());
+            long delay = mScanWindowMeter.delayBeforeStart();
+            if (delay > 0) {
+                Log.w(TAG, "scan start limit reached, restarting the scan in " + delay + "ms.");
+                mHandler.postDelayed(mScanWindowRestart, delay);
+            } else {
+                mScanWindowRestart.run();
+            }
+        }
+    };
+
+    private final Runnable mScanWindowRestart = new Runnable() {
+        @Override
+        public void run() {
+            if (!isScanning || !mContinuousScan) {
+                return;
+            }
+            mScanWindowMeter.recordStart();
+            BluetoothLeScannerCompat.getScanner().startScan(mScanFilters, buildScanSettings(mScanMode), scanCallback);
+            mScanWindowMeter.openWindow();
+            mHandler.postDelayed(mScanWindowRotation, mScanWindowMillis);
+        }
+    };
+
+    private void dispatchScanWindow(ScanWindowStats stats) {
+        Log.d(TAG, "scan window: " + stats);
+        for (ListenerRegistry.Entry<OnLeScanWindowListener> entry : mScanWindowListeners.entries()) {
+            entry.listener.onScanWindow(stats);
+        }
+    }
+
+    private void trackAdaptiveScan(ScanResult result) {
+        if (!mAdaptiveScan || mScanMode != ScanSettings.SCAN_MODE_LOW_LATENCY) {
+            return;
+        }
+        if (mAdaptiveScanFound.add(result.getDevice().getAddress()) && mAdaptiveScanFound.size() >= mAdaptiveScanTarget) {
+            // not from inside the scan callback
+            mHandler.post(mAdaptiveScanBalanced);
+        }
+    }
+
+    private final Runnable mAdaptiveScanBalanced = new Runnable() {
+        @Override
+        public void run() {
+            changeScanMode(ScanSettings.SCAN_MODE_BALANCED);
+            mHandler.postDelayed(mAdaptiveScanLowPower, ADAPTIVE_SCAN_LOW_POWER_DELAY_MILLIS);
+        }
+    };
+
+    private final Runnable mAdaptiveScanLowPower = new Runnable() {
+        @Override
+        public void run() {
+            changeScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+        }
+    };
+
+    void setScanProfile(ScanProfile profile) {
+        mScanProfile = profile == null ? ScanProfile.LOW_LATENCY : profile;
+    }
+
+    void setAdaptiveScanTarget(int wantedDevices) {
+        if (wantedDevices < 1) {
+            throw new IllegalArgumentException("wantedDevices must be at least 1");
+        }
+        mAdaptiveScanTarget = wantedDevices;
+    }
+
+    void setScanHardwareBatching(boolean enable) {
+        mScanHardwareBatching = enable;
+    }
+
+    void setScanMatchMode(int matchMode, int numOfMatches) {
+        mScanMatchMode = matchMode;
+        mScanNumOfMatches = numOfMatches;
     }
 
     void stopScan() {
@@ -208,13 +411,25 @@ class BleManager {
             final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
             scanner.stopScan(scanCallback);
             isScanning = false;
-            for (Map<Object, OnLeScanListener> map : scanListenerList) {
-                for (Map.Entry<Object, OnLeScanListener> entry : map.entrySet()) {
-                    entry.getValue().onScanCompleted();
+            mHandler.removeCallbacks(mAdaptiveScanBalanced);
+            mHandler.removeCallbacks(mAdaptiveScanLowPower);
+            // a later scan must not be cut short by this one's period
+            mHandler.removeCallbacks(mScanPeriodTimeout);
+            mScanAggregator.stop();
+            if (mContinuousScan) {
+                mContinuousScan = false;
+                mHandler.removeCallbacks(mScanWindowRotation);
+                mHandler.removeCallbacks(mScanWindowRestart);
+                // no open window while a throttled restart was pending
+                if (mScanWindowMeter.isWindowOpen()) {
+                    dispatchScanWindow(mScanWindowMeter.closeWindow());
                 }
             }
-            if (mOnLeScanListener != null) {
-                mOnLeScanListener.onScanCompleted();
+            for (ListenerRegistry.Entry<OnLeScanListener> entry : mScanListeners.entries()) {
+                entry.listener.onScanCompleted();
+            }
+            for (ListenerRegistry.Entry<OnLeScanDeviceListener> entry : mScanDeviceListeners.entries()) {
+                entry.listener.onScanCompleted();
             }
             Log.d(TAG, "bluetooth le scan has stop.");
         }
@@ -231,37 +446,69 @@ class BleManager {
     private ScanCallback scanCallback = new ScanCallback() {
         @Override
         public void onScanResult(final int callbackType, final ScanResult result) {
-            for (Map<Object, OnLeScanListener> map : scanListenerList) {
-                for (Map.Entry<Object, OnLeScanListener> entry : map.entrySet()) {
-                    entry.getValue().onScanResult(result.getDevice(), result.getRssi(), result.getScanRecord());
-                }
+            LeScanFilter filter = mScanFilter;
+            if (filter != null && !filter.matches(result)) {
+                return;
+            }
+            for (ListenerRegistry.Entry<OnLeScanListener> entry : mScanListeners.entries()) {
+                entry.listener.onScanResult(result.getDevice(), result.getRssi(), result.getScanRecord());
             }
-            if (mOnLeScanListener != null) {
-                mOnLeScanListener.onScanResult(result.getDevice(), result.getRssi(), result.getScanRecord());
+            if (mScanDeviceListeners.entries().length > 0) {
+                mScanAggregator.onScanResult(result);
+            }
+            trackAdaptiveScan(result);
+            if (mContinuousScan) {
+                mScanWindowMeter.onAdvertisement(result.getDevice().getAddress());
             }
         }
 
         @Override
-        public void onBatchScanResults(final List<ScanResult> results) {
-            for (Map<Object, OnLeScanListener> map : scanListenerList) {
-                for (Map.Entry<Object, OnLeScanListener> entry : map.entrySet()) {
-                    entry.getValue().onBatchScanResults(results);
+        public void onBatchScanResults(List<ScanResult> results) {
+            LeScanFilter filter = mScanFilter;
+            ListenerRegistry.Entry<OnLeScanListener>[] scanListeners = mScanListeners.entries();
+            ListenerRegistry.Entry<OnLeScanBatchListener>[] batchListeners = mScanBatchListeners.entries();
+            boolean aggregate = mScanDeviceListeners.entries().length > 0;
+            // OnLeScanListener may keep the list, so a filtered one is only made when it is listening
+            List<ScanResult> matched = filter != null && scanListeners.length > 0 ? new ArrayList<ScanResult>(results.size()) : null;
+            mScanBatch.clear();
+            for (int i = 0, count = results.size(); i < count; i++) {
+                ScanResult result = results.get(i);
+                if (filter != null && !filter.matches(result)) {
+                    continue;
+                }
+                if (matched != null) {
+                    matched.add(result);
+                }
+                if (batchListeners.length > 0) {
+                    mScanBatch.add(result);
+                }
+                if (aggregate) {
+                    mScanAggregator.onScanResult(result);
+                }
+                trackAdaptiveScan(result);
+                if (mContinuousScan) {
+                    mScanWindowMeter.onAdvertisement(result.getDevice().getAddress());
+                }
+            }
+            if (matched == null || !matched.isEmpty()) {
+                for (ListenerRegistry.Entry<OnLeScanListener> entry : scanListeners) {
+                    entry.listener.onBatchScanResults(matched != null ? matched : results);
                 }
             }
-            if (mOnLeScanListener != null) {
-                mOnLeScanListener.onBatchScanResults(results);
+            if (filter == null || mScanBatch.size() > 0) {
+                for (ListenerRegistry.Entry<OnLeScanBatchListener> entry : batchListeners) {
+                    entry.listener.onScanBatch(mScanBatch);
+                }
             }
         }
 
         @Override
         public void onScanFailed(final int errorCode) {
-            for (Map<Object, OnLeScanListener> map : scanListenerList) {
-                for (Map.Entry<Object, OnLeScanListener> entry : map.entrySet()) {
-                    entry.getValue().onScanFailed(errorCode);
-                }
+            for (ListenerRegistry.Entry<OnLeScanListener> entry : mScanListeners.entries()) {
+                entry.listener.onScanFailed(errorCode);
             }
-            if (mOnLeScanListener != null) {
-                mOnLeScanListener.onScanFailed(errorCode);
+            for (ListenerRegistry.Entry<OnLeScanDeviceListener> entry : mScanDeviceListeners.entries()) {
+                entry.listener.onScanFailed(errorCode);
             }
         }
     };
@@ -270,557 +517,775 @@ class BleManager {
         mRetryConnectEnable = retryConnectEnable;
     }
 
+    boolean isRetryConnectEnable() {
+        return mRetryConnectEnable;
+    }
+
     void setConnectTimeoutMillis(int connectTimeoutMillis) {
         this.connectTimeoutMillis = connectTimeoutMillis;
     }
 
+    int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
     void setServiceTimeoutMillis(int serviceTimeoutMillis) {
         this.serviceTimeoutMillis = serviceTimeoutMillis;
     }
 
+    int getServiceTimeoutMillis() {
+        return serviceTimeoutMillis;
+    }
+
     void setRetryConnectCount(int retryConnectCount) {
         mRetryConnectCount = retryConnectCount;
     }
 
-    boolean connect(boolean autoConnect, final BluetoothDevice device) {
-        mAutoConnect = autoConnect;
-        mBluetoothDevice = device;
-        if (mConnected) {
-            Log.d(TAG, "Bluetooth has been connected. connect false.");
-            for (Map<Object, OnLeConnectListener> map : connectListenerList) {
-                for (Map.Entry<Object, OnLeConnectListener> entry : map.entrySet()) {
-                    entry.getValue().onDeviceConnectFail();
-                }
-            }
-            if (mOnLeConnectListener != null) {
-                mOnLeConnectListener.onDeviceConnectFail();
-            }
-            return false;
+    int getRetryConnectCount() {
+        return mRetryConnectCount;
+    }
+
+    void setReconnectBackoff(int baseDelayMillis, int maxDelayMillis) {
+        if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("the base delay must be positive and not above the max delay");
         }
-        if (mBluetoothGatt != null) {
-            Log.d(TAG, "The BluetoothGatt already exist, set it close() and null.");
-            mBluetoothGatt.close();
-            mBluetoothGatt = null;
-            mConnected = false;
+        mReconnectBaseDelayMillis = baseDelayMillis;
+        mReconnectMaxDelayMillis = maxDelayMillis;
+    }
+
+    int getReconnectBaseDelayMillis() {
+        return mReconnectBaseDelayMillis;
+    }
+
+    int getReconnectMaxDelayMillis() {
+        return mReconnectMaxDelayMillis;
+    }
+
+    ReconnectStats getReconnectStats(BleConnection connection) {
+        return connection == null ? null : connection.getReconnectStats();
+    }
+
+    void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
         }
-        Log.d(TAG, "create new device connection for BluetoothGatt. ");
+        mMaxConnections = maxConnections;
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            mBluetoothGatt = device.connectGatt(mContext, autoConnect, mGattCallback, TRANSPORT_LE);
+    int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    void setRequestTimeoutMillis(int requestTimeoutMillis) {
+        mRequestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    int getRequestTimeoutMillis() {
+        return mRequestTimeoutMillis;
+    }
+
+    void setRequestTimeoutPolicy(TimeoutPolicy policy, int retryCount) {
+        mRequestTimeoutPolicy = policy;
+        mRequestRetryCount = retryCount;
+    }
+
+    TimeoutPolicy getRequestTimeoutPolicy() {
+        return mRequestTimeoutPolicy;
+    }
+
+    int getRequestRetryCount() {
+        return mRequestRetryCount;
+    }
+
+    void setRequestScheduling(RequestScheduling scheduling, int normalWeight, int bulkWeight) {
+        if (normalWeight < 1 || bulkWeight < 1) {
+            throw new IllegalArgumentException("lane weights must be at least 1");
+        }
+        mRequestScheduling = scheduling == null ? RequestScheduling.STRICT : scheduling;
+        mNormalLaneWeight = normalWeight;
+        mBulkLaneWeight = bulkWeight;
+    }
+
+    RequestScheduling getRequestScheduling() {
+        return mRequestScheduling;
+    }
+
+    int getRequestLaneWeight(RequestPriority priority) {
+        return priority == RequestPriority.BULK ? mBulkLaneWeight : mNormalLaneWeight;
+    }
+
+    void setWriteCoalescing(UUID characteristicUUID, boolean enable) {
+        if (characteristicUUID == null) {
+            throw new IllegalArgumentException("characteristicUUID is null");
+        }
+        if (enable) {
+            mCoalescingCharacteristics.add(characteristicUUID);
         } else {
-            mBluetoothGatt = device.connectGatt(mContext, autoConnect, mGattCallback);
+            mCoalescingCharacteristics.remove(characteristicUUID);
         }
-        for (Map<Object, OnLeConnectListener> map : connectListenerList) {
-            for (Map.Entry<Object, OnLeConnectListener> entry : map.entrySet()) {
-                entry.getValue().onDeviceConnecting();
-            }
+    }
+
+    boolean isWriteCoalescing(UUID characteristicUUID) {
+        return characteristicUUID != null && mCoalescingCharacteristics.contains(characteristicUUID);
+    }
+
+    RequestLaneStats getRequestLaneStats(BleConnection connection, RequestPriority priority) {
+        return connection == null ? null : connection.getRequestLaneStats(priority);
+    }
+
+    void setWriteNoResponseWindow(int packets) {
+        if (packets < 1) {
+            throw new IllegalArgumentException("the write without response window must be at least 1");
         }
-        if (mOnLeConnectListener != null) {
-            mOnLeConnectListener.onDeviceConnecting();
+        mWriteNoResponseWindow = packets;
+    }
+
+    int getWriteNoResponseWindow() {
+        return mWriteNoResponseWindow;
+    }
+
+    void setRequestMtu(int mtu) {
+        mRequestMtu = mtu;
+    }
+
+    int getRequestMtu() {
+        return mRequestMtu;
+    }
+
+    void setNotificationDispatcher(NotificationDispatcher dispatcher) {
+        NotificationDispatcher old = mNotificationDispatcher;
+        mNotificationDispatcher = dispatcher;
+        if (old != null) {
+            old.shutdown();
         }
+    }
 
-        checkConnected();
+    void setFastBondedReconnect(boolean enable) {
+        mBondedDeviceStore = enable ? new BondedDeviceStore(mContext) : null;
+    }
 
-        return true;
+    BondedDeviceStore getBondedDeviceStore() {
+        return mBondedDeviceStore;
+    }
+
+    /**
+     * Used by connections started after the call, e.g. a simulated peripheral in the unit tests.
+     */
+    void setTransportFactory(GattTransport.Factory factory) {
+        mTransportFactory = factory == null ? AndroidGattTransport.FACTORY : factory;
+    }
+
+    /**
+     * Request timeouts of connections created after the call; the unit tests run them on a virtual clock.
+     */
+    void setTimerWheel(TimerWheel timerWheel) {
+        mTimerWheel = timerWheel;
+    }
+
+    /**
+     * The unit tests seed it, so that reconnect delays repeat from run to run.
+     */
+    void setReconnectRandom(Random random) {
+        mReconnectRandom = random;
+    }
+
+    Random getReconnectRandom() {
+        return mReconnectRandom;
+    }
+
+    GattTransport.Factory getTransportFactory() {
+        return mTransportFactory;
+    }
+
+    NotificationSnapshot obtainSnapshot() {
+        return mSnapshotPool.acquire();
+    }
+
+    NotificationDispatcher getNotificationDispatcher() {
+        return mNotificationDispatcher;
+    }
+
+    long getDroppedNotificationCount() {
+        NotificationDispatcher dispatcher = mNotificationDispatcher;
+        return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+    }
+
+    LeNotificationPublisher getNotificationPublisher(CharacteristicHandle handle, int bufferSize, BackpressurePolicy policy, Executor executor) {
+        BleConnection connection = handle.getConnection();
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return null;
+        }
+        return new LeNotificationPublisher(connection, handle.getServiceUuid(), handle.getCharacteristicUuid(),
+                bufferSize, policy, executor == null ? getPublisherExecutor() : executor);
     }
 
-    private void checkConnected() {
-        if (mRetryConnectEnable && mRetryConnectCount > 0 && connectTimeoutMillis > 0) {
-            mHandler.postDelayed(new Runnable() {
+    private synchronized Executor getPublisherExecutor() {
+        if (mPublisherExecutor == null) {
+            mPublisherExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
                 @Override
-                public void run() {
-                    boolean connected = getConnected();
-                    if (!connected) {
-                        connect(mAutoConnect, mBluetoothDevice);
-                        mRetryConnectCount = mRetryConnectCount - 1;
-                    }
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BluetoothLe-publisher");
+                    thread.setDaemon(true);
+                    return thread;
                 }
-            }, connectTimeoutMillis);
+            });
         }
+        return mPublisherExecutor;
     }
 
-    boolean getConnected() {
-        return mConnected;
+    int getMtu(BleConnection connection) {
+        return connection == null ? BleConnection.DEFAULT_MTU : connection.getMtu();
     }
 
-    void setConnectListener(OnLeConnectListener onLeConnectListener) {
-        mOnLeConnectListener = onLeConnectListener;
+    boolean connect(boolean autoConnect, BluetoothDevice device) {
+        return connect(autoConnect, device, null);
     }
 
-    void addConnectListener(Object tag, OnLeConnectListener onLeConnectListener) {
-        Map<Object, OnLeConnectListener> map = new HashMap<>();
-        map.put(tag, onLeConnectListener);
-        connectListenerList.add(map);
+    boolean connect(boolean autoConnect, final BluetoothDevice device, OnLeConnectListener onLeConnectListener) {
+        if (device == null) {
+            Log.e(TAG, "the bluetooth device is null. connect false.");
+            return false;
+        }
+        BleConnection connection;
+        synchronized (mConnections) {
+            connection = mConnections.get(device.getAddress());
+            if (connection == null) {
+                if (mConnections.size() >= mMaxConnections) {
+                    Log.e(TAG, "connection pool is full (" + mMaxConnections + "), close a device before connecting " + device.getAddress());
+                    if (onLeConnectListener != null) {
+                        onLeConnectListener.onDeviceConnectFail();
+                    }
+                    dispatchDeviceConnectFail();
+                    return false;
+                }
+                connection = new BleConnection(this, mContext, mHandler, mTimerWheel, device);
+                mConnections.put(device.getAddress(), connection);
+            }
+            mCurrentAddress = device.getAddress();
+        }
+        if (onLeConnectListener != null) {
+            connection.setConnectListener(onLeConnectListener);
+        }
+        return connection.connect(autoConnect);
     }
 
-    private static final UUID CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    void onConnectionEstablished(BleConnection connection) {
+        if (isStopScanAfterConnected) {
+            stopScan();
+        }
+    }
 
-    private boolean enableNotification(boolean enable, BluetoothGattCharacteristic characteristic) {
-        final BluetoothGatt gatt = mBluetoothGatt;
-        if (gatt == null || characteristic == null)
-            return false;
-        final int properties = characteristic.getProperties();
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0)
-            return false;
-        gatt.setCharacteristicNotification(characteristic, enable);
-        final BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID);
-        if (descriptor != null) {
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            return gatt.writeDescriptor(descriptor);
+    BleConnection getConnection() {
+        synchronized (mConnections) {
+            return mCurrentAddress == null ? null : mConnections.get(mCurrentAddress);
         }
-        return false;
     }
 
-    void enableNotificationQueue(boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
-        BluetoothGattService service = mBluetoothGatt.getService(serviceUUID);
-        for (UUID characteristicUUID : characteristicUUIDs) {
-            mRequestQueue.addRequest(Request.newEnableNotificationsRequest(enable, service.getCharacteristic(characteristicUUID)));
+    BleConnection getConnection(BluetoothDevice device) {
+        if (device == null) {
+            return null;
+        }
+        synchronized (mConnections) {
+            return mConnections.get(device.getAddress());
         }
     }
 
-    void setOnLeNotificationListener(OnLeNotificationListener onLeNotificationListener) {
-        this.mOnLeNotificationListener = onLeNotificationListener;
+    BleConnection getConnection(String address) {
+        synchronized (mConnections) {
+            return mConnections.get(address);
+        }
     }
 
-    void addNotificationListener(Object tag, OnLeNotificationListener onLeNotificationListener) {
-        Map<Object, OnLeNotificationListener> map = new HashMap<>();
-        map.put(tag, onLeNotificationListener);
-        notificationListenerList.add(map);
+    CharacteristicHandle getCharacteristicHandle(BleConnection connection, UUID serviceUUID, UUID characteristicUUID) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return null;
+        }
+        return new CharacteristicHandle(this, connection, serviceUUID, characteristicUUID);
     }
 
-    void writeCharacteristicQueue(byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
-        if (mBluetoothGatt == null || serviceUUID == null || characteristicUUID == null) {
-            Log.d(TAG, "the bluetooth gatt or serviceUUID or characteristicUUID is null. ");
-            return;
+    private List<BleConnection> getConnections() {
+        synchronized (mConnections) {
+            return new ArrayList<>(mConnections.values());
         }
-        BluetoothGattService service = mBluetoothGatt.getService(serviceUUID);
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUUID);
-        characteristic.setValue(bytes);
-        mRequestQueue.addRequest(Request.newWriteRequest(characteristic));
+    }
 
+    List<BluetoothDevice> getConnectedDevices() {
+        List<BluetoothDevice> devices = new ArrayList<>();
+        for (BleConnection connection : getConnections()) {
+            if (connection.getConnected()) {
+                devices.add(connection.getDevice());
+            }
+        }
+        return devices;
+    }
 
+    boolean getConnected() {
+        BleConnection connection = getConnection();
+        return connection != null && connection.getConnected();
     }
 
-    private boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
-        final BluetoothGatt gatt = mBluetoothGatt;
-        if (gatt == null || characteristic == null)
-            return false;
-        // Check characteristic property
-        final int properties = characteristic.getProperties();
-        if ((properties & (BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) == 0)
-            return false;
-        return gatt.writeCharacteristic(characteristic);
+    ConnectionState getConnectionState(BleConnection connection) {
+        return connection == null ? ConnectionState.DISCONNECTED : connection.getState();
     }
 
-    void setWriteCharacteristicListener(OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
-        mOnLeWriteCharacteristicListener = onLeWriteCharacteristicListener;
+    boolean getConnected(BluetoothDevice device) {
+        BleConnection connection = getConnection(device);
+        return connection != null && connection.getConnected();
     }
 
-    void addWriteCharacteristicListener(Object tag, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
-        Map<Object, OnLeWriteCharacteristicListener> map = new HashMap<>();
-        map.put(tag, onLeWriteCharacteristicListener);
-        writeCharacteristicListenerList.add(map);
+    void setConnectListener(OnLeConnectListener onLeConnectListener) {
+        mConnectListeners.setDefault(onLeConnectListener);
     }
 
-    void readCharacteristicQueue(UUID serviceUUID, UUID characteristicUUID) {
-        BluetoothGattService service = mBluetoothGatt.getService(serviceUUID);
-        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUUID);
-        mRequestQueue.addRequest(Request.newReadRequest(characteristic));
+    void setConnectListener(BluetoothDevice device, OnLeConnectListener onLeConnectListener) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.setConnectListener(onLeConnectListener);
+        }
     }
 
-    private boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        final BluetoothGatt gatt = mBluetoothGatt;
-        if (gatt == null || characteristic == null)
-            return false;
-        // Check characteristic property
-        final int properties = characteristic.getProperties();
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_READ) == 0)
-            return false;
-        return gatt.readCharacteristic(characteristic);
+    void addConnectListener(Object tag, OnLeConnectListener onLeConnectListener) {
+        mConnectListeners.put(tag, null, onLeConnectListener);
     }
 
-    void setOnLeReadCharacteristicListener(OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
-        mOnLeReadCharacteristicListener = onLeReadCharacteristicListener;
+    LeFuture enableNotificationQueue(RequestPriority priority, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return enableNotificationQueue(priority, getConnection(), enable, serviceUUID, characteristicUUIDs);
     }
 
-    void addReadCharacteristicListener(Object tag, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
-        Map<Object, OnLeReadCharacteristicListener> map = new HashMap<>();
-        map.put(tag, onLeReadCharacteristicListener);
-        readCharacteristicListenerList.add(map);
+    LeFuture enableNotificationQueue(RequestPriority priority, BleConnection connection, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.enableNotificationQueue(priority, enable, serviceUUID, characteristicUUIDs);
     }
 
-    void disconnect() {
-        if (mConnected && mBluetoothGatt != null) {
-            mBluetoothGatt.disconnect();
-            mConnected = false;
-            mServiceDiscovered = false;
+    LeFuture enableNotificationQueue(RequestPriority priority, CharacteristicHandle handle, boolean enable) {
+        BleConnection connection = handle.getConnection();
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
         }
+        return connection.enableNotificationQueue(priority, enable, handle);
     }
 
-    void close() {
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.close();
-            mBluetoothGatt = null;
-            mConnected = false;
-            mServiceDiscovered = false;
+    LeFuture enableIndicationQueue(RequestPriority priority, BleConnection connection, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
         }
+        return connection.enableIndicationQueue(priority, enable, serviceUUID, characteristicUUIDs);
     }
 
-    private void checkServiceDiscover() {
-        if (mRetryConnectEnable && mRetryConnectCount > 0 && serviceTimeoutMillis > 0) {
-            mHandler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (!mServiceDiscovered) {
-                        connect(mAutoConnect, mBluetoothDevice);
-                        mRetryConnectCount -= 1;
-                    }
-                }
-            }, serviceTimeoutMillis);
+    LeFuture enableIndicationQueue(RequestPriority priority, CharacteristicHandle handle, boolean enable) {
+        BleConnection connection = handle.getConnection();
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
         }
+        return connection.enableIndicationQueue(priority, enable, handle);
     }
 
-    private BleManagerGattCallback mGattCallback = new BleManagerGattCallback() {
+    LeFuture reliableWriteQueue(RequestPriority priority, BleConnection connection, Request[] writes) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.reliableWriteQueue(priority, writes);
+    }
 
-        @Override
-        public void onConnectionStateChange(final BluetoothGatt gatt, int status, int newState) {
-            super.onConnectionStateChange(gatt, status, newState);
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                Log.d(TAG, "device connect success!");
-                mConnected = true;
-                if (isStopScanAfterConnected) {
-                    stopScan();
-                }
+    void subscribe(BleConnection connection, UUID serviceUUID, UUID characteristicUUID, LeListener listener) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return;
+        }
+        connection.subscribe(serviceUUID, characteristicUUID, listener);
+    }
 
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (Map<Object, OnLeConnectListener> map : connectListenerList) {
-                            for (Map.Entry<Object, OnLeConnectListener> entry : map.entrySet()) {
-                                entry.getValue().onDeviceConnected();
-                            }
-                        }
-                        if (mOnLeConnectListener != null) {
-                            mOnLeConnectListener.onDeviceConnected();
-                        }
-                    }
-                });
+    void unsubscribe(BleConnection connection, UUID characteristicUUID, LeListener listener) {
+        if (connection != null) {
+            connection.unsubscribe(characteristicUUID, listener);
+        }
+    }
 
-                mHandler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (gatt.getDevice().getBondState() != BluetoothDevice.BOND_BONDING) {
-                            mBluetoothGatt.discoverServices();
-                            checkServiceDiscover();
-                        }
-                    }
-                }, 600);
+    void setOnLeNotificationListener(OnLeNotificationListener onLeNotificationListener) {
+        mNotificationListeners.setDefault(onLeNotificationListener);
+    }
 
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Log.d(TAG, "device disconnect.");
-                mConnected = false;
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (Map<Object, OnLeConnectListener> map : connectListenerList) {
-                            for (Map.Entry<Object, OnLeConnectListener> entry : map.entrySet()) {
-                                entry.getValue().onDeviceDisconnected();
-                            }
-                        }
-                        if (mOnLeConnectListener != null) {
-                            mOnLeConnectListener.onDeviceDisconnected();
-                        }
-                    }
-                });
-            }
+    void setOnLeNotificationListener(BluetoothDevice device, OnLeNotificationListener onLeNotificationListener) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.setOnLeNotificationListener(onLeNotificationListener);
         }
+    }
 
-        @Override
-        public void onServicesDiscovered(final BluetoothGatt gatt, int status) {
-            super.onServicesDiscovered(gatt, status);
+    void addNotificationListener(Object tag, UUID characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        mNotificationListeners.put(tag, characteristicUUID, onLeNotificationListener);
+    }
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "success with find services discovered .");
-                mServiceDiscovered = true;
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (Map<Object, OnLeConnectListener> map : connectListenerList) {
-                            for (Map.Entry<Object, OnLeConnectListener> entry : map.entrySet()) {
-                                entry.getValue().onServicesDiscovered(gatt);
-                            }
-                        }
-                        if (mOnLeConnectListener != null) {
-                            mOnLeConnectListener.onServicesDiscovered(gatt);
-                        }
-                    }
-                });
+    void setOnLeNotificationSnapshotListener(OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mNotificationSnapshotListeners.setDefault(onLeNotificationSnapshotListener);
+    }
 
-            } else if (status == BluetoothGatt.GATT_FAILURE) {
-                Log.d(TAG, "failure find services discovered.");
-                mServiceDiscovered = false;
-            }
+    void setOnLeNotificationSnapshotListener(BluetoothDevice device, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.setOnLeNotificationSnapshotListener(onLeNotificationSnapshotListener);
         }
+    }
 
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
-            //read
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
+    void addNotificationSnapshotListener(Object tag, UUID characteristicUUID, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mNotificationSnapshotListeners.put(tag, characteristicUUID, onLeNotificationSnapshotListener);
+    }
 
-                        for (Map<Object, OnLeReadCharacteristicListener> map : readCharacteristicListenerList) {
-                            for (Map.Entry<Object, OnLeReadCharacteristicListener> entry : map.entrySet()) {
-                                entry.getValue().onSuccess(characteristic);
-                            }
-                        }
-                        if (mOnLeReadCharacteristicListener != null) {
-                            mOnLeReadCharacteristicListener.onSuccess(characteristic);
-                        }
-                    }
-                });
+    LeFuture writeCharacteristicQueue(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return writeCharacteristicQueue(priority, getConnection(), bytes, serviceUUID, characteristicUUID);
+    }
 
-            } else if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION) {
+    LeFuture writeCharacteristicQueue(RequestPriority priority, BleConnection connection, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.writeCharacteristicQueue(priority, bytes, serviceUUID, characteristicUUID);
+    }
 
+    /**
+     * Reports this one write to the listener on the main thread, leaving the listeners of all writes as they are.
+     */
+    LeFuture writeCharacteristicQueue(RequestPriority priority, final BleConnection connection, byte[] bytes, final UUID serviceUUID, final UUID characteristicUUID,
+                                      final OnLeWriteCharacteristicListener listener) {
+        LeFuture future = writeCharacteristicQueue(priority, connection, bytes, serviceUUID, characteristicUUID);
+        if (listener == null) {
+            return future;
+        }
+        return future.addListener(new LeFuture.Listener() {
+            @Override
+            public void onComplete(final LeFuture future) {
+                final BluetoothGattCharacteristic characteristic = future.isSuccess()
+                        ? connection.getCharacteristic(serviceUUID, characteristicUUID) : null;
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        for (Map<Object, OnLeReadCharacteristicListener> map : readCharacteristicListenerList) {
-                            for (Map.Entry<Object, OnLeReadCharacteristicListener> entry : map.entrySet()) {
-                                entry.getValue().onFailure("Phone has lost bonding information", status);
-                            }
-                        }
-                        if (mOnLeReadCharacteristicListener != null) {
-                            mOnLeReadCharacteristicListener.onFailure("Phone has lost bonding information", status);
+                        if (future.isSuccess()) {
+                            listener.onSuccess(characteristic);
+                        } else {
+                            listener.onFailed(future.getMessage(), future.getStatus());
                         }
                     }
                 });
+            }
+        });
+    }
 
-            } else {
+    LeFuture writeCharacteristicQueue(RequestPriority priority, BleConnection connection, byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteTransferListener listener) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.writeCharacteristicQueue(priority, bytes, serviceUUID, characteristicUUID, listener);
+    }
 
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (Map<Object, OnLeReadCharacteristicListener> map : readCharacteristicListenerList) {
-                            for (Map.Entry<Object, OnLeReadCharacteristicListener> entry : map.entrySet()) {
-                                entry.getValue().onFailure("Error on reading characteristic", status);
-                            }
-                        }
-                        if (mOnLeReadCharacteristicListener != null) {
-                            mOnLeReadCharacteristicListener.onFailure("Error on reading characteristic", status);
-                        }
-                    }
-                });
+    LeFuture writeCharacteristicNoResponseQueue(RequestPriority priority, BleConnection connection, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.writeCharacteristicNoResponseQueue(priority, bytes, serviceUUID, characteristicUUID);
+    }
 
-            }
-            mRequestQueue.next();
+    LeFuture writeCharacteristicQueue(RequestPriority priority, CharacteristicHandle handle, byte[] bytes) {
+        BleConnection connection = handle.getConnection();
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
         }
+        return connection.writeCharacteristicQueue(priority, handle, bytes);
+    }
 
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, final int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
-            final BluetoothGattCharacteristic c = characteristic;
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (Map<Object, OnLeWriteCharacteristicListener> map : writeCharacteristicListenerList) {
-                            for (Map.Entry<Object, OnLeWriteCharacteristicListener> entry : map.entrySet()) {
-                                entry.getValue().onSuccess(c);
-                            }
-                        }
-                        if (mOnLeWriteCharacteristicListener != null) {
-                            mOnLeWriteCharacteristicListener.onSuccess(c);
-                        }
-                    }
-                });
+    LeFuture writeCharacteristicNoResponseQueue(RequestPriority priority, CharacteristicHandle handle, byte[] bytes) {
+        BleConnection connection = handle.getConnection();
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.writeCharacteristicNoResponseQueue(priority, handle, bytes);
+    }
 
-            } else if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION) {
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        for (Map<Object, OnLeWriteCharacteristicListener> map : writeCharacteristicListenerList) {
-                            for (Map.Entry<Object, OnLeWriteCharacteristicListener> entry : map.entrySet()) {
-                                entry.getValue().onFailed("Phone has lost of bonding information. ", status);
-                            }
-                        }
-                        if (mOnLeWriteCharacteristicListener != null) {
-                            mOnLeWriteCharacteristicListener.onFailed("Phone has lost of bonding information. ", status);
-                        }
-                    }
-                });
+    LeFuture readCharacteristicQueue(RequestPriority priority, CharacteristicHandle handle) {
+        BleConnection connection = handle.getConnection();
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.readCharacteristicQueue(priority, handle);
+    }
 
-            } else {
+    float getWriteThroughput(BleConnection connection) {
+        return connection == null ? 0 : connection.getWriteThroughput();
+    }
+
+    void setWriteCharacteristicListener(OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        mWriteListeners.setDefault(onLeWriteCharacteristicListener);
+    }
+
+    void setWriteCharacteristicListener(BluetoothDevice device, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.setWriteCharacteristicListener(onLeWriteCharacteristicListener);
+        }
+    }
+
+    void addWriteCharacteristicListener(Object tag, UUID characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        mWriteListeners.put(tag, characteristicUUID, onLeWriteCharacteristicListener);
+    }
+
+    LeFuture readCharacteristicQueue(RequestPriority priority, UUID serviceUUID, UUID characteristicUUID) {
+        return readCharacteristicQueue(priority, getConnection(), serviceUUID, characteristicUUID);
+    }
+
+    LeFuture readCharacteristicQueue(RequestPriority priority, BleConnection connection, UUID serviceUUID, UUID characteristicUUID) {
+        if (connection == null) {
+            Log.d(TAG, "the device is not in the connection pool. ");
+            return LeFuture.failed("Device is not connected", LeStatus.NOT_CONNECTED);
+        }
+        return connection.readCharacteristicQueue(priority, serviceUUID, characteristicUUID);
+    }
+
+    /**
+     * Reports this one read to the listener on the main thread, leaving the listeners of all reads as they are.
+     */
+    LeFuture readCharacteristicQueue(RequestPriority priority, final BleConnection connection, final UUID serviceUUID, final UUID characteristicUUID,
+                                     final OnLeReadCharacteristicListener listener) {
+        LeFuture future = readCharacteristicQueue(priority, connection, serviceUUID, characteristicUUID);
+        if (listener == null) {
+            return future;
+        }
+        return future.addListener(new LeFuture.Listener() {
+            @Override
+            public void onComplete(final LeFuture future) {
+                // looked up now, on the thread that completed the read, while the link is known to be up
+                final BluetoothGattCharacteristic characteristic = future.isSuccess()
+                        ? connection.getCharacteristic(serviceUUID, characteristicUUID) : null;
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        for (Map<Object, OnLeWriteCharacteristicListener> map : writeCharacteristicListenerList) {
-                            for (Map.Entry<Object, OnLeWriteCharacteristicListener> entry : map.entrySet()) {
-                                entry.getValue().onFailed("Error on reading characteristic", status);
-                            }
-                        }
-                        if (mOnLeWriteCharacteristicListener != null) {
-                            mOnLeWriteCharacteristicListener.onFailed("Error on reading characteristic", status);
+                        if (future.isSuccess()) {
+                            listener.onSuccess(characteristic);
+                        } else {
+                            listener.onFailure(future.getMessage(), future.getStatus());
                         }
                     }
                 });
-
             }
-            mRequestQueue.next();
-        }
-
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
-            super.onCharacteristicChanged(gatt, characteristic);
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
+        });
+    }
 
+    void setOnLeReadCharacteristicListener(OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        mReadListeners.setDefault(onLeReadCharacteristicListener);
+    }
 
+    void setOnLeReadCharacteristicListener(BluetoothDevice device, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.setOnLeReadCharacteristicListener(onLeReadCharacteristicListener);
+        }
+    }
 
+    void addReadCharacteristicListener(Object tag, UUID characteristicUUID, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        mReadListeners.put(tag, characteristicUUID, onLeReadCharacteristicListener);
+    }
 
-                    for (Map<Object, OnLeNotificationListener> map : notificationListenerList) {
-                        for (Map.Entry<Object, OnLeNotificationListener> entry : map.entrySet()) {
-                            entry.getValue().onSuccess(characteristic);
-                        }
-                    }
+    void disconnect() {
+        for (BleConnection connection : getConnections()) {
+            connection.disconnect();
+        }
+    }
 
-                    if (mOnLeNotificationListener != null) {
-                        mOnLeNotificationListener.onSuccess(characteristic);
-                    }
-                }
-            });
+    void disconnect(BluetoothDevice device) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
 
+    void close() {
+        List<BleConnection> connections;
+        synchronized (mConnections) {
+            connections = new ArrayList<>(mConnections.values());
+            mConnections.clear();
+            mCurrentAddress = null;
+        }
+        for (BleConnection connection : connections) {
+            connection.close();
         }
+    }
 
-        @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorRead(gatt, descriptor, status);
+    void close(BluetoothDevice device) {
+        BleConnection connection;
+        synchronized (mConnections) {
+            connection = device == null ? null : mConnections.remove(device.getAddress());
+            if (connection != null && connection.getAddress().equals(mCurrentAddress)) {
+                mCurrentAddress = null;
+            }
+        }
+        if (connection != null) {
+            connection.close();
         }
+    }
 
-        @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
-            mRequestQueue.next();
+    void dispatchDeviceConnecting() {
+        for (ListenerRegistry.Entry<OnLeConnectListener> entry : mConnectListeners.entries()) {
+            entry.listener.onDeviceConnecting();
         }
+    }
 
-        @Override
-        public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
-            super.onReliableWriteCompleted(gatt, status);
+    void dispatchDeviceConnectFail() {
+        for (ListenerRegistry.Entry<OnLeConnectListener> entry : mConnectListeners.entries()) {
+            entry.listener.onDeviceConnectFail();
         }
+    }
 
-        @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            super.onReadRemoteRssi(gatt, rssi, status);
+    void dispatchDeviceConnected() {
+        for (ListenerRegistry.Entry<OnLeConnectListener> entry : mConnectListeners.entries()) {
+            entry.listener.onDeviceConnected();
         }
+    }
 
-        @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            super.onMtuChanged(gatt, mtu, status);
+    void dispatchDeviceDisconnected() {
+        for (ListenerRegistry.Entry<OnLeConnectListener> entry : mConnectListeners.entries()) {
+            entry.listener.onDeviceDisconnected();
         }
-    };
+    }
 
-    void destroy() {
-        mOnLeScanListener = null;
-        mOnLeConnectListener = null;
-        mOnLeNotificationListener = null;
-        mOnLeWriteCharacteristicListener = null;
-        mOnLeReadCharacteristicListener = null;
+    void dispatchServicesDiscovered(BluetoothGatt gatt) {
+        for (ListenerRegistry.Entry<OnLeConnectListener> entry : mConnectListeners.entries()) {
+            entry.listener.onServicesDiscovered(gatt);
+        }
     }
 
-    void destroy(Object tag) {
-        cancelTag(tag);
+    void dispatchReadSuccess(BluetoothGattCharacteristic characteristic) {
+        UUID uuid = characteristic.getUuid();
+        for (ListenerRegistry.Entry<OnLeReadCharacteristicListener> entry : mReadListeners.entries()) {
+            if (entry.accepts(uuid)) {
+                entry.listener.onSuccess(characteristic);
+            }
+        }
     }
 
-    void cancelTag(Object tag) {
-        for (Map<Object, OnLeScanListener> map : scanListenerList) {
-            if (map.containsKey(tag)) {
-                scanListenerList.remove(map);
+    void dispatchReadFailure(UUID characteristicUUID, String info, int status) {
+        for (ListenerRegistry.Entry<OnLeReadCharacteristicListener> entry : mReadListeners.entries()) {
+            if (entry.accepts(characteristicUUID)) {
+                entry.listener.onFailure(info, status);
             }
         }
-        for (Map<Object, OnLeConnectListener> map : connectListenerList) {
-            if (map.containsKey(tag)) {
-                connectListenerList.remove(map);
+    }
+
+    void dispatchWriteSuccess(BluetoothGattCharacteristic characteristic) {
+        UUID uuid = characteristic.getUuid();
+        for (ListenerRegistry.Entry<OnLeWriteCharacteristicListener> entry : mWriteListeners.entries()) {
+            if (entry.accepts(uuid)) {
+                entry.listener.onSuccess(characteristic);
             }
         }
-        for (Map<Object, OnLeNotificationListener> map : notificationListenerList) {
-            if (map.containsKey(tag)) {
-                notificationListenerList.remove(map);
+    }
+
+    void dispatchWriteFailure(UUID characteristicUUID, String msg, int status) {
+        for (ListenerRegistry.Entry<OnLeWriteCharacteristicListener> entry : mWriteListeners.entries()) {
+            if (entry.accepts(characteristicUUID)) {
+                entry.listener.onFailed(msg, status);
             }
         }
-        for (Map<Object, OnLeWriteCharacteristicListener> map : writeCharacteristicListenerList) {
-            if (map.containsKey(tag)) {
-                writeCharacteristicListenerList.remove(map);
+    }
+
+    void dispatchNotification(NotificationSnapshot snapshot) {
+        UUID uuid = snapshot.getCharacteristicUuid();
+        for (ListenerRegistry.Entry<OnLeNotificationListener> entry : mNotificationListeners.entries()) {
+            if (entry.accepts(uuid)) {
+                entry.listener.onSuccess(snapshot.characteristic);
             }
         }
-        for (Map<Object, OnLeReadCharacteristicListener> map : readCharacteristicListenerList) {
-            if (map.containsKey(tag)) {
-                readCharacteristicListenerList.remove(map);
+        for (ListenerRegistry.Entry<OnLeNotificationSnapshotListener> entry : mNotificationSnapshotListeners.entries()) {
+            if (entry.accepts(uuid)) {
+                entry.listener.onNotification(snapshot);
             }
         }
     }
 
-    void cancelAllTag() {
-        scanListenerList.clear();
-        connectListenerList.clear();
-        notificationListenerList.clear();
-        writeCharacteristicListenerList.clear();
-        readCharacteristicListenerList.clear();
-
+    void dispatchScanDeviceFound(ScannedDevice device) {
+        for (ListenerRegistry.Entry<OnLeScanDeviceListener> entry : mScanDeviceListeners.entries()) {
+            entry.listener.onDeviceFound(device);
+        }
     }
 
-    void clearQueue() {
-        mRequestQueue.cancelAll();
+    void dispatchScanDeviceUpdated(ScannedDevice device) {
+        for (ListenerRegistry.Entry<OnLeScanDeviceListener> entry : mScanDeviceListeners.entries()) {
+            entry.listener.onDeviceUpdated(device);
+        }
     }
 
+    void dispatchScanDeviceLost(ScannedDevice device) {
+        for (ListenerRegistry.Entry<OnLeScanDeviceListener> entry : mScanDeviceListeners.entries()) {
+            entry.listener.onDeviceLost(device);
+        }
+    }
 
-    private class RequestQueue {
-
-        private Queue<Request> mRequestBlockingQueue = new LinkedList<>();
-
-        void addRequest(Request request) {
-            int oldSize = mRequestBlockingQueue.size();
-
-            mRequestBlockingQueue.add(request);
-            if (mRequestBlockingQueue.size() == 1 ){
-                startExecutor();
+    void destroy() {
+        mScanListeners.setDefault(null);
+        mScanDeviceListeners.setDefault(null);
+        mScanWindowListeners.setDefault(null);
+        mScanBatchListeners.setDefault(null);
+        mConnectListeners.setDefault(null);
+        mNotificationListeners.setDefault(null);
+        mNotificationSnapshotListeners.setDefault(null);
+        mWriteListeners.setDefault(null);
+        mReadListeners.setDefault(null);
+        for (BleConnection connection : getConnections()) {
+            connection.destroy();
+        }
+    }
 
-            }
+    void destroy(Object tag) {
+        cancelTag(tag);
+    }
 
-        }
+    void cancelTag(Object tag) {
+        mScanListeners.remove(tag);
+        mScanDeviceListeners.remove(tag);
+        mScanWindowListeners.remove(tag);
+        mScanBatchListeners.remove(tag);
+        mConnectListeners.remove(tag);
+        mNotificationListeners.remove(tag);
+        mNotificationSnapshotListeners.remove(tag);
+        mWriteListeners.remove(tag);
+        mReadListeners.remove(tag);
+    }
 
-        private void startExecutor() {
-            Request request = mRequestBlockingQueue.peek(); //此方法检索，但是不移除此列表的头（第一个元素）。
-            switch (request.type) {
-                case WRITE:
-                    writeCharacteristic(request.getCharacteristic());
-                    break;
-                case READ:
-                    readCharacteristic(request.getCharacteristic());
-                    break;
-                case ENABLE_NOTIFICATIONS:
-                    enableNotification(request.isEnable(), request.getCharacteristic());
-                    break;
-                case ENABLE_INDICATIONS:
-                    break;
-            }
-        }
+    void cancelAllTag() {
+        mScanListeners.clear();
+        mScanDeviceListeners.clear();
+        mScanWindowListeners.clear();
+        mScanBatchListeners.clear();
+        mConnectListeners.clear();
+        mNotificationListeners.clear();
+        mNotificationSnapshotListeners.clear();
+        mWriteListeners.clear();
+        mReadListeners.clear();
+    }
 
-        void next() {
-            mRequestBlockingQueue.poll();  //此方法检索并移除此列表的头
-            if (mRequestBlockingQueue != null && mRequestBlockingQueue.size() > 0) {
-                startExecutor();
-            }
+    void clearQueue() {
+        for (BleConnection connection : getConnections()) {
+            connection.clearQueue();
         }
+    }
 
-        void cancelAll() {
-            mRequestBlockingQueue.clear();
+    void clearQueue(BluetoothDevice device) {
+        BleConnection connection = getConnection(device);
+        if (connection != null) {
+            connection.clearQueue();
         }
-
     }
 
-
 }
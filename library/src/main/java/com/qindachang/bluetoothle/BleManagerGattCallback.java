@@ -1,8 +1,34 @@
 package com.qindachang.bluetoothle;
 
-import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 
+/**
+ * The {@link android.bluetooth.BluetoothGattCallback} events, reported by a {@link GattTransport}.
+ */
+abstract class BleManagerGattCallback {
 
-abstract class BleManagerGattCallback extends BluetoothGattCallback {
+    public void onConnectionStateChange(GattTransport gatt, int status, int newState) {
+    }
 
+    public void onServicesDiscovered(GattTransport gatt, int status) {
+    }
+
+    public void onCharacteristicRead(GattTransport gatt, BluetoothGattCharacteristic characteristic, int status) {
+    }
+
+    public void onCharacteristicWrite(GattTransport gatt, BluetoothGattCharacteristic characteristic, int status) {
+    }
+
+    public void onCharacteristicChanged(GattTransport gatt, BluetoothGattCharacteristic characteristic) {
+    }
+
+    public void onDescriptorWrite(GattTransport gatt, BluetoothGattDescriptor descriptor, int status) {
+    }
+
+    public void onReliableWriteCompleted(GattTransport gatt, int status) {
+    }
+
+    public void onMtuChanged(GattTransport gatt, int mtu, int status) {
+    }
 }
@@ -5,7 +5,9 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 public class BluetoothLe {
 
@@ -27,6 +29,8 @@ public class BluetoothLe {
     private UUID uFilerServiceUUID;
     private int scanPeriod;
     private int reportDelayMillis;
+    private LeScanFilter scanFilter;
+    private boolean scanContinuous;
 
     public void init(Context context) {
         if (mBleManager == null) {
@@ -70,32 +74,157 @@ public class BluetoothLe {
         return this;
     }
 
+    /**
+     * 组合过滤条件(与/或、名称前缀/正则、信号强度、厂商数据和服务数据掩码)，设置后忽略setScanWithXxx()。
+     * 蓝牙芯片能过滤的条件交给芯片，其余条件在收到广播时直接检查原始广播数据
+     */
+    public BluetoothLe setScanFilter(LeScanFilter filter) {
+        this.scanFilter = filter;
+        return this;
+    }
+
     public BluetoothLe setScanPeriod(int millisecond) {
         this.scanPeriod = millisecond;
         return this;
     }
 
+    /**
+     * 持续扫描，忽略setScanPeriod()，直到stopScan()。每个扫描窗口(默认5分钟)结束时重启系统扫描，
+     * 避免长时间扫描被系统降级；重启次数不超过系统限制(30秒内5次)，超过时等待。
+     * 重启对扫描回调是透明的，每个窗口的统计通过OnLeScanWindowListener回调
+     */
+    public BluetoothLe setScanContinuous(boolean continuous) {
+        this.scanContinuous = continuous;
+        return this;
+    }
+
+    /**
+     * 持续扫描每个窗口的时长，一直有效直到再次设置，最小6000ms
+     */
+    public BluetoothLe setScanWindow(int windowMillis) {
+        mBleManager.setScanWindow(windowMillis);
+        return this;
+    }
+
+    /**
+     * 配合setReportDelay()大于0使用：每批扫描结果以数组形式(地址、信号、时间戳、打包的广播数据)回调，
+     * ScanBatch在下一批时复用，不为每个结果创建对象
+     */
+    public void setOnScanBatchListener(OnLeScanBatchListener onLeScanBatchListener) {
+        mBleManager.setOnLeScanBatchListener(onLeScanBatchListener);
+    }
+
+    public void setOnScanBatchListener(@NonNull Object tag, OnLeScanBatchListener onLeScanBatchListener) {
+        mBleManager.addScanBatchListener(tag, onLeScanBatchListener);
+    }
+
+    public void setOnScanWindowListener(OnLeScanWindowListener onLeScanWindowListener) {
+        mBleManager.setOnLeScanWindowListener(onLeScanWindowListener);
+    }
+
+    public void setOnScanWindowListener(@NonNull Object tag, OnLeScanWindowListener onLeScanWindowListener) {
+        mBleManager.addScanWindowListener(tag, onLeScanWindowListener);
+    }
+
     public BluetoothLe setReportDelay(int reportDelayMillis) {
         this.reportDelayMillis = reportDelayMillis;
         return this;
     }
 
+    /**
+     * 扫描的功耗/延迟档位，一直有效直到再次设置，默认LOW_LATENCY。ADAPTIVE先低延迟扫描，
+     * 找到需要的设备后降到BALANCED，10秒后再降到LOW_POWER
+     */
+    public BluetoothLe setScanProfile(ScanProfile profile) {
+        mBleManager.setScanProfile(profile);
+        return this;
+    }
+
+    /**
+     * ADAPTIVE扫描找到多少个(符合过滤条件的)设备后开始降档，默认1
+     */
+    public BluetoothLe setAdaptiveScanTarget(int wantedDevices) {
+        mBleManager.setAdaptiveScanTarget(wantedDevices);
+        return this;
+    }
+
+    /**
+     * 配合setReportDelay()大于0使用：支持的手机由蓝牙芯片缓存扫描结果，到时间再一次性交给onBatchScanResults()，
+     * 期间CPU不用为每个广播唤醒
+     */
+    public BluetoothLe setScanHardwareBatching(boolean enable) {
+        mBleManager.setScanHardwareBatching(enable);
+        return this;
+    }
+
+    /**
+     * 硬件过滤的匹配方式，matchMode为ScanSettings.MATCH_MODE_AGGRESSIVE或MATCH_MODE_STICKY，
+     * numOfMatches为ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT、MATCH_NUM_FEW_ADVERTISEMENT或MATCH_NUM_MAX_ADVERTISEMENT
+     */
+    public BluetoothLe setScanMatchMode(int matchMode, int numOfMatches) {
+        mBleManager.setScanMatchMode(matchMode, numOfMatches);
+        return this;
+    }
+
     public void startScan(Activity activity, OnLeScanListener onLeScanListener) {
         mBleManager.setOnLeScanListener(onLeScanListener);
-        mBleManager.scan(activity, filterDeviceName, filterDeviceAddress, uFilerServiceUUID, scanPeriod, reportDelayMillis);
+        mBleManager.scan(activity, filterDeviceName, filterDeviceAddress, uFilerServiceUUID, scanFilter, scanPeriod, scanContinuous, reportDelayMillis);
         filterDeviceName = null;
         filterDeviceAddress = null;
         uFilerServiceUUID = null;
+        scanFilter = null;
         scanPeriod = 0;
+        scanContinuous = false;
     }
 
     public void startScan(@NonNull Object tag, Activity activity, OnLeScanListener onLeScanListener) {
         mBleManager.addScanLeListener(tag, onLeScanListener);
-        mBleManager.scan(activity, filterDeviceName, filterDeviceAddress, uFilerServiceUUID, scanPeriod, reportDelayMillis);
+        mBleManager.scan(activity, filterDeviceName, filterDeviceAddress, uFilerServiceUUID, scanFilter, scanPeriod, scanContinuous, reportDelayMillis);
         filterDeviceName = null;
         filterDeviceAddress = null;
         uFilerServiceUUID = null;
+        scanFilter = null;
         scanPeriod = 0;
+        scanContinuous = false;
+    }
+
+    public void startScan(Activity activity, OnLeScanDeviceListener onLeScanDeviceListener) {
+        mBleManager.setOnLeScanDeviceListener(onLeScanDeviceListener);
+        mBleManager.scan(activity, filterDeviceName, filterDeviceAddress, uFilerServiceUUID, scanFilter, scanPeriod, scanContinuous, reportDelayMillis);
+        filterDeviceName = null;
+        filterDeviceAddress = null;
+        uFilerServiceUUID = null;
+        scanFilter = null;
+        scanPeriod = 0;
+        scanContinuous = false;
+    }
+
+    public void startScan(@NonNull Object tag, Activity activity, OnLeScanDeviceListener onLeScanDeviceListener) {
+        mBleManager.addScanDeviceListener(tag, onLeScanDeviceListener);
+        mBleManager.scan(activity, filterDeviceName, filterDeviceAddress, uFilerServiceUUID, scanFilter, scanPeriod, scanContinuous, reportDelayMillis);
+        filterDeviceName = null;
+        filterDeviceAddress = null;
+        uFilerServiceUUID = null;
+        scanFilter = null;
+        scanPeriod = 0;
+        scanContinuous = false;
+    }
+
+    /**
+     * OnLeScanDeviceListener的设备表：同一设备的重复广播只更新表项，新设备立即回调，
+     * 信号(平滑后)变化超过rssiThreshold或广播内容变化时最多每reportIntervalMillis回调一次，
+     * expireMillis内没有收到广播的设备回调onDeviceLost()并移出设备表。默认1000ms、5dBm、10000ms
+     */
+    public BluetoothLe setScanAggregation(int reportIntervalMillis, int rssiThreshold, int expireMillis) {
+        mBleManager.setScanAggregation(reportIntervalMillis, rssiThreshold, expireMillis);
+        return this;
+    }
+
+    /**
+     * 当前设备表，只在使用OnLeScanDeviceListener扫描时更新
+     */
+    public List<ScannedDevice> getScannedDevices() {
+        return mBleManager.getScannedDevices();
     }
 
     public void stopScan() {
@@ -106,10 +235,34 @@ public class BluetoothLe {
         return mBleManager.scanning();
     }
 
+    public ConnectionState getConnectionState() {
+        return mBleManager.getConnectionState(mBleManager.getConnection());
+    }
+
+    public ConnectionState getConnectionState(BluetoothDevice bluetoothDevice) {
+        return mBleManager.getConnectionState(mBleManager.getConnection(bluetoothDevice));
+    }
+
     public boolean getConnected() {
         return mBleManager.getConnected();
     }
 
+    public boolean getConnected(BluetoothDevice bluetoothDevice) {
+        return mBleManager.getConnected(bluetoothDevice);
+    }
+
+    public List<BluetoothDevice> getConnectedDevices() {
+        return mBleManager.getConnectedDevices();
+    }
+
+    /**
+     * 同时连接的设备上限，超过后startConnect()会回调onDeviceConnectFail()，默认为7
+     */
+    public BluetoothLe setMaxConnections(int maxConnections) {
+        mBleManager.setMaxConnections(maxConnections);
+        return this;
+    }
+
     public BluetoothLe setStopScanAfterConnected(boolean enable) {
         mBleManager.setStopScanAfterConnected(enable);
         return this;
@@ -130,11 +283,90 @@ public class BluetoothLe {
         return this;
     }
 
+    /**
+     * 连续失败的重连次数，用完后改为后台autoConnect等待设备出现，连接成功后重新计数
+     */
     public BluetoothLe setRetryConnectCount(int count) {
         mBleManager.setRetryConnectCount(count);
         return this;
     }
 
+    /**
+     * 重连间隔从baseDelayMillis开始每次翻倍，最长maxDelayMillis，并加入随机抖动，默认1000毫秒和60000毫秒
+     */
+    public BluetoothLe setReconnectBackoff(int baseDelayMillis, int maxDelayMillis) {
+        mBleManager.setReconnectBackoff(baseDelayMillis, maxDelayMillis);
+        return this;
+    }
+
+    public ReconnectStats getReconnectStats() {
+        return mBleManager.getReconnectStats(mBleManager.getConnection());
+    }
+
+    public ReconnectStats getReconnectStats(BluetoothDevice bluetoothDevice) {
+        return mBleManager.getReconnectStats(mBleManager.getConnection(bluetoothDevice));
+    }
+
+    /**
+     * 单个读、写、开启通知请求等待回调的最长时间，超时后按setRequestTimeoutPolicy()处理，0为不超时，默认5000毫秒
+     */
+    public BluetoothLe setRequestTimeout(int millisecond) {
+        mBleManager.setRequestTimeoutMillis(millisecond);
+        return this;
+    }
+
+    public BluetoothLe setRequestTimeoutPolicy(TimeoutPolicy policy) {
+        mBleManager.setRequestTimeoutPolicy(policy, 0);
+        return this;
+    }
+
+    public BluetoothLe setRequestTimeoutPolicy(TimeoutPolicy policy, int retryCount) {
+        mBleManager.setRequestTimeoutPolicy(policy, retryCount);
+        return this;
+    }
+
+    /**
+     * NORMAL和BULK通道之间的调度方式，默认STRICT(BULK等NORMAL空了再发送)，
+     * WEIGHTED时按4:1轮流发送
+     */
+    public BluetoothLe setRequestScheduling(RequestScheduling scheduling) {
+        mBleManager.setRequestScheduling(scheduling, BleManager.DEFAULT_NORMAL_LANE_WEIGHT, BleManager.DEFAULT_BULK_LANE_WEIGHT);
+        return this;
+    }
+
+    /**
+     * WEIGHTED时NORMAL和BULK通道的权重，最小为1
+     */
+    public BluetoothLe setRequestScheduling(RequestScheduling scheduling, int normalWeight, int bulkWeight) {
+        mBleManager.setRequestScheduling(scheduling, normalWeight, bulkWeight);
+        return this;
+    }
+
+    /**
+     * 对这个特征的写入(writeDataToCharacteristic()和writeDataWithoutResponse()，不含分包写入)只保留最新的值：
+     * 还在队列中没有发出的写入直接换成新的数据，不再排队。适合拖动滑块设置颜色、转速等，
+     * 被替换的写入不会回调。一直有效直到关闭
+     */
+    public BluetoothLe setWriteCoalescing(String characteristicUUID, boolean enable) {
+        return setWriteCoalescing(UUID.fromString(characteristicUUID), enable);
+    }
+
+    public BluetoothLe setWriteCoalescing(UUID characteristicUUID, boolean enable) {
+        mBleManager.setWriteCoalescing(characteristicUUID, enable);
+        return this;
+    }
+
+    /**
+     * 当前设备某条通道的排队情况：等待中的请求数、已发送数、平均和最大排队时间，未连接时返回null
+     */
+    public RequestLaneStats getRequestLaneStats(RequestPriority priority) {
+        return mBleManager.getRequestLaneStats(mBleManager.getConnection(), priority);
+    }
+
+    public RequestLaneStats getRequestLaneStats(BluetoothDevice bluetoothDevice, RequestPriority priority) {
+        return mBleManager.getRequestLaneStats(mBleManager.getConnection(bluetoothDevice), priority);
+    }
+
     public void startConnect(BluetoothDevice bluetoothDevice) {
         mBleManager.connect(false, bluetoothDevice);
     }
@@ -148,8 +380,7 @@ public class BluetoothLe {
     }
 
     public void startConnect(boolean autoConnect, BluetoothDevice bluetoothDevice, OnLeConnectListener onLeConnectListener) {
-        setOnConnectListener(onLeConnectListener);
-        mBleManager.connect(autoConnect, bluetoothDevice);
+        mBleManager.connect(autoConnect, bluetoothDevice, onLeConnectListener);
     }
 
     public void setOnConnectListener(OnLeConnectListener onLeConnectListener) {
@@ -160,58 +391,310 @@ public class BluetoothLe {
         mBleManager.addConnectListener(tag, onLeConnectListener);
     }
 
+    public void setOnConnectListener(BluetoothDevice bluetoothDevice, OnLeConnectListener onLeConnectListener) {
+        mBleManager.setConnectListener(bluetoothDevice, onLeConnectListener);
+    }
+
     public void disconnect() {
         mBleManager.disconnect();
     }
 
-    public BluetoothLe enableNotification(boolean enable, String serviceUUID, String characteristicUUID) {
-        enableNotification(enable, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
-        return this;
+    public void disconnect(BluetoothDevice bluetoothDevice) {
+        mBleManager.disconnect(bluetoothDevice);
     }
 
-    public BluetoothLe enableNotification(boolean enable, UUID serviceUUID, UUID characteristicUUID) {
-        enableNotification(enable, serviceUUID, new UUID[]{characteristicUUID});
-        return this;
+    /**
+     * 开关通知的请求同样返回LeFuture，多个特征时在全部写入成功后完成
+     */
+    public LeFuture enableNotification(boolean enable, String serviceUUID, String characteristicUUID) {
+        return enableNotification(enable, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public LeFuture enableNotification(boolean enable, UUID serviceUUID, UUID characteristicUUID) {
+        return enableNotification(enable, serviceUUID, new UUID[]{characteristicUUID});
+    }
+
+    public LeFuture enableNotification(boolean enable, String serviceUUID, String[] characteristicUUIDs) {
+        return enableNotification(enable, UUID.fromString(serviceUUID), toUUIDs(characteristicUUIDs));
+    }
+
+    public LeFuture enableNotification(boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return enableNotification(RequestPriority.NORMAL, enable, serviceUUID, characteristicUUIDs);
+    }
+
+    /**
+     * 读、写和开关通知都可以在第一个参数指定请求走哪条通道，只对这一次调用有效，不传时为NORMAL。
+     * URGENT总是先发送，适合停止、急停等控制命令；BULK适合大量读写
+     */
+    public LeFuture enableNotification(RequestPriority priority, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return mBleManager.enableNotificationQueue(priority, enable, serviceUUID, characteristicUUIDs);
+    }
+
+    /**
+     * 开启或关闭指示（indication），每条数据都由手机确认，收到的数据和通知一样回调
+     */
+    public LeFuture enableIndication(boolean enable, String serviceUUID, String characteristicUUID) {
+        return enableIndication(enable, UUID.fromString(serviceUUID), new UUID[]{UUID.fromString(characteristicUUID)});
+    }
+
+    public LeFuture enableIndication(boolean enable, UUID serviceUUID, UUID characteristicUUID) {
+        return enableIndication(enable, serviceUUID, new UUID[]{characteristicUUID});
+    }
+
+    public LeFuture enableIndication(boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return enableIndication(RequestPriority.NORMAL, enable, serviceUUID, characteristicUUIDs);
+    }
+
+    public LeFuture enableIndication(RequestPriority priority, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return mBleManager.enableIndicationQueue(priority, mBleManager.getConnection(), enable, serviceUUID, characteristicUUIDs);
+    }
+
+    public LeFuture enableIndication(BluetoothDevice bluetoothDevice, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return enableIndication(RequestPriority.NORMAL, bluetoothDevice, enable, serviceUUID, characteristicUUIDs);
+    }
+
+    public LeFuture enableIndication(RequestPriority priority, BluetoothDevice bluetoothDevice, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return mBleManager.enableIndicationQueue(priority, mBleManager.getConnection(bluetoothDevice), enable, serviceUUID, characteristicUUIDs);
+    }
+
+    public LeFuture enableIndication(boolean enable, @NonNull CharacteristicHandle handle) {
+        return enableIndication(RequestPriority.NORMAL, enable, handle);
+    }
+
+    public LeFuture enableIndication(RequestPriority priority, boolean enable, @NonNull CharacteristicHandle handle) {
+        return mBleManager.enableIndicationQueue(priority, handle, enable);
     }
 
-    public BluetoothLe enableNotification(boolean enable, String serviceUUID, String[] characteristicUUIDs) {
-        int length = characteristicUUIDs.length;
-        UUID[] uuids = new UUID[length];
-        for (int i = 0; i < length; i++) {
-            uuids[i] = UUID.fromString(characteristicUUIDs[i]);
+    /**
+     * 可靠写入：多个特征的数据先逐个暂存在设备上，全部被接受后一次生效，任何一条被拒绝则全部取消；
+     * Android的回调不包含设备回传的数据，回传内容不一致无法检测。
+     * 整批只占请求队列中的一个位置，用write()添加数据后调用execute()
+     */
+    public ReliableWrite newReliableWrite() {
+        return new ReliableWrite(mBleManager, mBleManager.getConnection());
+    }
+
+    public ReliableWrite newReliableWrite(BluetoothDevice bluetoothDevice) {
+        return new ReliableWrite(mBleManager, mBleManager.getConnection(bluetoothDevice));
+    }
+
+    /**
+     * 返回开关通知请求的结果，可与读写请求用then()串联
+     */
+    public LeFuture enableNotification(boolean enable, @NonNull CharacteristicHandle handle) {
+        return enableNotification(RequestPriority.NORMAL, enable, handle);
+    }
+
+    public LeFuture enableNotification(RequestPriority priority, boolean enable, @NonNull CharacteristicHandle handle) {
+        return mBleManager.enableNotificationQueue(priority, handle, enable);
+    }
+
+    public LeFuture enableNotification(BluetoothDevice bluetoothDevice, boolean enable, String serviceUUID, String characteristicUUID) {
+        return enableNotification(bluetoothDevice, enable, UUID.fromString(serviceUUID), new UUID[]{UUID.fromString(characteristicUUID)});
+    }
+
+    public LeFuture enableNotification(BluetoothDevice bluetoothDevice, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return enableNotification(RequestPriority.NORMAL, bluetoothDevice, enable, serviceUUID, characteristicUUIDs);
+    }
+
+    public LeFuture enableNotification(RequestPriority priority, BluetoothDevice bluetoothDevice, boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
+        return mBleManager.enableNotificationQueue(priority, mBleManager.getConnection(bluetoothDevice), enable, serviceUUID, characteristicUUIDs);
+    }
+
+    private static UUID[] toUUIDs(String[] uuids) {
+        UUID[] result = new UUID[uuids.length];
+        for (int i = 0; i < uuids.length; i++) {
+            result[i] = UUID.fromString(uuids[i]);
         }
-        enableNotification(enable, UUID.fromString(serviceUUID), uuids);
+        return result;
+    }
+
+    /**
+     * 通知回调改在后台线程执行，不再经过主线程Looper；capacity为缓冲区大小，满了按policy处理
+     */
+    public BluetoothLe useBackgroundNotificationDispatch(int capacity, BackpressurePolicy policy) {
+        mBleManager.setNotificationDispatcher(new NotificationDispatcher(null, capacity, policy));
         return this;
     }
 
-    public BluetoothLe enableNotification(boolean enable, UUID serviceUUID, UUID[] characteristicUUIDs) {
-        mBleManager.enableNotificationQueue(enable, serviceUUID, characteristicUUIDs);
+    public BluetoothLe useBackgroundNotificationDispatch(@NonNull Executor executor, int capacity, BackpressurePolicy policy) {
+        mBleManager.setNotificationDispatcher(new NotificationDispatcher(executor, capacity, policy));
         return this;
     }
 
+    public BluetoothLe useMainThreadNotificationDispatch() {
+        mBleManager.setNotificationDispatcher(null);
+        return this;
+    }
+
+    public long getDroppedNotificationCount() {
+        return mBleManager.getDroppedNotificationCount();
+    }
+
+    /**
+     * 把某个特征的通知作为Reactive Streams的Publisher，按订阅者request()的数量发送；
+     * 每个订阅者最多缓存bufferSize条通知，满了按policy处理，设备未连接时返回null
+     */
+    public LeNotificationPublisher getNotificationPublisher(@NonNull CharacteristicHandle handle, int bufferSize, BackpressurePolicy policy) {
+        return mBleManager.getNotificationPublisher(handle, bufferSize, policy, null);
+    }
+
+    public LeNotificationPublisher getNotificationPublisher(@NonNull CharacteristicHandle handle, int bufferSize, BackpressurePolicy policy, @NonNull Executor executor) {
+        return mBleManager.getNotificationPublisher(handle, bufferSize, policy, executor);
+    }
+
+    /**
+     * 订阅某个特征的通知：第一个订阅者会自动开启通知，最后一个取消订阅时自动关闭通知，
+     * 收到通知时只回调该特征的订阅者
+     */
+    public void subscribe(String serviceUUID, String characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        subscribe(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), onLeNotificationListener);
+    }
+
+    public void subscribe(UUID serviceUUID, UUID characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        mBleManager.subscribe(mBleManager.getConnection(), serviceUUID, characteristicUUID, onLeNotificationListener);
+    }
+
+    public void subscribe(BluetoothDevice bluetoothDevice, UUID serviceUUID, UUID characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        mBleManager.subscribe(mBleManager.getConnection(bluetoothDevice), serviceUUID, characteristicUUID, onLeNotificationListener);
+    }
+
+    public void unsubscribe(String characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        unsubscribe(UUID.fromString(characteristicUUID), onLeNotificationListener);
+    }
+
+    public void unsubscribe(UUID characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        mBleManager.unsubscribe(mBleManager.getConnection(), characteristicUUID, onLeNotificationListener);
+    }
+
+    public void unsubscribe(BluetoothDevice bluetoothDevice, UUID characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        mBleManager.unsubscribe(mBleManager.getConnection(bluetoothDevice), characteristicUUID, onLeNotificationListener);
+    }
+
+    /**
+     * 同{@link #subscribe(UUID, UUID, OnLeNotificationListener)}，回调NotificationSnapshot，不再复制数据
+     */
+    public void subscribeSnapshots(UUID serviceUUID, UUID characteristicUUID, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.subscribe(mBleManager.getConnection(), serviceUUID, characteristicUUID, onLeNotificationSnapshotListener);
+    }
+
+    public void subscribeSnapshots(BluetoothDevice bluetoothDevice, UUID serviceUUID, UUID characteristicUUID, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.subscribe(mBleManager.getConnection(bluetoothDevice), serviceUUID, characteristicUUID, onLeNotificationSnapshotListener);
+    }
+
+    public void unsubscribeSnapshots(UUID characteristicUUID, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.unsubscribe(mBleManager.getConnection(), characteristicUUID, onLeNotificationSnapshotListener);
+    }
+
+    public void unsubscribeSnapshots(BluetoothDevice bluetoothDevice, UUID characteristicUUID, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.unsubscribe(mBleManager.getConnection(bluetoothDevice), characteristicUUID, onLeNotificationSnapshotListener);
+    }
+
     public void setOnNotificationListener(OnLeNotificationListener onLeNotificationListener) {
         mBleManager.setOnLeNotificationListener(onLeNotificationListener);
     }
 
     public void setOnNotificationListener(@NonNull Object tag, OnLeNotificationListener onLeNotificationListener) {
-        mBleManager.addNotificationListener(tag, onLeNotificationListener);
+        mBleManager.addNotificationListener(tag, null, onLeNotificationListener);
+    }
+
+    /**
+     * 只接收指定特征的通知，同一个tag下可以设置多个监听，cancelTag()时一起取消
+     */
+    public void setOnNotificationListener(@NonNull Object tag, String characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        setOnNotificationListener(tag, UUID.fromString(characteristicUUID), onLeNotificationListener);
+    }
+
+    public void setOnNotificationListener(@NonNull Object tag, UUID characteristicUUID, OnLeNotificationListener onLeNotificationListener) {
+        mBleManager.addNotificationListener(tag, characteristicUUID, onLeNotificationListener);
     }
 
-    public void readCharacteristic(String serviceUUID, String characteristicUUID) {
-        mBleManager.readCharacteristicQueue(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    public void setOnNotificationListener(BluetoothDevice bluetoothDevice, OnLeNotificationListener onLeNotificationListener) {
+        mBleManager.setOnLeNotificationListener(bluetoothDevice, onLeNotificationListener);
     }
 
-    public void readCharacteristic(UUID serviceUUID, UUID characteristicUUID) {
-        mBleManager.readCharacteristicQueue(serviceUUID, characteristicUUID);
+    /**
+     * 通知的值在蓝牙线程收到时就已复制，不会被后续通知覆盖；snapshot在回调返回后会被回收复用
+     */
+    public void setOnNotificationSnapshotListener(OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.setOnLeNotificationSnapshotListener(onLeNotificationSnapshotListener);
     }
 
-    public void readCharacteristic(String serviceUUID, String characteristicUUID, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
-        readCharacteristic(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), onLeReadCharacteristicListener);
+    public void setOnNotificationSnapshotListener(@NonNull Object tag, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.addNotificationSnapshotListener(tag, null, onLeNotificationSnapshotListener);
     }
 
-    public void readCharacteristic(UUID serviceUUID, UUID characteristicUUID, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
-        mBleManager.readCharacteristicQueue(serviceUUID, characteristicUUID);
-        setOnReadCharacteristicListener(onLeReadCharacteristicListener);
+    public void setOnNotificationSnapshotListener(@NonNull Object tag, UUID characteristicUUID, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.addNotificationSnapshotListener(tag, characteristicUUID, onLeNotificationSnapshotListener);
+    }
+
+    public void setOnNotificationSnapshotListener(BluetoothDevice bluetoothDevice, OnLeNotificationSnapshotListener onLeNotificationSnapshotListener) {
+        mBleManager.setOnLeNotificationSnapshotListener(bluetoothDevice, onLeNotificationSnapshotListener);
+    }
+
+    /**
+     * 获取特征的句柄，频繁读写同一个特征时使用，避免每次解析UUID和查找特征；设备断开重连后句柄仍然可用
+     */
+    public CharacteristicHandle getCharacteristicHandle(String serviceUUID, String characteristicUUID) {
+        return getCharacteristicHandle(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public CharacteristicHandle getCharacteristicHandle(UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.getCharacteristicHandle(mBleManager.getConnection(), serviceUUID, characteristicUUID);
+    }
+
+    public CharacteristicHandle getCharacteristicHandle(BluetoothDevice bluetoothDevice, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.getCharacteristicHandle(mBleManager.getConnection(bluetoothDevice), serviceUUID, characteristicUUID);
+    }
+
+    /**
+     * 读、写和开关通知都返回LeFuture，可用addListener()或then()在请求完成后继续下一个请求，无需回到主线程
+     */
+    public LeFuture readCharacteristic(@NonNull CharacteristicHandle handle) {
+        return readCharacteristic(RequestPriority.NORMAL, handle);
+    }
+
+    public LeFuture readCharacteristic(RequestPriority priority, @NonNull CharacteristicHandle handle) {
+        return mBleManager.readCharacteristicQueue(priority, handle);
+    }
+
+    public LeFuture readCharacteristic(String serviceUUID, String characteristicUUID) {
+        return readCharacteristic(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public LeFuture readCharacteristic(UUID serviceUUID, UUID characteristicUUID) {
+        return readCharacteristic(RequestPriority.NORMAL, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture readCharacteristic(RequestPriority priority, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.readCharacteristicQueue(priority, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture readCharacteristic(BluetoothDevice bluetoothDevice, String serviceUUID, String characteristicUUID) {
+        return readCharacteristic(bluetoothDevice, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public LeFuture readCharacteristic(BluetoothDevice bluetoothDevice, UUID serviceUUID, UUID characteristicUUID) {
+        return readCharacteristic(RequestPriority.NORMAL, bluetoothDevice, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture readCharacteristic(RequestPriority priority, BluetoothDevice bluetoothDevice, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.readCharacteristicQueue(priority, mBleManager.getConnection(bluetoothDevice), serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture readCharacteristic(String serviceUUID, String characteristicUUID, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        return readCharacteristic(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), onLeReadCharacteristicListener);
+    }
+
+    /**
+     * 只有这一次读取的结果回调给listener（主线程），不影响setOnReadCharacteristicListener()设置的监听
+     */
+    public LeFuture readCharacteristic(UUID serviceUUID, UUID characteristicUUID, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        return readCharacteristic(RequestPriority.NORMAL, serviceUUID, characteristicUUID, onLeReadCharacteristicListener);
+    }
+
+    public LeFuture readCharacteristic(RequestPriority priority, UUID serviceUUID, UUID characteristicUUID, OnLeReadCharacteristicListener onLeReadCharacteristicListener) {
+        return mBleManager.readCharacteristicQueue(priority, mBleManager.getConnection(), serviceUUID, characteristicUUID, onLeReadCharacteristicListener);
     }
 
     public void setOnReadCharacteristicListener(OnLeReadCharacteristicListener onReadCharacteristicListener) {
@@ -219,24 +702,157 @@ public class BluetoothLe {
     }
 
     public void setOnReadCharacteristicListener(@NonNull Object tag, OnLeReadCharacteristicListener onReadCharacteristicListener) {
-        mBleManager.addReadCharacteristicListener(tag, onReadCharacteristicListener);
+        mBleManager.addReadCharacteristicListener(tag, null, onReadCharacteristicListener);
     }
 
-    public void writeDataToCharacteristic(byte[] bytes, String serviceUUID, String characteristicUUID) {
-        writeDataToCharacteristic(bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    public void setOnReadCharacteristicListener(@NonNull Object tag, UUID characteristicUUID, OnLeReadCharacteristicListener onReadCharacteristicListener) {
+        mBleManager.addReadCharacteristicListener(tag, characteristicUUID, onReadCharacteristicListener);
     }
 
-    public void writeDataToCharacteristic(byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
-        mBleManager.writeCharacteristicQueue(bytes, serviceUUID, characteristicUUID);
-}
+    public void setOnReadCharacteristicListener(BluetoothDevice bluetoothDevice, OnLeReadCharacteristicListener onReadCharacteristicListener) {
+        mBleManager.setOnLeReadCharacteristicListener(bluetoothDevice, onReadCharacteristicListener);
+    }
+
+    public LeFuture writeDataToCharacteristic(byte[] bytes, String serviceUUID, String characteristicUUID) {
+        return writeDataToCharacteristic(bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public LeFuture writeDataToCharacteristic(byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return writeDataToCharacteristic(RequestPriority.NORMAL, bytes, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture writeDataToCharacteristic(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.writeCharacteristicQueue(priority, bytes, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture writeDataToCharacteristic(byte[] bytes, @NonNull CharacteristicHandle handle) {
+        return writeDataToCharacteristic(RequestPriority.NORMAL, bytes, handle);
+    }
+
+    public LeFuture writeDataToCharacteristic(RequestPriority priority, byte[] bytes, @NonNull CharacteristicHandle handle) {
+        return mBleManager.writeCharacteristicQueue(priority, handle, bytes);
+    }
+
+    public LeFuture writeDataToCharacteristic(BluetoothDevice bluetoothDevice, byte[] bytes, String serviceUUID, String characteristicUUID) {
+        return writeDataToCharacteristic(bluetoothDevice, bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public LeFuture writeDataToCharacteristic(BluetoothDevice bluetoothDevice, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return writeDataToCharacteristic(RequestPriority.NORMAL, bluetoothDevice, bytes, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture writeDataToCharacteristic(RequestPriority priority, BluetoothDevice bluetoothDevice, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.writeCharacteristicQueue(priority, mBleManager.getConnection(bluetoothDevice), bytes, serviceUUID, characteristicUUID);
+    }
+
+    /**
+     * 按当前MTU把数据拆分成多包依次发送，全部发送完成后回调一次
+     */
+    public LeFuture writeDataToCharacteristic(byte[] bytes, String serviceUUID, String characteristicUUID, OnLeWriteTransferListener onLeWriteTransferListener) {
+        return writeDataToCharacteristic(bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), onLeWriteTransferListener);
+    }
+
+    public LeFuture writeDataToCharacteristic(byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteTransferListener onLeWriteTransferListener) {
+        return writeDataToCharacteristic(RequestPriority.NORMAL, bytes, serviceUUID, characteristicUUID, onLeWriteTransferListener);
+    }
+
+    public LeFuture writeDataToCharacteristic(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteTransferListener onLeWriteTransferListener) {
+        return mBleManager.writeCharacteristicQueue(priority, mBleManager.getConnection(), bytes, serviceUUID, characteristicUUID, onLeWriteTransferListener);
+    }
+
+    public LeFuture writeDataToCharacteristic(BluetoothDevice bluetoothDevice, byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteTransferListener onLeWriteTransferListener) {
+        return writeDataToCharacteristic(RequestPriority.NORMAL, bluetoothDevice, bytes, serviceUUID, characteristicUUID, onLeWriteTransferListener);
+    }
+
+    public LeFuture writeDataToCharacteristic(RequestPriority priority, BluetoothDevice bluetoothDevice, byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteTransferListener onLeWriteTransferListener) {
+        return mBleManager.writeCharacteristicQueue(priority, mBleManager.getConnection(bluetoothDevice), bytes, serviceUUID, characteristicUUID, onLeWriteTransferListener);
+    }
+
+    /**
+     * 发现服务后协商的MTU，小于等于23则不协商，默认517（需Android 5.0以上）
+     */
+    public BluetoothLe setRequestMtu(int mtu) {
+        mBleManager.setRequestMtu(mtu);
+        return this;
+    }
+
+    public int getMtu() {
+        return mBleManager.getMtu(mBleManager.getConnection());
+    }
+
+    public int getMtu(BluetoothDevice bluetoothDevice) {
+        return mBleManager.getMtu(mBleManager.getConnection(bluetoothDevice));
+    }
+
+    /**
+     * 以WRITE_TYPE_NO_RESPONSE发送，连续的数据不必逐条等待回调，最多同时有setWriteNoResponseWindow()条在发送中
+     */
+    public LeFuture writeDataWithoutResponse(byte[] bytes, String serviceUUID, String characteristicUUID) {
+        return writeDataWithoutResponse(bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID));
+    }
+
+    public LeFuture writeDataWithoutResponse(byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return writeDataWithoutResponse(RequestPriority.NORMAL, bytes, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture writeDataWithoutResponse(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.writeCharacteristicNoResponseQueue(priority, mBleManager.getConnection(), bytes, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture writeDataWithoutResponse(byte[] bytes, @NonNull CharacteristicHandle handle) {
+        return writeDataWithoutResponse(RequestPriority.NORMAL, bytes, handle);
+    }
+
+    public LeFuture writeDataWithoutResponse(RequestPriority priority, byte[] bytes, @NonNull CharacteristicHandle handle) {
+        return mBleManager.writeCharacteristicNoResponseQueue(priority, handle, bytes);
+    }
 
-    public void writeDataToCharacteristic(byte[] bytes, String serviceUUID, String characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
-        writeDataToCharacteristic(bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), onLeWriteCharacteristicListener);
+    public LeFuture writeDataWithoutResponse(BluetoothDevice bluetoothDevice, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return writeDataWithoutResponse(RequestPriority.NORMAL, bluetoothDevice, bytes, serviceUUID, characteristicUUID);
+    }
+
+    public LeFuture writeDataWithoutResponse(RequestPriority priority, BluetoothDevice bluetoothDevice, byte[] bytes, UUID serviceUUID, UUID characteristicUUID) {
+        return mBleManager.writeCharacteristicNoResponseQueue(priority, mBleManager.getConnection(bluetoothDevice), bytes, serviceUUID, characteristicUUID);
+    }
+
+    /**
+     * 记住发现过服务的已配对设备，重连时不再等待600毫秒才发现服务（系统直接使用它自己的GATT缓存）；
+     * clearDeviceCache()会同时清除该设备的记录
+     */
+    public BluetoothLe setFastBondedReconnect(boolean enable) {
+        mBleManager.setFastBondedReconnect(enable);
+        return this;
+    }
+
+    public BluetoothLe setWriteNoResponseWindow(int packets) {
+        mBleManager.setWriteNoResponseWindow(packets);
+        return this;
     }
 
-    public void writeDataToCharacteristic(byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
-        setOnWriteCharacteristicListener(onLeWriteCharacteristicListener);
-        mBleManager.writeCharacteristicQueue(bytes, serviceUUID, characteristicUUID);
+    /**
+     * writeDataWithoutResponse()的持续吞吐量，单位字节/秒
+     */
+    public float getWriteThroughput() {
+        return mBleManager.getWriteThroughput(mBleManager.getConnection());
+    }
+
+    public float getWriteThroughput(BluetoothDevice bluetoothDevice) {
+        return mBleManager.getWriteThroughput(mBleManager.getConnection(bluetoothDevice));
+    }
+
+    public LeFuture writeDataToCharacteristic(byte[] bytes, String serviceUUID, String characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        return writeDataToCharacteristic(bytes, UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), onLeWriteCharacteristicListener);
+    }
+
+    /**
+     * 只有这一次写入的结果回调给listener（主线程），不影响setOnWriteCharacteristicListener()设置的监听
+     */
+    public LeFuture writeDataToCharacteristic(byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        return writeDataToCharacteristic(RequestPriority.NORMAL, bytes, serviceUUID, characteristicUUID, onLeWriteCharacteristicListener);
+    }
+
+    public LeFuture writeDataToCharacteristic(RequestPriority priority, byte[] bytes, UUID serviceUUID, UUID characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        return mBleManager.writeCharacteristicQueue(priority, mBleManager.getConnection(), bytes, serviceUUID, characteristicUUID, onLeWriteCharacteristicListener);
     }
 
     public void setOnWriteCharacteristicListener(OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
@@ -244,13 +860,25 @@ public class BluetoothLe {
     }
 
     public void setOnWriteCharacteristicListener(@NonNull Object tag, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
-        mBleManager.addWriteCharacteristicListener(tag, onLeWriteCharacteristicListener);
+        mBleManager.addWriteCharacteristicListener(tag, null, onLeWriteCharacteristicListener);
+    }
+
+    public void setOnWriteCharacteristicListener(@NonNull Object tag, UUID characteristicUUID, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        mBleManager.addWriteCharacteristicListener(tag, characteristicUUID, onLeWriteCharacteristicListener);
+    }
+
+    public void setOnWriteCharacteristicListener(BluetoothDevice bluetoothDevice, OnLeWriteCharacteristicListener onLeWriteCharacteristicListener) {
+        mBleManager.setWriteCharacteristicListener(bluetoothDevice, onLeWriteCharacteristicListener);
     }
 
     public void close() {
         mBleManager.close();
     }
 
+    public void close(BluetoothDevice bluetoothDevice) {
+        mBleManager.close(bluetoothDevice);
+    }
+
     public void destroy() {
         mBleManager.destroy();
     }
@@ -270,4 +898,8 @@ public class BluetoothLe {
     public void clearQueue() {
         mBleManager.clearQueue();
     }
+
+    public void clearQueue(BluetoothDevice bluetoothDevice) {
+        mBleManager.clearQueue(bluetoothDevice);
+    }
 }
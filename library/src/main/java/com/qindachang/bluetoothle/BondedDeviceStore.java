@@ -0,0 +1,40 @@
+package com.qindachang.bluetoothle;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers, across app restarts, which bonded devices have had their services discovered. For
+ * such a device the stack answers discovery from its own GATT cache, which it keeps in step with
+ * the peripheral through Service Changed indications, so a reconnect can skip the settle delay
+ * before discovery. Nothing of the layout is stored here.
+ */
+class BondedDeviceStore {
+
+    private static final String PREFERENCES_NAME = "bluetoothle_bonded_devices";
+
+    private final SharedPreferences mPreferences;
+
+    BondedDeviceStore(Context context) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    boolean contains(String address) {
+        return mPreferences.getBoolean(address, false);
+    }
+
+    /**
+     * @return true if the device was not known before
+     */
+    boolean add(String address) {
+        if (contains(address)) {
+            return false;
+        }
+        mPreferences.edit().putBoolean(address, true).apply();
+        return true;
+    }
+
+    void remove(String address) {
+        mPreferences.edit().remove(address).apply();
+    }
+}
@@ -0,0 +1,71 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.UUID;
+
+/**
+ * A characteristic of one device, resolved once and reused for every request. Keep the handle
+ * for the hot path instead of passing UUID strings: it only looks the characteristic up again
+ * after the device was rediscovered or reconnected.
+ */
+public final class CharacteristicHandle {
+
+    private final BleManager mBleManager;
+    private final String mDeviceAddress;
+    private final UUID mServiceUUID;
+    private final UUID mCharacteristicUUID;
+
+    private BleConnection mConnection;
+    private BluetoothGattCharacteristic mCharacteristic;
+    private int mGeneration;
+
+    CharacteristicHandle(BleManager bleManager, BleConnection connection, UUID serviceUUID, UUID characteristicUUID) {
+        mBleManager = bleManager;
+        mConnection = connection;
+        mDeviceAddress = connection.getAddress();
+        mServiceUUID = serviceUUID;
+        mCharacteristicUUID = characteristicUUID;
+    }
+
+    public String getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    public UUID getServiceUuid() {
+        return mServiceUUID;
+    }
+
+    public UUID getCharacteristicUuid() {
+        return mCharacteristicUUID;
+    }
+
+    synchronized BleConnection getConnection() {
+        if (mConnection == null || mConnection.isClosed()) {
+            mConnection = mBleManager.getConnection(mDeviceAddress);
+            mCharacteristic = null;
+        }
+        return mConnection;
+    }
+
+    /**
+     * @return the characteristic, or null if the device is not connected or not discovered
+     */
+    synchronized BluetoothGattCharacteristic resolve() {
+        BleConnection connection = getConnection();
+        if (connection == null) {
+            return null;
+        }
+        int generation = connection.getGattGeneration();
+        if (mCharacteristic == null || generation != mGeneration) {
+            mCharacteristic = connection.getCharacteristic(mServiceUUID, mCharacteristicUUID);
+            mGeneration = generation;
+        }
+        return mCharacteristic;
+    }
+
+    @Override
+    public String toString() {
+        return "CharacteristicHandle{" + mDeviceAddress + ", " + mCharacteristicUUID + "}";
+    }
+}
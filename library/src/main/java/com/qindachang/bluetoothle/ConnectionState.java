@@ -0,0 +1,30 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Lifecycle of one device connection. Read, write and notification requests queued before
+ * {@link #READY} are held and start once service discovery has finished.
+ */
+public enum ConnectionState {
+
+    /** No link and no pending connect. */
+    DISCONNECTED,
+
+    /** connectGatt() was called and the link is not up yet. */
+    CONNECTING,
+
+    /** The link is up; service discovery has not started. */
+    CONNECTED,
+
+    /** discoverServices() is running. */
+    DISCOVERING,
+
+    /** Services are discovered and queued requests are executed. */
+    READY,
+
+    /** disconnect() was called and the stack has not confirmed it yet. */
+    DISCONNECTING;
+
+    boolean isConnected() {
+        return this == CONNECTED || this == DISCOVERING || this == READY;
+    }
+}
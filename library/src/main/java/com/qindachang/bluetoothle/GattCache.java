@@ -0,0 +1,60 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Characteristics of one connection indexed by service and characteristic UUID, built once per
+ * service discovery. The generation changes whenever the table is rebuilt or dropped, which lets
+ * {@link CharacteristicHandle} keep its resolved characteristic until then.
+ */
+class GattCache {
+
+    private volatile Map<UUID, Map<UUID, BluetoothGattCharacteristic>> mServices = Collections.emptyMap();
+    private volatile int mGeneration;
+
+    synchronized void fill(List<BluetoothGattService> services) {
+        Map<UUID, Map<UUID, BluetoothGattCharacteristic>> table = new HashMap<>();
+        if (services != null) {
+            for (BluetoothGattService service : services) {
+                Map<UUID, BluetoothGattCharacteristic> characteristics = table.get(service.getUuid());
+                if (characteristics == null) {
+                    characteristics = new HashMap<>();
+                    table.put(service.getUuid(), characteristics);
+                }
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    // like BluetoothGattService.getCharacteristic(), the first instance wins
+                    if (!characteristics.containsKey(characteristic.getUuid())) {
+                        characteristics.put(characteristic.getUuid(), characteristic);
+                    }
+                }
+            }
+        }
+        mServices = table;
+        mGeneration++;
+    }
+
+    synchronized void clear() {
+        mServices = Collections.emptyMap();
+        mGeneration++;
+    }
+
+    boolean isEmpty() {
+        return mServices.isEmpty();
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    BluetoothGattCharacteristic get(UUID serviceUUID, UUID characteristicUUID) {
+        Map<UUID, BluetoothGattCharacteristic> characteristics = mServices.get(serviceUUID);
+        return characteristics == null ? null : characteristics.get(characteristicUUID);
+    }
+}
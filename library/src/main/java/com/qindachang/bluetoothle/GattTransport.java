@@ -0,0 +1,69 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The GATT client operations a {@link BleConnection} uses. {@link AndroidGattTransport} talks to
+ * the radio through {@link BluetoothGatt}; the unit tests answer from a simulated peripheral in
+ * memory, so the queue, retry and connection logic run without hardware.
+ */
+interface GattTransport {
+
+    interface Factory {
+        /**
+         * Starts connecting; events of the returned transport are reported to the callback.
+         */
+        GattTransport connect(Context context, BluetoothDevice device, boolean autoConnect, BleManagerGattCallback callback);
+    }
+
+    /**
+     * @return the underlying framework object, or null if there is none
+     */
+    BluetoothGatt getBluetoothGatt();
+
+    int getBondState();
+
+    boolean discoverServices();
+
+    List<BluetoothGattService> getServices();
+
+    BluetoothGattService getService(UUID uuid);
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable);
+
+    boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean requestMtu(int mtu);
+
+    /**
+     * Until {@link #executeReliableWrite()} or {@link #abortReliableWrite()}, writes are prepared
+     * on the peripheral instead of being applied. Each one is still answered by
+     * onCharacteristicWrite, which does not carry the value the peripheral echoed.
+     */
+    boolean beginReliableWrite();
+
+    boolean executeReliableWrite();
+
+    void abortReliableWrite();
+
+    /**
+     * Drops the stack's cached services of the device.
+     */
+    boolean refresh();
+
+    void disconnect();
+
+    void close();
+}
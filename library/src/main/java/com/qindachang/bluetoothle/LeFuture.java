@@ -0,0 +1,263 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of one queued read, write or notification toggle. It completes with the value read or
+ * written, the GATT (or {@link LeStatus}) status and the time spent queued and on the air.
+ * <p>
+ * Listeners and continuations run on the thread that completes the request, usually a binder
+ * thread of the Bluetooth stack, so a pipeline built with {@link #then(Continuation)} goes from
+ * one request to the next without passing through the main thread. Keep them short, and do not
+ * block in {@link #get()} on the main thread.
+ */
+public final class LeFuture implements Future<byte[]> {
+
+    public interface Listener {
+        void onComplete(LeFuture future);
+    }
+
+    /**
+     * The next step of a pipeline, run only if the previous request succeeded.
+     */
+    public interface Continuation {
+        /**
+         * @return the next request, or null to finish the pipeline with this result
+         */
+        LeFuture then(LeFuture previous);
+    }
+
+    private final long mQueuedNanos = System.nanoTime();
+    private long mSentNanos;
+    private long mCompletedNanos;
+    private boolean mDone;
+    private int mStatus;
+    private String mMessage;
+    private byte[] mValue;
+    // null once completed
+    private List<Listener> mListeners = new ArrayList<>(1);
+
+    LeFuture() {
+    }
+
+    static LeFuture failed(String msg, int status) {
+        LeFuture future = new LeFuture();
+        future.fail(msg, status);
+        return future;
+    }
+
+    /**
+     * Completes when every future has succeeded, or with the first failure.
+     */
+    public static LeFuture allOf(final LeFuture... futures) {
+        final LeFuture result = new LeFuture();
+        if (futures.length == 0) {
+            result.complete(null);
+            return result;
+        }
+        final int[] remaining = {futures.length};
+        Listener listener = new Listener() {
+            @Override
+            public void onComplete(LeFuture future) {
+                if (!future.isSuccess()) {
+                    result.complete(future.mStatus, future.mMessage, future.mValue);
+                    return;
+                }
+                synchronized (remaining) {
+                    if (--remaining[0] > 0) {
+                        return;
+                    }
+                }
+                result.complete(null);
+            }
+        };
+        for (LeFuture future : futures) {
+            future.addListener(listener);
+        }
+        return result;
+    }
+
+    public LeFuture addListener(Listener listener) {
+        synchronized (this) {
+            if (!mDone) {
+                mListeners.add(listener);
+                return this;
+            }
+        }
+        listener.onComplete(this);
+        return this;
+    }
+
+    /**
+     * Runs the continuation after this request succeeded. The returned future completes with
+     * the result of the request the continuation returns, or with this failure.
+     */
+    public LeFuture then(final Continuation continuation) {
+        final LeFuture result = new LeFuture();
+        addListener(new Listener() {
+            @Override
+            public void onComplete(LeFuture previous) {
+                if (!previous.isSuccess()) {
+                    previous.propagateTo(result);
+                    return;
+                }
+                LeFuture next;
+                try {
+                    next = continuation.then(previous);
+                } catch (RuntimeException e) {
+                    result.fail(e.toString(), LeStatus.REQUEST_ABORTED);
+                    return;
+                }
+                (next == null ? previous : next).propagateTo(result);
+            }
+        });
+        return result;
+    }
+
+    void propagateTo(final LeFuture target) {
+        addListener(new Listener() {
+            @Override
+            public void onComplete(LeFuture future) {
+                target.complete(future.mStatus, future.mMessage, future.mValue);
+            }
+        });
+    }
+
+    synchronized void markSent() {
+        if (mSentNanos == 0) {
+            mSentNanos = System.nanoTime();
+        }
+    }
+
+    boolean complete(byte[] value) {
+        return complete(BluetoothGatt.GATT_SUCCESS, null, value);
+    }
+
+    boolean fail(String msg, int status) {
+        return complete(status, msg, null);
+    }
+
+    private boolean complete(int status, String msg, byte[] value) {
+        List<Listener> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mStatus = status;
+            mMessage = msg;
+            mValue = value;
+            mCompletedNanos = System.nanoTime();
+            listeners = mListeners;
+            mListeners = null;
+            notifyAll();
+        }
+        for (Listener listener : listeners) {
+            listener.onComplete(this);
+        }
+        return true;
+    }
+
+    /**
+     * Queued requests cannot be taken back, so this always returns false.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * @return the value read or written
+     * @throws ExecutionException if the request failed, see {@link #getStatus()}
+     */
+    @Override
+    public synchronized byte[] get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private byte[] result() throws ExecutionException {
+        if (mStatus != BluetoothGatt.GATT_SUCCESS) {
+            throw new ExecutionException(new IllegalStateException(mMessage + ", status: " + mStatus));
+        }
+        return mValue;
+    }
+
+    public synchronized boolean isSuccess() {
+        return mDone && mStatus == BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /**
+     * BluetoothGatt.GATT_SUCCESS, another GATT status or one of {@link LeStatus}.
+     */
+    public synchronized int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Why the request failed, null on success.
+     */
+    public synchronized String getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * The value read, or the bytes written. Null for notification toggles and failures.
+     */
+    public synchronized byte[] getValue() {
+        return mValue;
+    }
+
+    /**
+     * From queueing until the request was handed to the stack; 0 if it never was.
+     */
+    public synchronized long getQueueDelayNanos() {
+        return mSentNanos == 0 ? 0 : mSentNanos - mQueuedNanos;
+    }
+
+    /**
+     * From queueing until completion.
+     */
+    public synchronized long getTotalNanos() {
+        return mDone ? mCompletedNanos - mQueuedNanos : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LeFuture{" + (mDone ? "status=" + mStatus + (mMessage == null ? "" : ", " + mMessage)
+                + ", queueDelayMillis=" + getQueueDelayNanos() / 1000000 + ", totalMillis=" + getTotalNanos() / 1000000
+                : "pending") + "}";
+    }
+}
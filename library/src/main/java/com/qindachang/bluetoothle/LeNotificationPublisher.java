@@ -0,0 +1,337 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Notifications of one characteristic as a Reactive Streams {@link Publisher}. Every subscriber
+ * gets its own buffer of {@code bufferSize} notifications, filled on the Bluetooth binder thread
+ * and drained on the executor only as far as the subscriber has requested, so a slow subscriber
+ * never queues work on the main Looper. When a buffer is full the {@link BackpressurePolicy}
+ * decides: DROP_OLDEST discards the oldest buffered notification, COALESCE replaces the newest
+ * one and BLOCK holds the binder thread until the subscriber requests more. The binder thread
+ * also carries every other callback of the connection, so BLOCK waits at most
+ * {@link #BLOCK_TIMEOUT_MILLIS}; after that the subscriber is treated as stalled and loses its
+ * oldest notifications without further waiting until it takes one from its buffer again.
+ * <p>
+ * Unlike the snapshots given to listeners, the snapshots emitted here are never recycled and may
+ * be kept. The first subscriber enables the notification and the last one to cancel disables it;
+ * the stream completes, and lets go of the connection, when the connection is closed.
+ */
+public final class LeNotificationPublisher implements Publisher<NotificationSnapshot>, LeListener {
+
+    private static final String TAG = LeNotificationPublisher.class.getSimpleName();
+
+    private static final NotificationSubscription[] EMPTY = new NotificationSubscription[0];
+
+    /**
+     * The longest a BLOCK subscriber, or the background notification dispatcher, may hold the
+     * binder thread before it counts as stalled.
+     */
+    public static final long BLOCK_TIMEOUT_MILLIS = 100;
+
+    private final BleConnection mConnection;
+    private final UUID mServiceUUID;
+    private final UUID mCharacteristicUUID;
+    private final int mBufferSize;
+    private final BackpressurePolicy mPolicy;
+    private final Executor mExecutor;
+    private final AtomicLong mDropped = new AtomicLong();
+    // copy-on-write: read without locking on the binder thread
+    private volatile NotificationSubscription[] mSubscriptions = EMPTY;
+    private boolean mCompleted;
+
+    LeNotificationPublisher(BleConnection connection, UUID serviceUUID, UUID characteristicUUID,
+                            int bufferSize, BackpressurePolicy policy, Executor executor) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        mConnection = connection;
+        mServiceUUID = serviceUUID;
+        mCharacteristicUUID = characteristicUUID;
+        mBufferSize = bufferSize;
+        mPolicy = policy;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super NotificationSnapshot> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        NotificationSubscription subscription = new NotificationSubscription(subscriber);
+        boolean completed;
+        synchronized (this) {
+            completed = mCompleted;
+            if (!completed) {
+                NotificationSubscription[] subscriptions = mSubscriptions;
+                NotificationSubscription[] added = new NotificationSubscription[subscriptions.length + 1];
+                System.arraycopy(subscriptions, 0, added, 0, subscriptions.length);
+                added[subscriptions.length] = subscription;
+                mSubscriptions = added;
+                if (subscriptions.length == 0) {
+                    mConnection.subscribe(mServiceUUID, mCharacteristicUUID, this);
+                }
+            }
+        }
+        subscriber.onSubscribe(subscription);
+        if (completed) {
+            subscription.complete();
+        }
+    }
+
+    public UUID getCharacteristicUuid() {
+        return mCharacteristicUUID;
+    }
+
+    /**
+     * Notifications discarded or replaced because a subscriber's buffer was full.
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * Called on the binder thread for every notification of the characteristic.
+     */
+    void publish(BleConnection connection, BluetoothGattCharacteristic characteristic, long timestampNanos) {
+        NotificationSubscription[] subscriptions = mSubscriptions;
+        if (subscriptions.length == 0) {
+            return;
+        }
+        // not pooled: subscribers may keep it, and each one holds a reference in its own buffer
+        NotificationSnapshot snapshot = new NotificationSnapshot();
+        snapshot.fill(connection, characteristic, timestampNanos);
+        for (NotificationSubscription subscription : subscriptions) {
+            subscription.offer(snapshot);
+        }
+    }
+
+    /**
+     * Completes every subscriber once it has received what is already buffered, and removes the
+     * publisher from the connection's subscriptions.
+     */
+    void complete() {
+        NotificationSubscription[] subscriptions;
+        synchronized (this) {
+            if (mCompleted) {
+                return;
+            }
+            mCompleted = true;
+            subscriptions = mSubscriptions;
+            mSubscriptions = EMPTY;
+            if (subscriptions.length > 0) {
+                mConnection.unsubscribe(mCharacteristicUUID, this);
+            }
+        }
+        for (NotificationSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+
+    private void remove(NotificationSubscription subscription) {
+        synchronized (this) {
+            NotificationSubscription[] subscriptions = mSubscriptions;
+            int index = -1;
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (subscriptions[i] == subscription) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            if (subscriptions.length == 1) {
+                mSubscriptions = EMPTY;
+                mConnection.unsubscribe(mCharacteristicUUID, this);
+                return;
+            }
+            NotificationSubscription[] removed = new NotificationSubscription[subscriptions.length - 1];
+            System.arraycopy(subscriptions, 0, removed, 0, index);
+            System.arraycopy(subscriptions, index + 1, removed, index, subscriptions.length - index - 1);
+            mSubscriptions = removed;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LeNotificationPublisher{" + mConnection.getAddress() + ", " + mCharacteristicUUID
+                + ", subscribers=" + mSubscriptions.length + ", dropped=" + mDropped.get() + "}";
+    }
+
+    /**
+     * One subscriber's buffer and demand. Signals are serialized by the work-in-progress counter:
+     * whichever thread moves it from zero schedules the only drain task.
+     */
+    private final class NotificationSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super NotificationSnapshot> mSubscriber;
+        // guarded by this
+        private final ArrayDeque<NotificationSnapshot> mBuffer;
+        private final AtomicLong mRequested = new AtomicLong();
+        private final AtomicInteger mWip = new AtomicInteger();
+        // guarded by this: a BLOCK wait timed out and the subscriber has not taken anything since
+        private boolean mStalled;
+        private volatile boolean mCancelled;
+        private volatile boolean mDone;
+        private volatile Throwable mError;
+
+        NotificationSubscription(Subscriber<? super NotificationSnapshot> subscriber) {
+            mSubscriber = subscriber;
+            mBuffer = new ArrayDeque<>(Math.min(mBufferSize, 64));
+        }
+
+        void offer(NotificationSnapshot snapshot) {
+            synchronized (this) {
+                long deadline = 0;
+                while (!mCancelled && mBuffer.size() >= mBufferSize) {
+                    if (mPolicy == BackpressurePolicy.BLOCK) {
+                        long now = System.nanoTime();
+                        if (deadline == 0) {
+                            deadline = now + BLOCK_TIMEOUT_MILLIS * 1000000L;
+                        }
+                        if (mStalled || now - deadline >= 0) {
+                            if (!mStalled) {
+                                mStalled = true;
+                                Log.w(TAG, "subscriber did not request more within " + BLOCK_TIMEOUT_MILLIS + " ms, dropping notifications until it does");
+                            }
+                            mBuffer.pollFirst();
+                            mDropped.incrementAndGet();
+                            continue;
+                        }
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, deadline - now);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            mDropped.incrementAndGet();
+                            return;
+                        }
+                    } else if (mPolicy == BackpressurePolicy.COALESCE) {
+                        mBuffer.pollLast();
+                        mDropped.incrementAndGet();
+                    } else {
+                        mBuffer.pollFirst();
+                        mDropped.incrementAndGet();
+                    }
+                }
+                if (mCancelled) {
+                    return;
+                }
+                mBuffer.addLast(snapshot);
+            }
+            schedule();
+        }
+
+        void complete() {
+            mDone = true;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                mError = new IllegalArgumentException("request(n) must be positive, was " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = mRequested.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!mRequested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        /**
+         * Also unsubscribes the publisher from the connection when this was its last subscriber.
+         */
+        @Override
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            synchronized (this) {
+                mBuffer.clear();
+                notifyAll();
+            }
+            remove(this);
+        }
+
+        private void schedule() {
+            if (mWip.getAndIncrement() == 0) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                long requested = mRequested.get();
+                long emitted = 0;
+                while (emitted != requested && !mCancelled) {
+                    NotificationSnapshot snapshot;
+                    synchronized (this) {
+                        snapshot = mBuffer.pollFirst();
+                        if (snapshot != null && mPolicy == BackpressurePolicy.BLOCK) {
+                            mStalled = false;
+                            notifyAll();
+                        }
+                    }
+                    if (snapshot == null) {
+                        break;
+                    }
+                    try {
+                        mSubscriber.onNext(snapshot);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "subscriber threw, cancelling", e);
+                        cancel();
+                        return;
+                    }
+                    emitted++;
+                }
+                if (mCancelled) {
+                    return;
+                }
+                Throwable error = mError;
+                if (error != null) {
+                    cancel();
+                    mSubscriber.onError(error);
+                    return;
+                }
+                if (mDone && isBufferEmpty()) {
+                    mCancelled = true;
+                    mSubscriber.onComplete();
+                    return;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    mRequested.addAndGet(-emitted);
+                }
+                missed = mWip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private synchronized boolean isBufferEmpty() {
+            return mBuffer.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.ParcelUuid;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * Scan filter with AND/OR composition, see {@link BluetoothLe#setScanFilter(LeScanFilter)}.
+ * The conditions of one {@link Builder} must all hold; combine filters with
+ * {@link #allOf(LeScanFilter...)} and {@link #anyOf(LeScanFilter...)}.
+ * <p>
+ * What the Bluetooth controller can check (address, exact name, service UUID, service and
+ * manufacturer data) is handed to it; every result is then checked against the whole filter on
+ * the raw bytes of the ScanRecord the scanner already built, which are not parsed again. A regex
+ * name condition decodes into a reused buffer that only grows for a longer name. Filtered batches
+ * go into the reused {@link ScanBatch}; a new list per batch is only made while an
+ * {@link OnLeScanListener} is registered, since it may keep the list.
+ */
+public abstract class LeScanFilter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // advertising data types, Bluetooth assigned numbers
+    private static final int AD_INCOMPLETE_UUID16 = 0x02;
+    private static final int AD_COMPLETE_UUID16 = 0x03;
+    private static final int AD_INCOMPLETE_UUID32 = 0x04;
+    private static final int AD_COMPLETE_UUID32 = 0x05;
+    private static final int AD_INCOMPLETE_UUID128 = 0x06;
+    private static final int AD_COMPLETE_UUID128 = 0x07;
+    private static final int AD_SHORTENED_NAME = 0x08;
+    private static final int AD_COMPLETE_NAME = 0x09;
+    private static final int AD_SERVICE_DATA_UUID16 = 0x16;
+    private static final int AD_SERVICE_DATA_UUID32 = 0x20;
+    private static final int AD_SERVICE_DATA_UUID128 = 0x21;
+    private static final int AD_MANUFACTURER_DATA = 0xff;
+
+    LeScanFilter() {
+    }
+
+    public static LeScanFilter allOf(LeScanFilter... filters) {
+        return new Composite(false, filters);
+    }
+
+    public static LeScanFilter anyOf(LeScanFilter... filters) {
+        return new Composite(true, filters);
+    }
+
+    boolean matches(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        return matches(result.getDevice(), result.getRssi(), record == null ? null : record.getBytes());
+    }
+
+    abstract boolean matches(BluetoothDevice device, int rssi, byte[] advertisement);
+
+    /**
+     * @return controller filters that let through at least every result this filter accepts, or
+     * null if the controller cannot narrow the scan down
+     */
+    abstract List<ScanFilter> toHardwareFilters();
+
+    public static final class Builder {
+
+        private String mDeviceAddress;
+        private String mDeviceName;
+        private String mDeviceNamePrefix;
+        private String mDeviceNameRegex;
+        private int mMinRssi = Integer.MIN_VALUE;
+        private UUID mServiceUuid;
+        private UUID mServiceDataUuid;
+        private byte[] mServiceData;
+        private byte[] mServiceDataMask;
+        private int mManufacturerId = -1;
+        private byte[] mManufacturerData;
+        private byte[] mManufacturerDataMask;
+
+        public Builder setDeviceAddress(String deviceAddress) {
+            mDeviceAddress = deviceAddress;
+            return this;
+        }
+
+        public Builder setDeviceName(String deviceName) {
+            mDeviceName = deviceName;
+            return this;
+        }
+
+        public Builder setDeviceNamePrefix(String prefix) {
+            mDeviceNamePrefix = prefix;
+            return this;
+        }
+
+        /**
+         * The whole advertised name must match the regular expression.
+         */
+        public Builder setDeviceNameRegex(String regex) {
+            mDeviceNameRegex = regex;
+            return this;
+        }
+
+        /**
+         * Only results with at least this RSSI, e.g. -70.
+         */
+        public Builder setMinRssi(int rssi) {
+            mMinRssi = rssi;
+            return this;
+        }
+
+        public Builder setServiceUuid(UUID serviceUuid) {
+            mServiceUuid = serviceUuid;
+            return this;
+        }
+
+        /**
+         * @param mask null to compare every byte, otherwise as long as data; a 0 bit is not compared
+         */
+        public Builder setServiceData(UUID serviceUuid, byte[] data, byte[] mask) {
+            checkMask(data, mask);
+            mServiceDataUuid = serviceUuid;
+            mServiceData = data;
+            mServiceDataMask = mask;
+            return this;
+        }
+
+        /**
+         * @param manufacturerId company identifier assigned by the Bluetooth SIG
+         * @param data           the bytes after the company identifier
+         * @param mask           null to compare every byte, otherwise as long as data; a 0 bit is not compared
+         */
+        public Builder setManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+            if (manufacturerId < 0 || manufacturerId > 0xffff) {
+                throw new IllegalArgumentException("invalid manufacturer id " + manufacturerId);
+            }
+            checkMask(data, mask);
+            mManufacturerId = manufacturerId;
+            mManufacturerData = data;
+            mManufacturerDataMask = mask;
+            return this;
+        }
+
+        public LeScanFilter build() {
+            return new Conditions(this);
+        }
+
+        private static void checkMask(byte[] data, byte[] mask) {
+            if (data == null) {
+                throw new IllegalArgumentException("data is null");
+            }
+            if (mask != null && mask.length != data.length) {
+                throw new IllegalArgumentException("mask and data must have the same length");
+            }
+        }
+    }
+
+    private static final class Conditions extends LeScanFilter {
+
+        private final String mDeviceAddress;
+        private final String mDeviceName;
+        private final byte[] mDeviceNameBytes;
+        private final byte[] mDeviceNamePrefixBytes;
+        private final int mMinRssi;
+        private final UUID mServiceUuid;
+        private final AdUuid mServiceAdUuid;
+        private final UUID mServiceDataUuid;
+        private final AdUuid mServiceDataAdUuid;
+        private final byte[] mServiceData;
+        private final byte[] mServiceDataMask;
+        private final int mManufacturerId;
+        private final byte[] mManufacturerData;
+        private final byte[] mManufacturerDataMask;
+        // guarded by itself; reused so the regex runs without allocating
+        private final Utf8Chars mName;
+        private final Matcher mNameMatcher;
+
+        Conditions(Builder builder) {
+            mDeviceAddress = builder.mDeviceAddress;
+            mDeviceName = builder.mDeviceName;
+            mDeviceNameBytes = builder.mDeviceName == null ? null : builder.mDeviceName.getBytes(UTF_8);
+            mDeviceNamePrefixBytes = builder.mDeviceNamePrefix == null ? null : builder.mDeviceNamePrefix.getBytes(UTF_8);
+            mMinRssi = builder.mMinRssi;
+            mServiceUuid = builder.mServiceUuid;
+            mServiceAdUuid = builder.mServiceUuid == null ? null : new AdUuid(builder.mServiceUuid);
+            mServiceDataUuid = builder.mServiceDataUuid;
+            mServiceDataAdUuid = builder.mServiceDataUuid == null ? null : new AdUuid(builder.mServiceDataUuid);
+            mServiceData = builder.mServiceData;
+            mServiceDataMask = builder.mServiceDataMask;
+            mManufacturerId = builder.mManufacturerId;
+            mManufacturerData = builder.mManufacturerData;
+            mManufacturerDataMask = builder.mManufacturerDataMask;
+            if (builder.mDeviceNameRegex != null) {
+                mName = new Utf8Chars();
+                mNameMatcher = Pattern.compile(builder.mDeviceNameRegex).matcher(mName);
+            } else {
+                mName = null;
+                mNameMatcher = null;
+            }
+        }
+
+        @Override
+        boolean matches(BluetoothDevice device, int rssi, byte[] advertisement) {
+            if (rssi < mMinRssi) {
+                return false;
+            }
+            if (mDeviceAddress != null && !mDeviceAddress.equalsIgnoreCase(device.getAddress())) {
+                return false;
+            }
+            boolean name = mDeviceNameBytes == null;
+            boolean namePrefix = mDeviceNamePrefixBytes == null;
+            boolean nameRegex = mNameMatcher == null;
+            boolean service = mServiceAdUuid == null;
+            boolean serviceData = mServiceDataAdUuid == null;
+            boolean manufacturerData = mManufacturerId < 0;
+            int i = 0;
+            while (advertisement != null && i + 1 < advertisement.length) {
+                int length = advertisement[i] & 0xff;
+                if (length == 0 || i + 1 + length > advertisement.length) {
+                    break;
+                }
+                int type = advertisement[i + 1] & 0xff;
+                int from = i + 2;
+                int dataLength = length - 1;
+                switch (type) {
+                    case AD_SHORTENED_NAME:
+                    case AD_COMPLETE_NAME:
+                        if (!name && type == AD_COMPLETE_NAME) {
+                            name = dataLength == mDeviceNameBytes.length
+                                    && regionEquals(advertisement, from, mDeviceNameBytes, 0, dataLength);
+                        }
+                        if (!namePrefix) {
+                            namePrefix = dataLength >= mDeviceNamePrefixBytes.length
+                                    && regionEquals(advertisement, from, mDeviceNamePrefixBytes, 0, mDeviceNamePrefixBytes.length);
+                        }
+                        if (!nameRegex) {
+                            nameRegex = matchesName(advertisement, from, dataLength);
+                        }
+                        break;
+                    case AD_INCOMPLETE_UUID16:
+                    case AD_COMPLETE_UUID16:
+                        service = service || mServiceAdUuid.inList(advertisement, from, dataLength, 2);
+                        break;
+                    case AD_INCOMPLETE_UUID32:
+                    case AD_COMPLETE_UUID32:
+                        service = service || mServiceAdUuid.inList(advertisement, from, dataLength, 4);
+                        break;
+                    case AD_INCOMPLETE_UUID128:
+                    case AD_COMPLETE_UUID128:
+                        service = service || mServiceAdUuid.inList(advertisement, from, dataLength, 16);
+                        break;
+                    case AD_SERVICE_DATA_UUID16:
+                        serviceData = serviceData || serviceDataMatches(advertisement, from, dataLength, 2);
+                        break;
+                    case AD_SERVICE_DATA_UUID32:
+                        serviceData = serviceData || serviceDataMatches(advertisement, from, dataLength, 4);
+                        break;
+                    case AD_SERVICE_DATA_UUID128:
+                        serviceData = serviceData || serviceDataMatches(advertisement, from, dataLength, 16);
+                        break;
+                    case AD_MANUFACTURER_DATA:
+                        manufacturerData = manufacturerData || (dataLength >= 2
+                                && ((advertisement[from] & 0xff) | (advertisement[from + 1] & 0xff) << 8) == mManufacturerId
+                                && maskedEquals(advertisement, from + 2, dataLength - 2, mManufacturerData, mManufacturerDataMask));
+                        break;
+                    default:
+                        break;
+                }
+                i += length + 1;
+            }
+            return name && namePrefix && nameRegex && service && serviceData && manufacturerData;
+        }
+
+        private boolean serviceDataMatches(byte[] advertisement, int from, int length, int uuidWidth) {
+            return length >= uuidWidth && mServiceDataAdUuid.equalsAt(advertisement, from, uuidWidth)
+                    && maskedEquals(advertisement, from + uuidWidth, length - uuidWidth, mServiceData, mServiceDataMask);
+        }
+
+        private boolean matchesName(byte[] advertisement, int from, int length) {
+            synchronized (mName) {
+                mName.decode(advertisement, from, length);
+                return mNameMatcher.reset().matches();
+            }
+        }
+
+        @Override
+        List<ScanFilter> toHardwareFilters() {
+            if (mDeviceAddress == null && mDeviceName == null && mServiceUuid == null && mServiceDataUuid == null
+                    && mManufacturerId < 0) {
+                return null;
+            }
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (mDeviceAddress != null) {
+                builder.setDeviceAddress(mDeviceAddress.toUpperCase());
+            }
+            if (mDeviceName != null) {
+                builder.setDeviceName(mDeviceName);
+            }
+            if (mServiceUuid != null) {
+                builder.setServiceUuid(new ParcelUuid(mServiceUuid));
+            }
+            if (mServiceDataUuid != null) {
+                builder.setServiceData(new ParcelUuid(mServiceDataUuid), mServiceData, mServiceDataMask);
+            }
+            if (mManufacturerId >= 0) {
+                builder.setManufacturerData(mManufacturerId, mManufacturerData, mManufacturerDataMask);
+            }
+            List<ScanFilter> filters = new ArrayList<>(1);
+            filters.add(builder.build());
+            return filters;
+        }
+    }
+
+    private static final class Composite extends LeScanFilter {
+
+        private final boolean mAny;
+        private final LeScanFilter[] mFilters;
+
+        Composite(boolean any, LeScanFilter[] filters) {
+            if (filters == null || filters.length == 0) {
+                throw new IllegalArgumentException("no filters");
+            }
+            mAny = any;
+            mFilters = filters.clone();
+        }
+
+        @Override
+        boolean matches(BluetoothDevice device, int rssi, byte[] advertisement) {
+            for (LeScanFilter filter : mFilters) {
+                if (filter.matches(device, rssi, advertisement) == mAny) {
+                    return mAny;
+                }
+            }
+            return !mAny;
+        }
+
+        @Override
+        List<ScanFilter> toHardwareFilters() {
+            if (!mAny) {
+                // every condition must hold, so any one of them narrows the scan correctly
+                for (LeScanFilter filter : mFilters) {
+                    List<ScanFilter> filters = filter.toHardwareFilters();
+                    if (filters != null) {
+                        return filters;
+                    }
+                }
+                return null;
+            }
+            List<ScanFilter> filters = new ArrayList<>();
+            for (LeScanFilter filter : mFilters) {
+                List<ScanFilter> alternatives = filter.toHardwareFilters();
+                if (alternatives == null) {
+                    // one branch accepts anything the controller sees
+                    return null;
+                }
+                filters.addAll(alternatives);
+            }
+            return filters;
+        }
+    }
+
+    /**
+     * A UUID in the little-endian forms it takes in advertising data.
+     */
+    private static final class AdUuid {
+
+        private static final long BASE_UUID_LSB = 0x800000805f9b34fbL;
+
+        private final byte[] mBytes = new byte[16];
+        // 16 or 32 bit alias of a UUID on the Bluetooth base UUID, otherwise -1
+        private final long mShortUuid;
+
+        AdUuid(UUID uuid) {
+            long lsb = uuid.getLeastSignificantBits();
+            long msb = uuid.getMostSignificantBits();
+            for (int i = 0; i < 8; i++) {
+                mBytes[i] = (byte) (lsb >>> (8 * i));
+                mBytes[8 + i] = (byte) (msb >>> (8 * i));
+            }
+            mShortUuid = lsb == BASE_UUID_LSB && (msb & 0xffffffffL) == 0x1000L ? msb >>> 32 : -1;
+        }
+
+        boolean equalsAt(byte[] bytes, int from, int width) {
+            if (width == 16) {
+                return regionEquals(bytes, from, mBytes, 0, 16);
+            }
+            if (mShortUuid < 0) {
+                return false;
+            }
+            long value = 0;
+            for (int i = width - 1; i >= 0; i--) {
+                value = value << 8 | (bytes[from + i] & 0xff);
+            }
+            return value == mShortUuid;
+        }
+
+        boolean inList(byte[] bytes, int from, int length, int width) {
+            for (int i = 0; i + width <= length; i += width) {
+                if (equalsAt(bytes, from + i, width)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reusable UTF-8 view of an advertised name.
+     */
+    private static final class Utf8Chars implements CharSequence {
+
+        private char[] mChars = new char[32];
+        private int mLength;
+
+        void decode(byte[] bytes, int from, int length) {
+            if (mChars.length < length) {
+                mChars = new char[length];
+            }
+            int n = 0;
+            int end = from + length;
+            int i = from;
+            while (i < end) {
+                int b = bytes[i] & 0xff;
+                int extra = b < 0x80 ? 0 : b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : b >= 0xc0 ? 1 : -1;
+                if (extra < 0 || i + extra >= end) {
+                    mChars[n++] = '\ufffd';
+                    i++;
+                    continue;
+                }
+                int codePoint = extra == 0 ? b : b & (0x3f >> extra);
+                for (int k = 1; k <= extra; k++) {
+                    codePoint = codePoint << 6 | (bytes[i + k] & 0x3f);
+                }
+                i += extra + 1;
+                if (codePoint >= 0x10000) {
+                    mChars[n++] = Character.highSurrogate(codePoint);
+                    mChars[n++] = Character.lowSurrogate(codePoint);
+                } else {
+                    mChars[n++] = (char) codePoint;
+                }
+            }
+            mLength = n;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mChars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mChars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+    }
+
+    private static boolean regionEquals(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean maskedEquals(byte[] bytes, int from, int length, byte[] data, byte[] mask) {
+        if (length < data.length) {
+            return false;
+        }
+        for (int i = 0; i < data.length; i++) {
+            int m = mask == null ? 0xff : mask[i];
+            if ((bytes[from + i] & m) != (data[i] & m)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
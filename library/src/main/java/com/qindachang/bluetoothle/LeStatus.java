@@ -0,0 +1,26 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Status codes reported by the library itself. They are negative so they never collide
+ * with the GATT status values passed through from the Bluetooth stack.
+ */
+public final class LeStatus {
+
+    /** The request got no GATT callback before its deadline. */
+    public static final int REQUEST_TIMEOUT = -1;
+
+    /** The stack refused to start the request, e.g. wrong characteristic property or no GATT. */
+    public static final int REQUEST_NOT_STARTED = -2;
+
+    /** The request was dropped because an earlier request failed under {@link TimeoutPolicy#FAIL_QUEUE}. */
+    public static final int REQUEST_ABORTED = -3;
+
+    /** The link dropped while the request was waiting for its GATT callback. */
+    public static final int DISCONNECTED = -4;
+
+    /** The device is not in the connection pool, so the request was not queued. */
+    public static final int NOT_CONNECTED = -5;
+
+    private LeStatus() {
+    }
+}
@@ -0,0 +1,128 @@
+package com.qindachang.bluetoothle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tagged listeners of one kind. Registration is synchronized and rebuilds an immutable array, so
+ * dispatch from any thread just iterates the current array without locking or allocating.
+ */
+class ListenerRegistry<L> {
+
+    private static final Entry<?>[] EMPTY = new Entry<?>[0];
+
+    private final Map<Object, List<Entry<L>>> mTagged = new LinkedHashMap<>();
+    private Entry<L> mDefault;
+
+    private volatile Entry<?>[] mEntries = EMPTY;
+
+    /**
+     * Adds the listener under the tag. A tag may hold several listeners, as many screens can share
+     * one tag; registering the same listener twice under a tag keeps a single entry.
+     *
+     * @param characteristicUUID only deliver events of this characteristic, or null for all
+     */
+    synchronized void put(Object tag, UUID characteristicUUID, L listener) {
+        if (listener == null) {
+            return;
+        }
+        List<Entry<L>> entries = mTagged.get(tag);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            mTagged.put(tag, entries);
+        }
+        for (Entry<L> entry : entries) {
+            if (entry.listener == listener && equals(entry.characteristicUUID, characteristicUUID)) {
+                return;
+            }
+        }
+        entries.add(new Entry<>(characteristicUUID, listener));
+        rebuild();
+    }
+
+    /**
+     * Adds the listener only if nothing is registered under the tag yet, so starting a scan again
+     * with the same tag does not deliver every result twice.
+     */
+    synchronized void putIfAbsent(Object tag, L listener) {
+        if (!mTagged.containsKey(tag)) {
+            put(tag, null, listener);
+        }
+    }
+
+    /**
+     * Sets the untagged listener, which is kept by {@link #clear()}.
+     */
+    synchronized void setDefault(L listener) {
+        mDefault = listener == null ? null : new Entry<>(null, listener);
+        rebuild();
+    }
+
+    /**
+     * Removes every listener registered under the tag.
+     */
+    synchronized void remove(Object tag) {
+        if (mTagged.remove(tag) != null) {
+            rebuild();
+        }
+    }
+
+    synchronized void clear() {
+        if (!mTagged.isEmpty()) {
+            mTagged.clear();
+            rebuild();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Entry<L>[] entries() {
+        // only ever filled with Entry<L> by rebuild()
+        return (Entry<L>[]) mEntries;
+    }
+
+    private void rebuild() {
+        int size = mDefault == null ? 0 : 1;
+        for (List<Entry<L>> entries : mTagged.values()) {
+            size += entries.size();
+        }
+        if (size == 0) {
+            mEntries = EMPTY;
+            return;
+        }
+        Entry<?>[] entries = new Entry<?>[size];
+        int i = 0;
+        for (List<Entry<L>> tagged : mTagged.values()) {
+            for (Entry<L> entry : tagged) {
+                entries[i++] = entry;
+            }
+        }
+        if (mDefault != null) {
+            entries[i] = mDefault;
+        }
+        mEntries = entries;
+    }
+
+    private static boolean equals(UUID a, UUID b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    static final class Entry<L> {
+        final UUID characteristicUUID;
+        final L listener;
+
+        private Entry(UUID characteristicUUID, L listener) {
+            this.characteristicUUID = characteristicUUID;
+            this.listener = listener;
+        }
+
+        /**
+         * @param uuid the characteristic the event belongs to, or null if unknown
+         */
+        boolean accepts(UUID uuid) {
+            return characteristicUUID == null || uuid == null || characteristicUUID.equals(uuid);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.qindachang.bluetoothle;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue (Vyukov). Slots are allocated once, so
+ * offer and poll never allocate.
+ */
+class MpmcRingBuffer<E> {
+
+    private static final class Slot {
+        final AtomicLong sequence;
+        Object element;
+
+        Slot(long sequence) {
+            this.sequence = new AtomicLong(sequence);
+        }
+    }
+
+    private final Slot[] mSlots;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+
+    MpmcRingBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mSlots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new Slot(i);
+        }
+        mMask = size - 1;
+    }
+
+    boolean offer(E element) {
+        long position = mTail.get();
+        while (true) {
+            Slot slot = mSlots[(int) (position & mMask)];
+            long difference = slot.sequence.get() - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    slot.element = element;
+                    slot.sequence.set(position + 1);
+                    return true;
+                }
+                position = mTail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = mTail.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = mHead.get();
+        while (true) {
+            Slot slot = mSlots[(int) (position & mMask)];
+            long difference = slot.sequence.get() - (position + 1);
+            if (difference == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    Object element = slot.element;
+                    slot.element = null;
+                    slot.sequence.set(position + mMask + 1);
+                    return (E) element;
+                }
+                position = mHead.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = mHead.get();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+}
@@ -0,0 +1,162 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers onCharacteristicChanged off the main Looper. Binder threads publish pooled snapshots
+ * into a bounded lock-free ring and a single drain task on the executor hands them to the
+ * listeners.
+ * <p>
+ * With COALESCE, a notification that finds the ring full waits in a per-characteristic slot that
+ * is drained after the ring. Later notifications of that characteristic replace the slot instead
+ * of entering the ring, so each characteristic is still delivered in the order it was received.
+ * <p>
+ * With BLOCK, the binder thread waits for the listeners, but it also carries every other GATT
+ * callback, so it waits at most {@link LeNotificationPublisher#BLOCK_TIMEOUT_MILLIS}. After that
+ * the listeners count as stalled and the oldest notifications are dropped without waiting, until
+ * the drain task delivers one again.
+ */
+class NotificationDispatcher {
+
+    private static final String TAG = NotificationDispatcher.class.getSimpleName();
+
+    private static final long BLOCK_PARK_NANOS = 50000;
+
+    private final MpmcRingBuffer<NotificationSnapshot> mRing;
+    private final BackpressurePolicy mPolicy;
+    private final Executor mExecutor;
+    private final ExecutorService mOwnedExecutor;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final AtomicLong mDropped = new AtomicLong();
+    // a BLOCK wait timed out and nothing was delivered since
+    private volatile boolean mStalled;
+    private final Map<BluetoothGattCharacteristic, NotificationSnapshot> mCoalesced = new ConcurrentHashMap<>();
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    NotificationDispatcher(Executor executor, int capacity, BackpressurePolicy policy) {
+        mRing = new MpmcRingBuffer<>(capacity);
+        mPolicy = policy;
+        if (executor == null) {
+            mOwnedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BluetoothLe-notification");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            mExecutor = mOwnedExecutor;
+        } else {
+            mOwnedExecutor = null;
+            mExecutor = executor;
+        }
+    }
+
+    void publish(NotificationSnapshot snapshot) {
+        if (mPolicy == BackpressurePolicy.COALESCE && mCoalesced.containsKey(snapshot.characteristic)) {
+            // an older value of this characteristic is waiting behind the ring, so this one may not
+            // overtake it through the ring
+            coalesce(snapshot);
+            schedule();
+            return;
+        }
+        long deadline = 0;
+        while (!mRing.offer(snapshot)) {
+            if (mPolicy == BackpressurePolicy.BLOCK && !mStalled) {
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + LeNotificationPublisher.BLOCK_TIMEOUT_MILLIS * 1000000L;
+                }
+                if (now - deadline < 0) {
+                    schedule();
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    continue;
+                }
+                mStalled = true;
+                Log.w(TAG, "listeners did not catch up within " + LeNotificationPublisher.BLOCK_TIMEOUT_MILLIS
+                        + " ms, dropping notifications until they do");
+            }
+            if (mPolicy == BackpressurePolicy.COALESCE) {
+                coalesce(snapshot);
+                break;
+            }
+            NotificationSnapshot oldest = mRing.poll();
+            if (oldest != null) {
+                mDropped.incrementAndGet();
+                oldest.recycle();
+            }
+        }
+        schedule();
+    }
+
+    private void coalesce(NotificationSnapshot snapshot) {
+        NotificationSnapshot replaced = mCoalesced.put(snapshot.characteristic, snapshot);
+        if (replaced != null) {
+            mDropped.incrementAndGet();
+            replaced.recycle();
+        }
+    }
+
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    void shutdown() {
+        if (mOwnedExecutor != null) {
+            mOwnedExecutor.shutdown();
+        }
+    }
+
+    private void schedule() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        do {
+            NotificationSnapshot snapshot;
+            while ((snapshot = mRing.poll()) != null) {
+                if (mStalled) {
+                    mStalled = false;
+                }
+                deliver(snapshot);
+            }
+            if (!mCoalesced.isEmpty()) {
+                for (BluetoothGattCharacteristic characteristic : mCoalesced.keySet()) {
+                    // remove(key) takes whatever value is current, even if a binder thread just replaced it
+                    snapshot = mCoalesced.remove(characteristic);
+                    if (snapshot != null) {
+                        deliver(snapshot);
+                    }
+                }
+            }
+            mScheduled.set(false);
+        } while (!(mRing.isEmpty() && mCoalesced.isEmpty()) && mScheduled.compareAndSet(false, true));
+    }
+
+    private void deliver(NotificationSnapshot snapshot) {
+        try {
+            snapshot.run();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "notification listener threw", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A notification value copied on the Bluetooth binder thread, before the stack can overwrite the
+ * characteristic with the next packet.
+ * <p>
+ * Snapshots are recycled once the listener returns: read what you need inside the callback and
+ * use {@link #getValue()} to keep a copy of the bytes.
+ */
+public final class NotificationSnapshot implements Runnable {
+
+    private String deviceAddress;
+    private UUID characteristicUuid;
+    private byte[] data = new byte[20];
+    private int length;
+    private long timestampNanos;
+
+    BleConnection connection;
+    BluetoothGattCharacteristic characteristic;
+    private SnapshotPool pool;
+
+    NotificationSnapshot() {
+    }
+
+    void fill(BleConnection connection, BluetoothGattCharacteristic characteristic, long timestampNanos) {
+        this.connection = connection;
+        this.characteristic = characteristic;
+        this.deviceAddress = connection.getAddress();
+        this.characteristicUuid = characteristic.getUuid();
+        this.timestampNanos = timestampNanos;
+        byte[] value = characteristic.getValue();
+        length = value == null ? 0 : value.length;
+        if (length > data.length) {
+            data = new byte[length];
+        }
+        if (length > 0) {
+            System.arraycopy(value, 0, data, 0, length);
+        }
+    }
+
+    void setPool(SnapshotPool pool) {
+        this.pool = pool;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public UUID getCharacteristicUuid() {
+        return characteristicUuid;
+    }
+
+    /**
+     * elapsedRealtimeNanos() at the moment the notification reached the binder thread.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public byte getByte(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return data[index];
+    }
+
+    /**
+     * Copies the value into {@code dst} without allocating.
+     *
+     * @return the number of bytes copied
+     */
+    public int copyValue(byte[] dst, int offset) {
+        int count = Math.min(length, dst.length - offset);
+        System.arraycopy(data, 0, dst, offset, count);
+        return count;
+    }
+
+    public byte[] getValue() {
+        return Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Delivers this snapshot to the listeners and returns it to its pool. Running the snapshot
+     * itself lets the main-thread path post it without an extra Runnable per notification.
+     */
+    @Override
+    public void run() {
+        try {
+            connection.deliverNotification(this);
+        } finally {
+            recycle();
+        }
+    }
+
+    void recycle() {
+        connection = null;
+        characteristic = null;
+        deviceAddress = null;
+        characteristicUuid = null;
+        length = 0;
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationSnapshot{" + deviceAddress + ", " + characteristicUuid + ", "
+                + Arrays.toString(Arrays.copyOf(data, length)) + ", " + timestampNanos + "}";
+    }
+}
@@ -0,0 +1,7 @@
+package com.qindachang.bluetoothle;
+
+
+public interface OnLeNotificationSnapshotListener extends LeListener {
+    void onNotification(NotificationSnapshot snapshot);
+
+}
@@ -0,0 +1,10 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Batched scan results as primitive arrays, delivered when {@link BluetoothLe#setReportDelay(int)}
+ * is greater than 0. The batch is reused after the call returns.
+ */
+public interface OnLeScanBatchListener {
+
+    void onScanBatch(ScanBatch batch);
+}
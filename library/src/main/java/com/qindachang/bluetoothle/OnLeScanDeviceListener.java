@@ -0,0 +1,24 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Scan results folded into one entry per device, see {@link BluetoothLe#setScanAggregation(int, int, int)}.
+ */
+public interface OnLeScanDeviceListener {
+
+    void onDeviceFound(ScannedDevice device);
+
+    /**
+     * The smoothed RSSI moved by the threshold or the advertisement changed, at most once per
+     * report interval and device.
+     */
+    void onDeviceUpdated(ScannedDevice device);
+
+    /**
+     * Nothing was heard from the device for the expire time.
+     */
+    void onDeviceLost(ScannedDevice device);
+
+    void onScanCompleted();
+
+    void onScanFailed(int code);
+}
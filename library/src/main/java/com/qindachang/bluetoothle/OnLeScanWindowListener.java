@@ -0,0 +1,9 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Metrics of a continuous scan, one call per scan window, see {@link BluetoothLe#setScanContinuous(boolean)}.
+ */
+public interface OnLeScanWindowListener {
+
+    void onScanWindow(ScanWindowStats stats);
+}
@@ -0,0 +1,8 @@
+package com.qindachang.bluetoothle;
+
+
+public interface OnLeWriteTransferListener {
+    void onSuccess(int length);
+
+    void onFailed(String msg, int status);
+}
@@ -0,0 +1,149 @@
+package com.qindachang.bluetoothle;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Paces the reconnect attempts of one connection. Failed attempts back off exponentially with
+ * jitter up to a cap, so phones that lost the same peripheral do not retry in lockstep. After
+ * the retry count is used up the breaker opens and the device is handed to a background
+ * autoConnect request, which the stack scans for at a low duty cycle.
+ * <p>
+ * Every attempt gets an id; timeouts and disconnects of an older attempt are ignored, and only
+ * one attempt can be pending, so the connect and discovery timeouts cannot both reconnect.
+ */
+class ReconnectScheduler {
+
+    private static final String TAG = ReconnectScheduler.class.getSimpleName();
+
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private final BleConnection mConnection;
+    private final BleManager mBleManager;
+    private final Handler mHandler;
+
+    private int mAttemptId;
+    private int mConsecutiveFailures;
+    private boolean mBackground;
+    private Runnable mPending;
+    private long mOutageStart;
+
+    private int mAttempts;
+    private int mFailures;
+    private int mSuccesses;
+    private long mLastTimeToConnect;
+    private long mTotalTimeToConnect;
+
+    ReconnectScheduler(BleConnection connection, BleManager bleManager, Handler handler) {
+        mConnection = connection;
+        mBleManager = bleManager;
+        mHandler = handler;
+    }
+
+    /**
+     * @return the id of the attempt that is starting
+     */
+    synchronized int onAttemptStarted() {
+        mAttempts++;
+        if (mOutageStart == 0) {
+            mOutageStart = SystemClock.elapsedRealtime();
+        }
+        return ++mAttemptId;
+    }
+
+    synchronized int getAttemptId() {
+        return mAttemptId;
+    }
+
+    synchronized boolean isCurrent(int attemptId) {
+        return attemptId == mAttemptId && mPending == null;
+    }
+
+    synchronized boolean isBackground() {
+        return mBackground;
+    }
+
+    synchronized void onReady() {
+        if (mOutageStart != 0) {
+            mLastTimeToConnect = SystemClock.elapsedRealtime() - mOutageStart;
+            mTotalTimeToConnect += mLastTimeToConnect;
+            mSuccesses++;
+            mOutageStart = 0;
+        }
+        mConsecutiveFailures = 0;
+        mBackground = false;
+    }
+
+    synchronized void onAttemptFailed(int attemptId, String reason) {
+        if (!isCurrent(attemptId)) {
+            return;
+        }
+        mFailures++;
+        if (mOutageStart == 0) {
+            mOutageStart = SystemClock.elapsedRealtime();
+        }
+        if (!mBleManager.isRetryConnectEnable()) {
+            return;
+        }
+        final boolean autoConnect;
+        long delayMillis;
+        if (mBackground || mConsecutiveFailures >= mBleManager.getRetryConnectCount()) {
+            if (!mBackground) {
+                Log.w(TAG, getLogPrefix() + "giving up after " + mConsecutiveFailures + " retries, waiting in background.");
+                mBackground = true;
+                delayMillis = 0;
+            } else {
+                delayMillis = backoff(MAX_BACKOFF_SHIFT);
+            }
+            autoConnect = true;
+        } else {
+            delayMillis = backoff(mConsecutiveFailures++);
+            autoConnect = mConnection.isAutoConnect();
+        }
+        Log.d(TAG, getLogPrefix() + reason + ", reconnect in " + delayMillis + " ms.");
+        mPending = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ReconnectScheduler.this) {
+                    if (mPending != this) {
+                        return;
+                    }
+                    mPending = null;
+                }
+                mConnection.reconnect(autoConnect);
+            }
+        };
+        mHandler.postDelayed(mPending, delayMillis);
+    }
+
+    /**
+     * Forgets the current outage; called when the user connects or disconnects explicitly.
+     */
+    synchronized void reset() {
+        if (mPending != null) {
+            mHandler.removeCallbacks(mPending);
+            mPending = null;
+        }
+        mAttemptId++;
+        mConsecutiveFailures = 0;
+        mBackground = false;
+        mOutageStart = 0;
+    }
+
+    synchronized ReconnectStats getStats() {
+        return new ReconnectStats(mAttempts, mFailures, mSuccesses, mLastTimeToConnect, mTotalTimeToConnect, mBackground);
+    }
+
+    // "equal jitter": half of the exponential delay is fixed, the other half random
+    private long backoff(int failures) {
+        long ceiling = Math.min(mBleManager.getReconnectMaxDelayMillis(),
+                (long) mBleManager.getReconnectBaseDelayMillis() << Math.min(failures, MAX_BACKOFF_SHIFT));
+        long half = ceiling / 2;
+        return half + (long) (mBleManager.getReconnectRandom().nextDouble() * half);
+    }
+
+    private String getLogPrefix() {
+        return mConnection.getAddress() + ": ";
+    }
+}
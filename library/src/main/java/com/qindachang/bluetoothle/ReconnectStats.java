@@ -0,0 +1,60 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Counters of one device's connection attempts, see {@link BluetoothLe#getReconnectStats()}.
+ */
+public final class ReconnectStats {
+
+    private final int attempts;
+    private final int failures;
+    private final int successes;
+    private final long lastTimeToConnectMillis;
+    private final long totalTimeToConnectMillis;
+    private final boolean backgroundMode;
+
+    ReconnectStats(int attempts, int failures, int successes, long lastTimeToConnectMillis,
+                   long totalTimeToConnectMillis, boolean backgroundMode) {
+        this.attempts = attempts;
+        this.failures = failures;
+        this.successes = successes;
+        this.lastTimeToConnectMillis = lastTimeToConnectMillis;
+        this.totalTimeToConnectMillis = totalTimeToConnectMillis;
+        this.backgroundMode = backgroundMode;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public int getSuccesses() {
+        return successes;
+    }
+
+    /**
+     * Time from the first attempt to services discovered, for the latest successful connection.
+     */
+    public long getLastTimeToConnectMillis() {
+        return lastTimeToConnectMillis;
+    }
+
+    public long getAverageTimeToConnectMillis() {
+        return successes == 0 ? 0 : totalTimeToConnectMillis / successes;
+    }
+
+    /**
+     * True once the retries ran out and the device is left to a background autoConnect request.
+     */
+    public boolean isBackgroundMode() {
+        return backgroundMode;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectStats{attempts=" + attempts + ", failures=" + failures + ", successes=" + successes
+                + ", lastTimeToConnectMillis=" + lastTimeToConnectMillis + ", backgroundMode=" + backgroundMode + "}";
+    }
+}
@@ -0,0 +1,82 @@
+package com.qindachang.bluetoothle;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes that the peripheral applies together or not at all. The batch takes one place in the
+ * request queue: every value is sent as a prepared write, and the batch is executed once all were
+ * accepted, otherwise it is aborted and nothing is applied.
+ * <p>
+ * Android reports a prepared write without the value the peripheral echoed, so an echo that
+ * differs from what was sent cannot be detected here; only a rejected prepared write aborts.
+ * <p>
+ * Collect the writes, then call {@link #execute()} once.
+ */
+public final class ReliableWrite {
+
+    private final BleManager mBleManager;
+    private final BleConnection mConnection;
+    private final List<Request> mWrites = new ArrayList<>();
+    private boolean mExecuted;
+
+    ReliableWrite(BleManager bleManager, BleConnection connection) {
+        mBleManager = bleManager;
+        mConnection = connection;
+    }
+
+    public ReliableWrite write(String serviceUUID, String characteristicUUID, byte[] bytes) {
+        return write(UUID.fromString(serviceUUID), UUID.fromString(characteristicUUID), bytes);
+    }
+
+    public ReliableWrite write(UUID serviceUUID, UUID characteristicUUID, byte[] bytes) {
+        if (serviceUUID == null || characteristicUUID == null) {
+            throw new IllegalArgumentException("serviceUUID and characteristicUUID must not be null");
+        }
+        add(Request.newWriteRequest(null, bytes).target(serviceUUID, characteristicUUID));
+        return this;
+    }
+
+    public ReliableWrite write(@NonNull CharacteristicHandle handle, byte[] bytes) {
+        if (mConnection != null && !mConnection.getAddress().equals(handle.getDeviceAddress())) {
+            throw new IllegalArgumentException(handle + " belongs to another device");
+        }
+        add(Request.newWriteRequest(handle.resolve(), bytes)
+                .target(handle.getServiceUuid(), handle.getCharacteristicUuid()));
+        return this;
+    }
+
+    public synchronized int size() {
+        return mWrites.size();
+    }
+
+    /**
+     * Queues the batch. The future completes once the peripheral has applied every write, or
+     * fails with the status of the step that aborted it.
+     */
+    public LeFuture execute() {
+        return execute(RequestPriority.NORMAL);
+    }
+
+    public LeFuture execute(RequestPriority priority) {
+        Request[] writes;
+        synchronized (this) {
+            if (mExecuted) {
+                throw new IllegalStateException("reliable write already executed");
+            }
+            mExecuted = true;
+            writes = mWrites.toArray(new Request[mWrites.size()]);
+        }
+        return mBleManager.reliableWriteQueue(priority, mConnection, writes);
+    }
+
+    private synchronized void add(Request write) {
+        if (mExecuted) {
+            throw new IllegalStateException("reliable write already executed");
+        }
+        mWrites.add(write);
+    }
+}
@@ -2,54 +2,222 @@ package com.qindachang.bluetoothle;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import java.util.UUID;
+
 class Request {
 
 
     enum Type {
         WRITE,
+        WRITE_NO_RESPONSE,
         READ,
         ENABLE_NOTIFICATIONS,
-        ENABLE_INDICATIONS
+        ENABLE_INDICATIONS,
+        REQUEST_MTU,
+        RELIABLE_WRITE
     }
 
     public final Type type;
-    private final BluetoothGattCharacteristic characteristic;
+    private BluetoothGattCharacteristic characteristic;
+    private UUID serviceUUID;
+    private UUID characteristicUUID;
+    private byte[] value;
     private boolean enable;
+    private int mtu;
+    // prepared writes of a reliable write and the one waiting for its callback
+    private Request[] parts;
+    int partIndex;
+    WriteTransfer transfer;
+    // shared by the chunks of a transfer
+    LeFuture future = new LeFuture();
+    RequestPriority priority = RequestPriority.NORMAL;
+    // latest value wins while the write waits in the queue
+    boolean coalescing;
+    // System.nanoTime() when queued, 0 once the queueing delay is recorded
+    long queuedNanos;
+    int retried;
+    boolean started;
+    // RequestQueue's id of the latest send, so a timeout or callback of an earlier attempt is told apart
+    int dispatchId;
+    // outcome once the request left the queue
+    int status;
+    String message;
 
     private Request(final Type type, final BluetoothGattCharacteristic characteristic) {
         this.type = type;
         this.characteristic = characteristic;
+        this.value = null;
+    }
+
+    private Request(final Type type, final BluetoothGattCharacteristic characteristic, final byte[] value) {
+        this.type = type;
+        this.characteristic = characteristic;
+        this.value = value;
     }
 
     private Request(final Type type, final BluetoothGattCharacteristic characteristic, boolean enable) {
         this.type = type;
         this.characteristic = characteristic;
+        this.value = null;
         this.enable = enable;
     }
 
+    public static Request newWriteNoResponseRequest(final BluetoothGattCharacteristic characteristic, final byte[] value) {
+        return new Request(Type.WRITE_NO_RESPONSE, characteristic, value != null ? value.clone() : new byte[0]);
+    }
+
     public static Request newReadRequest(final BluetoothGattCharacteristic characteristic) {
         return new Request(Type.READ, characteristic);
     }
 
-    public static Request newWriteRequest(final BluetoothGattCharacteristic characteristic) {
-        return new Request(Type.WRITE, characteristic);
+    /**
+     * The payload is copied here, so later writes to the same characteristic cannot overwrite it
+     * before this request is sent.
+     */
+    public static Request newWriteRequest(final BluetoothGattCharacteristic characteristic, final byte[] value) {
+        return new Request(Type.WRITE, characteristic, value != null ? value.clone() : new byte[0]);
+    }
+
+    /**
+     * One queue entry for a whole transfer; the chunks are cut as they are sent.
+     */
+    public static Request newWriteTransferRequest(final BluetoothGattCharacteristic characteristic, final WriteTransfer transfer) {
+        Request request = new Request(Type.WRITE, characteristic);
+        request.transfer = transfer;
+        request.future = transfer.future;
+        return request;
+    }
+
+    public static Request newMtuRequest(final int mtu) {
+        Request request = new Request(Type.REQUEST_MTU, null);
+        request.mtu = mtu;
+        return request;
     }
 
     public static Request newEnableNotificationsRequest(final boolean enable, final BluetoothGattCharacteristic characteristic) {
         return new Request(Type.ENABLE_NOTIFICATIONS, characteristic, enable);
     }
 
-    public static Request newEnableIndicationsRequest(final BluetoothGattCharacteristic characteristic) {
-        return new Request(Type.ENABLE_INDICATIONS, characteristic);
+    public static Request newEnableIndicationsRequest(final boolean enable, final BluetoothGattCharacteristic characteristic) {
+        return new Request(Type.ENABLE_INDICATIONS, characteristic, enable);
     }
 
+    /**
+     * One queue entry for a batch of writes that the peripheral applies together or not at all.
+     */
+    public static Request newReliableWriteRequest(final Request[] writes) {
+        Request request = new Request(Type.RELIABLE_WRITE, null);
+        request.parts = writes;
+        return request;
+    }
+
+
+    /**
+     * Remembers where the characteristic lives, so the request can be resolved again when it was
+     * queued before discovery or the characteristic objects were replaced by a reconnect.
+     */
+    Request target(UUID serviceUUID, UUID characteristicUUID) {
+        this.serviceUUID = serviceUUID;
+        this.characteristicUUID = characteristicUUID;
+        return this;
+    }
+
+    Request priority(RequestPriority priority) {
+        this.priority = priority == null ? RequestPriority.NORMAL : priority;
+        return this;
+    }
+
+    Request coalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    /**
+     * Takes over the payload of a newer write to the same characteristic, if this one is a
+     * coalescing write that has not been sent yet.
+     */
+    boolean coalesce(Request newer) {
+        if (!coalescing || started || transfer != null || type != newer.type || characteristicUUID == null
+                || !characteristicUUID.equals(newer.characteristicUUID) || !serviceUUID.equals(newer.serviceUUID)) {
+            return false;
+        }
+        value = newer.value;
+        future.propagateTo(newer.future);
+        return true;
+    }
+
+    /**
+     * @return false if the request needs a characteristic that is not discovered
+     */
+    boolean resolve(BleConnection connection) {
+        if (parts != null) {
+            for (Request part : parts) {
+                if (!part.resolve(connection)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (characteristic == null && characteristicUUID != null) {
+            characteristic = connection.getCharacteristic(serviceUUID, characteristicUUID);
+        }
+        return characteristic != null || type == Type.REQUEST_MTU;
+    }
+
+    void unresolve() {
+        if (parts != null) {
+            for (Request part : parts) {
+                part.unresolve();
+            }
+        }
+        if (characteristicUUID != null) {
+            characteristic = null;
+        }
+    }
+
+    /**
+     * Whether a GATT callback answers this request once it was sent. Android's callbacks carry no
+     * request id, so they are told apart by kind: onCharacteristicRead answers READ,
+     * onCharacteristicWrite answers WRITE, onDescriptorWrite answers both CCCD toggles (passed as
+     * ENABLE_NOTIFICATIONS) and onMtuChanged answers REQUEST_MTU, which has no characteristic.
+     */
+    boolean isAnsweredBy(Type callback, BluetoothGattCharacteristic characteristic) {
+        Type answered = type == Type.ENABLE_INDICATIONS ? Type.ENABLE_NOTIFICATIONS : type;
+        return answered == callback && this.characteristic == characteristic;
+    }
+
+    /**
+     * Whether the first callback after the request is sent could be the given one; a reliable
+     * write is first answered by the prepared write of its first part.
+     */
+    boolean isFirstAnsweredBy(Type callback, BluetoothGattCharacteristic characteristic) {
+        if (parts != null) {
+            return parts.length > 0 ? parts[0].isAnsweredBy(callback, characteristic) : callback == Type.RELIABLE_WRITE;
+        }
+        return isAnsweredBy(callback, characteristic);
+    }
 
     public BluetoothGattCharacteristic getCharacteristic() {
         return characteristic;
     }
 
 
+    public byte[] getValue() {
+        return value;
+    }
+
     public boolean isEnable() {
         return enable;
     }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return the prepared write waiting for its callback, or null once all were accepted
+     */
+    Request getPart() {
+        return partIndex < parts.length ? parts[partIndex] : null;
+    }
 }
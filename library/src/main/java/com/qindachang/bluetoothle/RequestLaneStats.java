@@ -0,0 +1,54 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Queueing delay of one request lane of a connection, from queueing a request until it is sent,
+ * see {@link BluetoothLe#getRequestLaneStats(RequestPriority)}.
+ */
+public final class RequestLaneStats {
+
+    private final RequestPriority priority;
+    private final int pending;
+    private final long dispatched;
+    private final long totalDelayNanos;
+    private final long maxDelayNanos;
+
+    RequestLaneStats(RequestPriority priority, int pending, long dispatched, long totalDelayNanos, long maxDelayNanos) {
+        this.priority = priority;
+        this.pending = pending;
+        this.dispatched = dispatched;
+        this.totalDelayNanos = totalDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Requests in the lane now, including a sent one that waits for its callback.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Requests sent from the lane since the connection was created.
+     */
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    public long getAverageDelayNanos() {
+        return dispatched == 0 ? 0 : totalDelayNanos / dispatched;
+    }
+
+    public long getMaxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestLaneStats{priority=" + priority + ", pending=" + pending + ", dispatched=" + dispatched
+                + ", averageDelayMillis=" + getAverageDelayNanos() / 1000000 + ", maxDelayMillis=" + maxDelayNanos / 1000000 + "}";
+    }
+}
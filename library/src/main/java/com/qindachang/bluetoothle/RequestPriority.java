@@ -0,0 +1,17 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Lane of a queued read, write or notification request, see
+ * {@link BluetoothLe#setRequestPriority(RequestPriority)}. Requests of one lane keep their order.
+ */
+public enum RequestPriority {
+
+    /** Control commands; always sent before the other lanes. */
+    URGENT,
+
+    /** The default. */
+    NORMAL,
+
+    /** Large transfers that may wait for everything else. */
+    BULK
+}
@@ -0,0 +1,725 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+
+class RequestQueue {
+
+    private static final String TAG = RequestQueue.class.getSimpleName();
+
+    private static final int MAX_BACKOFF_ATTEMPTS = 8;
+    // first wait before a request is sent again under TimeoutPolicy.RETRY, doubled per retry
+    private static final long RETRY_BACKOFF_MILLIS = 50;
+    private static final int MAX_RETRY_BACKOFF_SHIFT = 5;
+
+    private final BleConnection mConnection;
+    private final TimerWheel mTimerWheel;
+    // one FIFO per RequestPriority, in priority order
+    private final Lane[] mLanes;
+    // lane of the head request; kept until the head leaves the queue once it was started
+    private Lane mActive;
+    private TimerWheel.Timeout mTimeout;
+    // while set, the head waits out its retry backoff
+    private TimerWheel.Timeout mRetryTimeout;
+    private int mDispatchCount;
+    // timed-out sends whose callbacks may still arrive, each forgotten one request timeout later
+    private final List<StaleDispatch> mStale = new ArrayList<>();
+    // requests are held until the connection is READY
+    private boolean mReady;
+    // requests that left the queue, reported after the lock is released so that their
+    // listeners may queue new requests
+    private final List<Request> mFinished = new ArrayList<>();
+    private final List<Request> mCleared = new ArrayList<>();
+
+    // write-without-response pipelining: packets handed to the stack but not yet called back
+    private int mInFlight;
+    private int mWindow = 1;
+    private int mBackoffAttempts;
+    private long mStreamBytes;
+    private long mStreamBusyNanos;
+    private long mStreamBusySince;
+
+    RequestQueue(BleConnection connection, TimerWheel timerWheel) {
+        mConnection = connection;
+        mTimerWheel = timerWheel;
+        mLanes = new Lane[RequestPriority.values().length];
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane();
+        }
+    }
+
+    void addRequest(Request request) {
+        enqueue(request);
+        deliverFinished();
+    }
+
+    private synchronized void enqueue(Request request) {
+        Lane lane = mLanes[request.priority.ordinal()];
+        if (request.coalescing) {
+            for (Request pending : lane.requests) {
+                if (pending.coalesce(request)) {
+                    return;
+                }
+            }
+        }
+        boolean idle = isEmpty();
+        request.queuedNanos = System.nanoTime();
+        lane.requests.add(request);
+        if (idle) {
+            startExecutor();
+            return;
+        }
+        Request head = mActive == null ? null : mActive.requests.peek();
+        if (head == null || !head.started) {
+            // the head is still waiting, let a more urgent lane overtake it
+            mActive = null;
+        }
+    }
+
+    /**
+     * Starts executing once the connection is READY, running the setup requests (MTU, CCCD
+     * writes) ahead of everything that was queued while the connection came up.
+     */
+    void resume(List<Request> setupRequests) {
+        synchronized (this) {
+            Lane urgent = mLanes[RequestPriority.URGENT.ordinal()];
+            for (int i = setupRequests.size() - 1; i >= 0; i--) {
+                Request request = setupRequests.get(i).priority(RequestPriority.URGENT);
+                request.queuedNanos = System.nanoTime();
+                urgent.requests.addFirst(request);
+            }
+            mActive = null;
+            mReady = true;
+            startExecutor();
+        }
+        deliverFinished();
+    }
+
+    /**
+     * Holds the queue when the link drops. The request waiting for its callback fails, the rest
+     * are kept and resolved again against the next discovery.
+     */
+    void pause() {
+        synchronized (this) {
+            mReady = false;
+            cancelTimeout();
+            cancelRetry();
+            clearStale();
+            if (mInFlight > 0) {
+                streamAcknowledged(mInFlight);
+            }
+            mWindow = 1;
+            mBackoffAttempts = 0;
+            Request head = peek();
+            if (head != null && head.started) {
+                poll();
+                finish(head, "Device disconnected", LeStatus.DISCONNECTED);
+            }
+            for (Lane lane : mLanes) {
+                for (Request request : lane.requests) {
+                    request.unresolve();
+                }
+            }
+        }
+        deliverFinished();
+    }
+
+    private void startExecutor() {
+        Request request;
+        while (mReady && mRetryTimeout == null && (request = peek()) != null) { //此方法检索，但是不移除此列表的头（第一个元素）。
+            if (!request.resolve(mConnection)) {
+                Log.w(TAG, "characteristic not found: " + request.type);
+                handleFailure(request, "Characteristic not found", LeStatus.REQUEST_NOT_STARTED);
+                continue;
+            }
+            if (request.type == Request.Type.WRITE_NO_RESPONSE) {
+                if (!startStreamWrite(request)) {
+                    return;
+                }
+                continue;
+            }
+            if (mInFlight > 0) {
+                // wait until the pipelined writes ahead of this request are called back
+                return;
+            }
+            if (awaitsStale(request)) {
+                // its answer could be taken for the late one, wait for that or for the marker to expire
+                return;
+            }
+            if (execute(request)) {
+                request.started = true;
+                request.dispatchId = ++mDispatchCount;
+                recordDispatch(request);
+                scheduleTimeout(request);
+                return;
+            }
+            Log.w(TAG, "request could not be started: " + request.type);
+            handleFailure(request, "Request could not be started", LeStatus.REQUEST_NOT_STARTED);
+        }
+    }
+
+    /**
+     * Sends the head write-without-response request if the flow-control window allows it.
+     *
+     * @return true if the request left the queue and the next one may be looked at
+     */
+    private boolean startStreamWrite(Request request) {
+        if (mInFlight >= mWindow) {
+            return false;
+        }
+        if (mConnection.writeCharacteristicNoResponse(request.getCharacteristic(), request.getValue())) {
+            poll();
+            recordDispatch(request);
+            // a write without response is done once the stack took it
+            finish(request, null, BluetoothGatt.GATT_SUCCESS);
+            if (mInFlight++ == 0) {
+                mStreamBusySince = System.nanoTime();
+            }
+            mStreamBytes += request.getValue().length;
+            mBackoffAttempts = 0;
+            scheduleStreamTimeout();
+            return true;
+        }
+        if (mInFlight > 0) {
+            // stack buffers are full: shrink the window and resume on the next callback
+            mWindow = Math.max(1, mWindow / 2);
+            return false;
+        }
+        if (mBackoffAttempts < MAX_BACKOFF_ATTEMPTS) {
+            long delayMillis = 10L << mBackoffAttempts++;
+            cancelTimeout();
+            mTimeout = mTimerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onBackoffElapsed();
+                }
+            }, delayMillis);
+            return false;
+        }
+        mBackoffAttempts = 0;
+        Log.w(TAG, "request could not be started: " + request.type);
+        handleFailure(request, "Request could not be started", LeStatus.REQUEST_NOT_STARTED);
+        return true;
+    }
+
+    private boolean execute(Request request) {
+        switch (request.type) {
+            case WRITE:
+                if (request.transfer != null) {
+                    // cut at the MTU negotiated by now, which may have grown since the transfer was queued
+                    return mConnection.writeCharacteristic(request.getCharacteristic(),
+                            request.transfer.nextChunk(mConnection.getMaxWriteLength()));
+                }
+                return mConnection.writeCharacteristic(request.getCharacteristic(), request.getValue());
+            case READ:
+                return mConnection.readCharacteristic(request.getCharacteristic());
+            case ENABLE_NOTIFICATIONS:
+                return mConnection.enableNotification(request.isEnable(), request.getCharacteristic());
+            case ENABLE_INDICATIONS:
+                return mConnection.enableIndication(request.isEnable(), request.getCharacteristic());
+            case REQUEST_MTU:
+                return mConnection.requestMtu(request.getMtu());
+            case RELIABLE_WRITE:
+                request.partIndex = 0;
+                return mConnection.beginReliableWrite(request.getPart());
+            default:
+                return false;
+        }
+    }
+
+    private void onBackoffElapsed() {
+        synchronized (this) {
+            mTimeout = null;
+            startExecutor();
+        }
+        deliverFinished();
+    }
+
+    private void scheduleStreamTimeout() {
+        int timeoutMillis = mConnection.getRequestTimeoutMillis();
+        cancelTimeout();
+        if (timeoutMillis <= 0) {
+            return;
+        }
+        mTimeout = mTimerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onStreamTimeout();
+            }
+        }, timeoutMillis);
+    }
+
+    private void onStreamTimeout() {
+        synchronized (this) {
+            if (mInFlight > 0) {
+                mTimeout = null;
+                Log.w(TAG, "lost " + mInFlight + " write without response callbacks.");
+                streamAcknowledged(mInFlight);
+                startExecutor();
+            }
+        }
+        deliverFinished();
+    }
+
+    private void streamAcknowledged(int packets) {
+        mInFlight -= packets;
+        if (mInFlight == 0) {
+            mStreamBusyNanos += System.nanoTime() - mStreamBusySince;
+            cancelTimeout();
+        }
+    }
+
+    private void scheduleTimeout(final Request request) {
+        int timeoutMillis = mConnection.getRequestTimeoutMillis();
+        if (timeoutMillis <= 0) {
+            return;
+        }
+        final int dispatchId = request.dispatchId;
+        mTimeout = mTimerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(request, dispatchId);
+            }
+        }, timeoutMillis);
+    }
+
+    private void cancelTimeout() {
+        if (mTimeout != null) {
+            mTimeout.cancel();
+            mTimeout = null;
+        }
+    }
+
+    /**
+     * @param dispatchId the send the timeout was armed for; a timeout that fires while a retry of
+     *                   the request is already out belongs to an earlier attempt and is ignored
+     */
+    private void onTimeout(Request request, int dispatchId) {
+        synchronized (this) {
+            if (peek() == request && request.started && request.dispatchId == dispatchId) {
+                mTimeout = null;
+                Log.w(TAG, "request timeout: " + request.type + ", dispatch " + dispatchId);
+                addStale(new StaleDispatch(request));
+                if (request.type == Request.Type.RELIABLE_WRITE) {
+                    mConnection.abortReliableWrite();
+                }
+                handleFailure(request, "Request timeout", LeStatus.REQUEST_TIMEOUT);
+                startExecutor();
+            }
+        }
+        deliverFinished();
+    }
+
+    private void handleFailure(Request request, String msg, int status) {
+        TimeoutPolicy policy = mConnection.getRequestTimeoutPolicy();
+        request.started = false;
+        if (policy == TimeoutPolicy.RETRY && request.retried < mConnection.getRequestRetryCount()) {
+            // give the stack time to deliver the late callback, or to become idle, before resending
+            long delayMillis = RETRY_BACKOFF_MILLIS << Math.min(request.retried, MAX_RETRY_BACKOFF_SHIFT);
+            request.retried++;
+            Log.d(TAG, "retry " + request.type + " in " + delayMillis + " ms, retry " + request.retried);
+            cancelRetry();
+            mRetryTimeout = mTimerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onRetryBackoffElapsed();
+                }
+            }, delayMillis);
+            return;
+        }
+        if (policy == TimeoutPolicy.FAIL_QUEUE) {
+            poll();
+            finish(request, msg, status);
+            Request aborted;
+            while ((aborted = poll()) != null) {
+                finish(aborted, "Request queue aborted", LeStatus.REQUEST_ABORTED);
+            }
+            return;
+        }
+        poll();
+        finish(request, msg, status);
+    }
+
+    private void onRetryBackoffElapsed() {
+        synchronized (this) {
+            mRetryTimeout = null;
+            startExecutor();
+        }
+        deliverFinished();
+    }
+
+    private void cancelRetry() {
+        if (mRetryTimeout != null) {
+            mRetryTimeout.cancel();
+            mRetryTimeout = null;
+        }
+    }
+
+    /**
+     * Remembers a timed-out send until its late callback arrives, or for one more request timeout
+     * if the stack dropped the callback.
+     */
+    private void addStale(final StaleDispatch stale) {
+        mStale.add(stale);
+        stale.expiry = mTimerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onStaleExpired(stale);
+            }
+        }, mConnection.getRequestTimeoutMillis());
+    }
+
+    private void onStaleExpired(StaleDispatch stale) {
+        synchronized (this) {
+            if (mStale.remove(stale)) {
+                Log.d(TAG, "no late " + stale.callback + " callback of dispatch " + stale.dispatchId + ", stop waiting for it");
+                resumeAfterStale();
+            }
+        }
+        deliverFinished();
+    }
+
+    private void clearStale() {
+        for (StaleDispatch stale : mStale) {
+            stale.expiry.cancel();
+        }
+        mStale.clear();
+    }
+
+    /**
+     * Swallows the late callback of a timed-out send. ATT allows one outstanding request per link
+     * and answers in order, so the first callback of the same kind and characteristic after a
+     * timeout is the answer to the timed-out send, not to whatever was sent since. Requests that
+     * such a callback could answer are held back meanwhile, see {@link #awaitsStale(Request)}.
+     *
+     * @return true if the callback was stale
+     */
+    private boolean consumeStale(Request.Type callback, BluetoothGattCharacteristic characteristic) {
+        for (int i = 0; i < mStale.size(); i++) {
+            StaleDispatch stale = mStale.get(i);
+            if (stale.callback == callback && stale.characteristic == characteristic) {
+                mStale.remove(i);
+                stale.expiry.cancel();
+                Log.d(TAG, "ignore late " + callback + " callback of dispatch " + stale.dispatchId);
+                resumeAfterStale();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the request must not be sent yet: the late callback of a timed-out send would be
+     * taken for its answer, and its own answer then for the answer to the next request.
+     */
+    private boolean awaitsStale(Request request) {
+        for (StaleDispatch stale : mStale) {
+            if (request.isFirstAnsweredBy(stale.callback, stale.characteristic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resumeAfterStale() {
+        Request head = peek();
+        if (head != null && !head.started) {
+            startExecutor();
+        }
+    }
+
+    private void finish(Request request, String msg, int status) {
+        request.status = status;
+        request.message = msg;
+        mFinished.add(request);
+    }
+
+    /**
+     * Reports the requests that left the queue; called without holding the lock.
+     */
+    private void deliverFinished() {
+        Request[] finished;
+        Request[] cleared;
+        synchronized (this) {
+            if (mFinished.isEmpty() && mCleared.isEmpty()) {
+                return;
+            }
+            finished = mFinished.toArray(new Request[mFinished.size()]);
+            cleared = mCleared.toArray(new Request[mCleared.size()]);
+            mFinished.clear();
+            mCleared.clear();
+        }
+        for (Request request : finished) {
+            if (request.status == BluetoothGatt.GATT_SUCCESS) {
+                request.future.complete(request.getValue());
+            } else {
+                mConnection.onRequestFailed(request, request.message, request.status);
+            }
+        }
+        for (Request request : cleared) {
+            request.future.fail("Request queue cleared", LeStatus.REQUEST_ABORTED);
+        }
+    }
+
+    /**
+     * Completes the head request. A callback of another kind or for another characteristic is a
+     * stale answer to a request that already timed out and must not pop the request that replaced
+     * it; e.g. a late onMtuChanged never completes a reliable write, which has no characteristic
+     * either.
+     *
+     * A written chunk of a transfer sends the next chunk instead, and the transfer only leaves the
+     * queue after its last chunk or a failure.
+     *
+     * @param callback the kind of request the callback answers, see {@link Request#isAnsweredBy}
+     * @return the completed request, or null for pipelined and stale callbacks
+     */
+    Request next(Request.Type callback, BluetoothGattCharacteristic characteristic, int status) {
+        Request request = completeHead(callback, characteristic, status);
+        deliverFinished();
+        return request;
+    }
+
+    private synchronized Request completeHead(Request.Type callback, BluetoothGattCharacteristic characteristic, int status) {
+        if (consumeStale(callback, characteristic)) {
+            return null;
+        }
+        if (mInFlight > 0 && callback == Request.Type.WRITE) {
+            streamAcknowledged(1);
+            if (mWindow < mConnection.getWriteNoResponseWindow()) {
+                mWindow++;
+            }
+            if (mInFlight > 0) {
+                scheduleStreamTimeout();
+            }
+            startExecutor();
+            return null;
+        }
+        Request request = peek();
+        if (request == null || !request.started || !request.isAnsweredBy(callback, characteristic)) {
+            Log.d(TAG, "ignore " + callback + " callback without matching request.");
+            return null;
+        }
+        cancelTimeout();
+        if (request.transfer != null && status == BluetoothGatt.GATT_SUCCESS && !request.transfer.chunkWritten()) {
+            request.started = false;
+            request.retried = 0;
+            // the next chunk waits its turn like a new request, so a more urgent lane may go first
+            mActive = null;
+            startExecutor();
+            return null;
+        }
+        poll();  //此方法检索并移除此列表的头
+        startExecutor();
+        return request;
+    }
+
+    /**
+     * Sends the next prepared write, or executes the reliable write after the last one. A failed
+     * prepared write aborts the whole batch. The callback does not carry the value the peripheral
+     * echoed, so a peripheral that prepared a different value cannot be detected.
+     *
+     * @return false if the callback does not belong to the reliable write at the head
+     */
+    boolean onPreparedWrite(BluetoothGattCharacteristic characteristic, int status) {
+        boolean handled = preparedWrite(characteristic, status);
+        deliverFinished();
+        return handled;
+    }
+
+    private synchronized boolean preparedWrite(BluetoothGattCharacteristic characteristic, int status) {
+        if (consumeStale(Request.Type.WRITE, characteristic)) {
+            return true;
+        }
+        Request request = peek();
+        if (request == null || request.type != Request.Type.RELIABLE_WRITE || !request.started) {
+            return false;
+        }
+        Request part = request.getPart();
+        if (part == null || part.getCharacteristic() != characteristic) {
+            return false;
+        }
+        cancelTimeout();
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            mConnection.abortReliableWrite();
+            Log.w(TAG, "reliable write aborted, prepared write status: " + status);
+            handleFailure(request, "Error on preparing write", status);
+            startExecutor();
+            return true;
+        }
+        request.partIndex++;
+        Request next = request.getPart();
+        boolean sent = next == null ? mConnection.executeReliableWrite()
+                : mConnection.writePrepared(next.getCharacteristic(), next.getValue());
+        if (!sent) {
+            mConnection.abortReliableWrite();
+            Log.w(TAG, "request could not be started: " + request.type);
+            handleFailure(request, "Request could not be started", LeStatus.REQUEST_NOT_STARTED);
+            startExecutor();
+            return true;
+        }
+        scheduleTimeout(request);
+        return true;
+    }
+
+    /**
+     * Completes the reliable write at the head once the peripheral applied or dropped it.
+     *
+     * @return the completed request, or null for a stale callback
+     */
+    Request onReliableWriteCompleted() {
+        Request request = completeReliableWrite();
+        deliverFinished();
+        return request;
+    }
+
+    private synchronized Request completeReliableWrite() {
+        if (consumeStale(Request.Type.RELIABLE_WRITE, null)) {
+            return null;
+        }
+        Request request = peek();
+        if (request == null || request.type != Request.Type.RELIABLE_WRITE || !request.started
+                || request.getPart() != null) {
+            Log.d(TAG, "ignore reliable write callback without matching request.");
+            return null;
+        }
+        cancelTimeout();
+        poll();
+        startExecutor();
+        return request;
+    }
+
+    void cancelAll() {
+        synchronized (this) {
+            cancelTimeout();
+            cancelRetry();
+            for (Lane lane : mLanes) {
+                mCleared.addAll(lane.requests);
+                lane.requests.clear();
+            }
+            mActive = null;
+            if (mInFlight > 0) {
+                streamAcknowledged(mInFlight);
+            }
+            mBackoffAttempts = 0;
+        }
+        deliverFinished();
+    }
+
+    /**
+     * Bytes per second handed to the stack by write-without-response requests, measured over
+     * the time packets were actually in flight.
+     */
+    synchronized float getWriteThroughput() {
+        long busyNanos = mStreamBusyNanos;
+        if (mInFlight > 0) {
+            busyNanos += System.nanoTime() - mStreamBusySince;
+        }
+        return busyNanos == 0 ? 0 : mStreamBytes * 1000000000f / busyNanos;
+    }
+
+    synchronized RequestLaneStats getLaneStats(RequestPriority priority) {
+        Lane lane = mLanes[priority.ordinal()];
+        return new RequestLaneStats(priority, lane.requests.size(), lane.dispatched, lane.totalDelayNanos, lane.maxDelayNanos);
+    }
+
+    private Request peek() {
+        if (mActive == null || mActive.requests.isEmpty()) {
+            mActive = selectLane();
+        }
+        return mActive == null ? null : mActive.requests.peek();
+    }
+
+    private Request poll() {
+        Request request = peek();
+        if (request != null) {
+            mActive.requests.poll();
+        }
+        mActive = null;
+        return request;
+    }
+
+    private boolean isEmpty() {
+        for (Lane lane : mLanes) {
+            if (!lane.requests.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * URGENT first; NORMAL and BULK strictly in order or by smooth weighted round robin.
+     */
+    private Lane selectLane() {
+        Lane urgent = mLanes[RequestPriority.URGENT.ordinal()];
+        if (!urgent.requests.isEmpty()) {
+            return urgent;
+        }
+        Lane normal = mLanes[RequestPriority.NORMAL.ordinal()];
+        Lane bulk = mLanes[RequestPriority.BULK.ordinal()];
+        if (normal.requests.isEmpty() || bulk.requests.isEmpty()
+                || mConnection.getRequestScheduling() == RequestScheduling.STRICT) {
+            normal.credit = 0;
+            bulk.credit = 0;
+            return normal.requests.isEmpty() ? (bulk.requests.isEmpty() ? null : bulk) : normal;
+        }
+        int normalWeight = mConnection.getRequestLaneWeight(RequestPriority.NORMAL);
+        int bulkWeight = mConnection.getRequestLaneWeight(RequestPriority.BULK);
+        normal.credit += normalWeight;
+        bulk.credit += bulkWeight;
+        Lane selected = normal.credit >= bulk.credit ? normal : bulk;
+        selected.credit -= normalWeight + bulkWeight;
+        return selected;
+    }
+
+    private void recordDispatch(Request request) {
+        request.future.markSent();
+        if (request.queuedNanos == 0) {
+            return;
+        }
+        long delay = System.nanoTime() - request.queuedNanos;
+        request.queuedNanos = 0;
+        Lane lane = mLanes[request.priority.ordinal()];
+        lane.dispatched++;
+        lane.totalDelayNanos += delay;
+        lane.maxDelayNanos = Math.max(lane.maxDelayNanos, delay);
+    }
+
+    /**
+     * What a timed-out send would be answered by.
+     */
+    private static final class StaleDispatch {
+        final int dispatchId;
+        final Request.Type callback;
+        final BluetoothGattCharacteristic characteristic;
+        TimerWheel.Timeout expiry;
+
+        StaleDispatch(Request request) {
+            dispatchId = request.dispatchId;
+            if (request.type == Request.Type.RELIABLE_WRITE) {
+                Request part = request.getPart();
+                // a prepared write is answered by onCharacteristicWrite, the execution by onReliableWriteCompleted
+                callback = part != null ? Request.Type.WRITE : Request.Type.RELIABLE_WRITE;
+                characteristic = part != null ? part.getCharacteristic() : null;
+            } else {
+                callback = request.type == Request.Type.ENABLE_INDICATIONS ? Request.Type.ENABLE_NOTIFICATIONS : request.type;
+                characteristic = request.getCharacteristic();
+            }
+        }
+    }
+
+    private static final class Lane {
+        final LinkedList<Request> requests = new LinkedList<>();
+        int credit;
+        long dispatched;
+        long totalDelayNanos;
+        long maxDelayNanos;
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * How the request queue picks between the {@link RequestPriority#NORMAL} and
+ * {@link RequestPriority#BULK} lanes. {@link RequestPriority#URGENT} requests always go first.
+ */
+public enum RequestScheduling {
+
+    /** BULK requests wait until the NORMAL lane is empty. */
+    STRICT,
+
+    /** Both lanes are served in proportion to their weights, so BULK is never starved. */
+    WEIGHTED
+}
@@ -0,0 +1,187 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * Device table built from scan results. Repeated advertisements only update the entry; the
+ * listeners hear about new devices, meaningful changes at a limited rate, and devices that went
+ * silent.
+ */
+class ScanAggregator {
+
+    static final int DEFAULT_REPORT_INTERVAL_MILLIS = 1000;
+    static final int DEFAULT_RSSI_THRESHOLD = 5;
+    static final int DEFAULT_EXPIRE_MILLIS = 10000;
+
+    // weight of the newest sample in the RSSI moving average
+    private static final float RSSI_SMOOTHING = 0.25f;
+
+    private final BleManager mBleManager;
+    private final Handler mHandler;
+    private final Map<String, Entry> mDevices = new HashMap<>();
+
+    private volatile int mReportIntervalMillis = DEFAULT_REPORT_INTERVAL_MILLIS;
+    private volatile int mRssiThreshold = DEFAULT_RSSI_THRESHOLD;
+    private volatile int mExpireMillis = DEFAULT_EXPIRE_MILLIS;
+    private boolean mSweeping;
+
+    ScanAggregator(BleManager bleManager, Handler handler) {
+        mBleManager = bleManager;
+        mHandler = handler;
+    }
+
+    void configure(int reportIntervalMillis, int rssiThreshold, int expireMillis) {
+        mReportIntervalMillis = reportIntervalMillis;
+        mRssiThreshold = rssiThreshold;
+        mExpireMillis = expireMillis;
+    }
+
+    void start() {
+        synchronized (this) {
+            if (mSweeping) {
+                return;
+            }
+            mSweeping = true;
+        }
+        mHandler.postDelayed(mSweeper, sweepIntervalMillis());
+    }
+
+    void stop() {
+        synchronized (this) {
+            mSweeping = false;
+        }
+        mHandler.removeCallbacks(mSweeper);
+    }
+
+    void onScanResult(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        ScanRecord record = result.getScanRecord();
+        byte[] bytes = record == null ? null : record.getBytes();
+        long now = SystemClock.elapsedRealtime();
+        ScannedDevice found = null;
+        ScannedDevice updated = null;
+        synchronized (this) {
+            Entry entry = mDevices.get(device.getAddress());
+            if (entry == null) {
+                entry = new Entry(device, now, result.getRssi());
+                entry.update(record, result.getRssi(), now);
+                mDevices.put(device.getAddress(), entry);
+                found = entry.report(bytes, now);
+            } else {
+                entry.update(record, result.getRssi(), now);
+                if (now - entry.reportedMillis >= mReportIntervalMillis
+                        && (Math.abs(entry.smoothedRssi - entry.reportedRssi) >= mRssiThreshold
+                        || !Arrays.equals(bytes, entry.reportedBytes))) {
+                    updated = entry.report(bytes, now);
+                }
+            }
+        }
+        if (found != null) {
+            mBleManager.dispatchScanDeviceFound(found);
+        } else if (updated != null) {
+            mBleManager.dispatchScanDeviceUpdated(updated);
+        }
+    }
+
+    synchronized List<ScannedDevice> getDevices() {
+        List<ScannedDevice> devices = new ArrayList<>(mDevices.size());
+        for (Entry entry : mDevices.values()) {
+            devices.add(entry.snapshot());
+        }
+        return devices;
+    }
+
+    synchronized void clear() {
+        mDevices.clear();
+    }
+
+    private int sweepIntervalMillis() {
+        return Math.max(100, mExpireMillis / 2);
+    }
+
+    private void sweep() {
+        long now = SystemClock.elapsedRealtime();
+        List<ScannedDevice> lost = null;
+        synchronized (this) {
+            if (!mSweeping) {
+                return;
+            }
+            Iterator<Entry> iterator = mDevices.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now - entry.lastSeenMillis >= mExpireMillis) {
+                    iterator.remove();
+                    if (lost == null) {
+                        lost = new ArrayList<>();
+                    }
+                    lost.add(entry.snapshot());
+                }
+            }
+        }
+        if (lost != null) {
+            for (ScannedDevice device : lost) {
+                mBleManager.dispatchScanDeviceLost(device);
+            }
+        }
+        mHandler.postDelayed(mSweeper, sweepIntervalMillis());
+    }
+
+    private final Runnable mSweeper = new Runnable() {
+        @Override
+        public void run() {
+            sweep();
+        }
+    };
+
+    private static final class Entry {
+        final BluetoothDevice device;
+        final long firstSeenMillis;
+        long lastSeenMillis;
+        ScanRecord scanRecord;
+        int rssi;
+        float smoothedRssi;
+        int count;
+
+        long reportedMillis;
+        float reportedRssi;
+        byte[] reportedBytes;
+
+        Entry(BluetoothDevice device, long firstSeenMillis, int rssi) {
+            this.device = device;
+            this.firstSeenMillis = firstSeenMillis;
+            this.smoothedRssi = rssi;
+        }
+
+        void update(ScanRecord record, int rssi, long now) {
+            this.scanRecord = record;
+            this.rssi = rssi;
+            this.smoothedRssi += RSSI_SMOOTHING * (rssi - smoothedRssi);
+            this.lastSeenMillis = now;
+            this.count++;
+        }
+
+        ScannedDevice report(byte[] bytes, long now) {
+            reportedMillis = now;
+            reportedRssi = smoothedRssi;
+            reportedBytes = bytes;
+            return snapshot();
+        }
+
+        ScannedDevice snapshot() {
+            return new ScannedDevice(device, scanRecord, rssi, Math.round(smoothedRssi), firstSeenMillis,
+                    lastSeenMillis, count);
+        }
+    }
+}
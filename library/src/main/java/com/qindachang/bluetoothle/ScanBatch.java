@@ -0,0 +1,173 @@
+package com.qindachang.bluetoothle;
+
+import java.util.Arrays;
+import java.util.List;
+
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * One batch of scan results as parallel primitive arrays, see {@link OnLeScanBatchListener}.
+ * The instance and its arrays are reused for the next batch, so read it inside the callback and
+ * copy what has to be kept.
+ * <p>
+ * Entry i has the address {@link #getAddress(int)} (48 bits, "AA:BB:CC:DD:EE:FF" is
+ * 0xAABBCCDDEEFF), {@link #getRssi(int)}, {@link #getTimestampNanos(int)} and the advertisement
+ * {@link #getAdvertisementLength(int)} bytes of {@link #getAdvertisementBytes()} starting at
+ * {@link #getAdvertisementOffset(int)}, without the zero padding after the last AD structure.
+ */
+public final class ScanBatch {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_ADVERTISEMENT_CAPACITY = INITIAL_CAPACITY * 31;
+
+    private int size;
+    private long[] addresses = new long[INITIAL_CAPACITY];
+    private int[] rssis = new int[INITIAL_CAPACITY];
+    private long[] timestampNanos = new long[INITIAL_CAPACITY];
+    // offsets[i]..offsets[i + 1] is the advertisement of entry i
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private byte[] advertisements = new byte[INITIAL_ADVERTISEMENT_CAPACITY];
+
+    ScanBatch() {
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getAddress(int index) {
+        checkIndex(index);
+        return addresses[index];
+    }
+
+    public int getRssi(int index) {
+        checkIndex(index);
+        return rssis[index];
+    }
+
+    /**
+     * {@link android.os.SystemClock#elapsedRealtimeNanos()} when the advertisement was received.
+     */
+    public long getTimestampNanos(int index) {
+        checkIndex(index);
+        return timestampNanos[index];
+    }
+
+    /**
+     * The packed advertisements of all entries; may be longer than the bytes in use.
+     */
+    public byte[] getAdvertisementBytes() {
+        return advertisements;
+    }
+
+    public int getAdvertisementOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    public int getAdvertisementLength(int index) {
+        checkIndex(index);
+        return offsets[index + 1] - offsets[index];
+    }
+
+    public static String formatAddress(long address) {
+        char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (address >>> (8 * (5 - i))) & 0xff;
+            chars[i * 3] = Character.toUpperCase(Character.forDigit(b >>> 4, 16));
+            chars[i * 3 + 1] = Character.toUpperCase(Character.forDigit(b & 0xf, 16));
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return the address as a number, or -1 if it is not "XX:XX:XX:XX:XX:XX"
+     */
+    static long parseAddress(String address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return -1;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    void fill(List<ScanResult> results) {
+        clear();
+        for (int i = 0, count = results.size(); i < count; i++) {
+            add(results.get(i));
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Appends a result; the arrays only grow while a batch is larger than every one before it.
+     */
+    void add(ScanResult result) {
+        if (size == addresses.length) {
+            int capacity = addresses.length * 2;
+            addresses = Arrays.copyOf(addresses, capacity);
+            rssis = Arrays.copyOf(rssis, capacity);
+            timestampNanos = Arrays.copyOf(timestampNanos, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+        ScanRecord record = result.getScanRecord();
+        byte[] bytes = record == null ? null : record.getBytes();
+        int length = significantLength(bytes);
+        int position = size == 0 ? 0 : offsets[size];
+        if (position + length > advertisements.length) {
+            advertisements = Arrays.copyOf(advertisements, Math.max(position + length, advertisements.length * 2));
+        }
+        if (length > 0) {
+            System.arraycopy(bytes, 0, advertisements, position, length);
+        }
+        addresses[size] = parseAddress(result.getDevice().getAddress());
+        rssis[size] = result.getRssi();
+        timestampNanos[size] = result.getTimestampNanos();
+        offsets[size] = position;
+        offsets[size + 1] = position + length;
+        size++;
+    }
+
+    // up to the end of the last AD structure, legacy advertisements are padded with zeros
+    private static int significantLength(byte[] bytes) {
+        if (bytes == null) {
+            return 0;
+        }
+        int i = 0;
+        while (i < bytes.length) {
+            int length = bytes[i] & 0xff;
+            if (length == 0) {
+                break;
+            }
+            i += length + 1;
+        }
+        return Math.min(i, bytes.length);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.qindachang.bluetoothle;
+
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * Radio duty cycle of a scan, see {@link BluetoothLe#setScanProfile(ScanProfile)}.
+ */
+public enum ScanProfile {
+
+    /** Scans a small share of the time; for long background scans. */
+    LOW_POWER(ScanSettings.SCAN_MODE_LOW_POWER),
+
+    /** Trade-off between discovery time and power. */
+    BALANCED(ScanSettings.SCAN_MODE_BALANCED),
+
+    /** Scans continuously; the default, for a scan in the foreground. */
+    LOW_LATENCY(ScanSettings.SCAN_MODE_LOW_LATENCY),
+
+    /** Never starts the radio, only receives results of scans other apps run. */
+    OPPORTUNISTIC(ScanSettings.SCAN_MODE_OPPORTUNISTIC),
+
+    /**
+     * Starts in low latency, steps down to balanced once the wanted devices have been found and
+     * to low power a while later.
+     */
+    ADAPTIVE(ScanSettings.SCAN_MODE_LOW_LATENCY);
+
+    final int scanMode;
+
+    ScanProfile(int scanMode) {
+        this.scanMode = scanMode;
+    }
+}
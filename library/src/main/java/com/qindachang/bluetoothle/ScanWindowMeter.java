@@ -0,0 +1,92 @@
+package com.qindachang.bluetoothle;
+
+import android.os.SystemClock;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Counts the advertisements of the current continuous scan window and keeps the system's scan
+ * start budget (Android 7.0 refuses a sixth start within 30 seconds, without an error callback).
+ * Used on the main thread only.
+ */
+class ScanWindowMeter {
+
+    static final int MAX_STARTS = 5;
+    static final int MAX_STARTS_WINDOW_MILLIS = 30000;
+
+    // start times, oldest first once the ring is full
+    private final long[] mStarts = new long[MAX_STARTS];
+    private int mStartCount;
+    private int mNextStart;
+
+    private final Set<String> mDevices = new HashSet<>();
+    private int mWindowIndex = -1;
+    private boolean mWindowOpen;
+    private long mWindowStartMillis;
+    private long mRestartGapMillis;
+    private long mStoppedMillis = -1;
+    private long mLastAdvertisementMillis;
+    private long mLongestSilenceMillis;
+    private int mAdvertisementCount;
+
+    /**
+     * @return how long to wait before the scanner may be started again, 0 if it may start now
+     */
+    long delayBeforeStart() {
+        if (mStartCount < MAX_STARTS) {
+            return 0;
+        }
+        long wait = mStarts[mNextStart] + MAX_STARTS_WINDOW_MILLIS - SystemClock.elapsedRealtime();
+        return wait > 0 ? wait : 0;
+    }
+
+    void recordStart() {
+        mStarts[mNextStart] = SystemClock.elapsedRealtime();
+        mNextStart = (mNextStart + 1) % MAX_STARTS;
+        if (mStartCount < MAX_STARTS) {
+            mStartCount++;
+        }
+    }
+
+    void reset() {
+        mWindowIndex = -1;
+        mWindowOpen = false;
+        mStoppedMillis = -1;
+    }
+
+    boolean isWindowOpen() {
+        return mWindowOpen;
+    }
+
+    void openWindow() {
+        long now = SystemClock.elapsedRealtime();
+        mWindowIndex++;
+        mWindowOpen = true;
+        mWindowStartMillis = now;
+        mRestartGapMillis = mStoppedMillis < 0 ? 0 : now - mStoppedMillis;
+        mLastAdvertisementMillis = now;
+        mLongestSilenceMillis = 0;
+        mAdvertisementCount = 0;
+        mDevices.clear();
+    }
+
+    void onAdvertisement(String address) {
+        if (!mWindowOpen) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        mLongestSilenceMillis = Math.max(mLongestSilenceMillis, now - mLastAdvertisementMillis);
+        mLastAdvertisementMillis = now;
+        mAdvertisementCount++;
+        mDevices.add(address);
+    }
+
+    ScanWindowStats closeWindow() {
+        long now = SystemClock.elapsedRealtime();
+        mWindowOpen = false;
+        mStoppedMillis = now;
+        return new ScanWindowStats(mWindowIndex, mWindowStartMillis, now, mAdvertisementCount, mDevices.size(),
+                mRestartGapMillis, Math.max(mLongestSilenceMillis, now - mLastAdvertisementMillis));
+    }
+}
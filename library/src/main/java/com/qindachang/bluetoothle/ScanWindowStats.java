@@ -0,0 +1,80 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * What one window of a continuous scan saw. A window runs from one start of the system scanner
+ * to the next restart. Times are {@link android.os.SystemClock#elapsedRealtime()} milliseconds.
+ */
+public final class ScanWindowStats {
+
+    private final int windowIndex;
+    private final long startMillis;
+    private final long endMillis;
+    private final int advertisementCount;
+    private final int deviceCount;
+    private final long restartGapMillis;
+    private final long longestSilenceMillis;
+
+    ScanWindowStats(int windowIndex, long startMillis, long endMillis, int advertisementCount, int deviceCount,
+                    long restartGapMillis, long longestSilenceMillis) {
+        this.windowIndex = windowIndex;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.advertisementCount = advertisementCount;
+        this.deviceCount = deviceCount;
+        this.restartGapMillis = restartGapMillis;
+        this.longestSilenceMillis = longestSilenceMillis;
+    }
+
+    /**
+     * 0 for the first window of a scan.
+     */
+    public int getWindowIndex() {
+        return windowIndex;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public long getDurationMillis() {
+        return endMillis - startMillis;
+    }
+
+    /**
+     * Advertisements that passed the scan filter.
+     */
+    public int getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    public int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * How long the system scanner was off before this window, longer than a plain restart when
+     * the start had to wait for the system's scan start limit.
+     */
+    public long getRestartGapMillis() {
+        return restartGapMillis;
+    }
+
+    /**
+     * Longest time in this window without an advertisement, including the time from the start
+     * to the first one and from the last one to the end.
+     */
+    public long getLongestSilenceMillis() {
+        return longestSilenceMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanWindowStats{windowIndex=" + windowIndex + ", durationMillis=" + getDurationMillis()
+                + ", advertisementCount=" + advertisementCount + ", deviceCount=" + deviceCount
+                + ", restartGapMillis=" + restartGapMillis + ", longestSilenceMillis=" + longestSilenceMillis + "}";
+    }
+}
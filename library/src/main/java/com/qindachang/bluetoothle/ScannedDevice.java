@@ -0,0 +1,86 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+
+/**
+ * One row of the scan device table at the time it was reported. Times are
+ * {@link android.os.SystemClock#elapsedRealtime()} milliseconds.
+ */
+public final class ScannedDevice {
+
+    private final BluetoothDevice device;
+    private final ScanRecord scanRecord;
+    private final int rssi;
+    private final int smoothedRssi;
+    private final long firstSeenMillis;
+    private final long lastSeenMillis;
+    private final int advertisementCount;
+
+    ScannedDevice(BluetoothDevice device, ScanRecord scanRecord, int rssi, int smoothedRssi,
+                  long firstSeenMillis, long lastSeenMillis, int advertisementCount) {
+        this.device = device;
+        this.scanRecord = scanRecord;
+        this.rssi = rssi;
+        this.smoothedRssi = smoothedRssi;
+        this.firstSeenMillis = firstSeenMillis;
+        this.lastSeenMillis = lastSeenMillis;
+        this.advertisementCount = advertisementCount;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    /**
+     * The name in the advertisement, or the name the system knows for the device.
+     */
+    public String getName() {
+        String name = scanRecord == null ? null : scanRecord.getDeviceName();
+        return name != null ? name : device.getName();
+    }
+
+    /**
+     * The latest advertisement, parsed into service UUIDs, manufacturer data, TX power etc.
+     */
+    public ScanRecord getScanRecord() {
+        return scanRecord;
+    }
+
+    /**
+     * RSSI of the latest advertisement.
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * RSSI averaged over recent advertisements, steadier for distance estimates and sorting.
+     */
+    public int getSmoothedRssi() {
+        return smoothedRssi;
+    }
+
+    public long getFirstSeenMillis() {
+        return firstSeenMillis;
+    }
+
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    public int getAdvertisementCount() {
+        return advertisementCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ScannedDevice{" + getAddress() + ", rssi " + rssi + " (" + smoothedRssi + "), seen "
+                + advertisementCount + " times}";
+    }
+}
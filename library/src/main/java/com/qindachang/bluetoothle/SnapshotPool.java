@@ -0,0 +1,29 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * Free list of {@link NotificationSnapshot}s shared by all connections. Acquire happens on binder
+ * threads and release on whichever thread delivered the snapshot, so it is backed by the
+ * lock-free ring rather than a stack (which would suffer from ABA between concurrent pops).
+ */
+class SnapshotPool {
+
+    private final MpmcRingBuffer<NotificationSnapshot> mFree;
+
+    SnapshotPool(int capacity) {
+        mFree = new MpmcRingBuffer<>(capacity);
+    }
+
+    NotificationSnapshot acquire() {
+        NotificationSnapshot snapshot = mFree.poll();
+        if (snapshot == null) {
+            snapshot = new NotificationSnapshot();
+            snapshot.setPool(this);
+        }
+        return snapshot;
+    }
+
+    void release(NotificationSnapshot snapshot) {
+        // a full pool just lets the extra snapshot go to the garbage collector
+        mFree.offer(snapshot);
+    }
+}
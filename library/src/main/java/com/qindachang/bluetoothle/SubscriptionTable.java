@@ -0,0 +1,85 @@
+package com.qindachang.bluetoothle;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Notification subscribers of one connection, keyed by characteristic UUID. Changes are
+ * synchronized and swap in a new listener array, so routing a notification is one lock-free
+ * lookup.
+ */
+class SubscriptionTable {
+
+    private final Map<UUID, Subscription> mSubscriptions = new ConcurrentHashMap<>();
+
+    Subscription get(UUID characteristicUUID) {
+        return mSubscriptions.get(characteristicUUID);
+    }
+
+    Collection<Subscription> values() {
+        return mSubscriptions.values();
+    }
+
+    /**
+     * @return true if this is the first listener of the characteristic
+     */
+    synchronized boolean add(UUID serviceUUID, UUID characteristicUUID, LeListener listener) {
+        Subscription subscription = mSubscriptions.get(characteristicUUID);
+        if (subscription == null) {
+            mSubscriptions.put(characteristicUUID, new Subscription(serviceUUID, characteristicUUID, new LeListener[]{listener}));
+            return true;
+        }
+        if (subscription.indexOf(listener) >= 0) {
+            return false;
+        }
+        LeListener[] listeners = new LeListener[subscription.listeners.length + 1];
+        System.arraycopy(subscription.listeners, 0, listeners, 0, subscription.listeners.length);
+        listeners[subscription.listeners.length] = listener;
+        mSubscriptions.put(characteristicUUID, new Subscription(serviceUUID, characteristicUUID, listeners));
+        return false;
+    }
+
+    /**
+     * @return the removed subscription if the listener was the last one of the characteristic
+     */
+    synchronized Subscription remove(UUID characteristicUUID, LeListener listener) {
+        Subscription subscription = mSubscriptions.get(characteristicUUID);
+        int index = subscription == null ? -1 : subscription.indexOf(listener);
+        if (index < 0) {
+            return null;
+        }
+        int length = subscription.listeners.length;
+        if (length == 1) {
+            mSubscriptions.remove(characteristicUUID);
+            return subscription;
+        }
+        LeListener[] listeners = new LeListener[length - 1];
+        System.arraycopy(subscription.listeners, 0, listeners, 0, index);
+        System.arraycopy(subscription.listeners, index + 1, listeners, index, length - index - 1);
+        mSubscriptions.put(characteristicUUID, new Subscription(subscription.serviceUUID, characteristicUUID, listeners));
+        return null;
+    }
+
+    static final class Subscription {
+        final UUID serviceUUID;
+        final UUID characteristicUUID;
+        final LeListener[] listeners;
+
+        private Subscription(UUID serviceUUID, UUID characteristicUUID, LeListener[] listeners) {
+            this.serviceUUID = serviceUUID;
+            this.characteristicUUID = characteristicUUID;
+            this.listeners = listeners;
+        }
+
+        private int indexOf(LeListener listener) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] == listener) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
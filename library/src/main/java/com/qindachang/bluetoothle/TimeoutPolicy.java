@@ -0,0 +1,19 @@
+package com.qindachang.bluetoothle;
+
+/**
+ * What the request queue does with a request that timed out or could not be started.
+ */
+public enum TimeoutPolicy {
+
+    /**
+     * Send the request again after a short backoff, up to the configured retry count, then skip
+     * it. A late callback of the timed-out attempt is ignored rather than taken for the retry's.
+     */
+    RETRY,
+
+    /** Report the failure and move on to the next request. */
+    SKIP,
+
+    /** Report the failure and drop every request still waiting in the queue. */
+    FAIL_QUEUE
+}
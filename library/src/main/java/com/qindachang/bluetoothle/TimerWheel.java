@@ -0,0 +1,149 @@
+package com.qindachang.bluetoothle;
+
+import android.util.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel shared by all request queues. One daemon thread ticks through the
+ * buckets and parks while nothing is scheduled, so an idle library costs no wake-ups.
+ */
+class TimerWheel {
+
+    private static final String TAG = TimerWheel.class.getSimpleName();
+
+    private final long mTickNanos;
+    private final Timeout[] mWheel;
+    private final int mMask;
+    private final Queue<Timeout> mPending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final Object mLock = new Object();
+
+    private Thread mWorker;
+    private long mStartTime;
+    private long mTick;
+
+    TimerWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("tickMillis must be positive and wheelSize a power of two");
+        }
+        mTickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mWheel = new Timeout[wheelSize];
+        mMask = wheelSize - 1;
+    }
+
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        synchronized (mLock) {
+            mActive.incrementAndGet();
+            mPending.add(timeout);
+            if (mWorker == null) {
+                mWorker = new Thread(new Worker(), "BluetoothLe-timer");
+                mWorker.setDaemon(true);
+                mStartTime = System.nanoTime();
+                mWorker.start();
+            }
+            mLock.notifyAll();
+        }
+        return timeout;
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = mPending.poll()) != null) {
+            if (timeout.cancelled) {
+                mActive.decrementAndGet();
+                continue;
+            }
+            long ticks = Math.max((timeout.deadline - mStartTime + mTickNanos - 1) / mTickNanos, mTick);
+            timeout.rounds = (ticks - mTick) / mWheel.length;
+            int index = (int) (ticks & mMask);
+            timeout.next = mWheel[index];
+            mWheel[index] = timeout;
+        }
+    }
+
+    private void expireBucket(int index) {
+        Timeout previous = null;
+        Timeout timeout = mWheel[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove = timeout.cancelled;
+            if (!remove && timeout.rounds > 0) {
+                timeout.rounds--;
+            } else if (!remove) {
+                remove = true;
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "timer task threw", e);
+                }
+            }
+            if (remove) {
+                if (previous == null) {
+                    mWheel[index] = next;
+                } else {
+                    previous.next = next;
+                }
+                timeout.next = null;
+                mActive.decrementAndGet();
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    synchronized (mLock) {
+                        if (mActive.get() == 0) {
+                            while (mActive.get() == 0) {
+                                mLock.wait();
+                            }
+                            // re-anchor the wheel so a long idle period does not replay missed ticks
+                            mStartTime = System.nanoTime() - mTick * mTickNanos;
+                        }
+                    }
+                    long sleepNanos = mStartTime + (mTick + 1) * mTickNanos - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                    transferPending();
+                    expireBucket((int) (mTick & mMask));
+                    mTick++;
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile boolean cancelled;
+        private long rounds;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
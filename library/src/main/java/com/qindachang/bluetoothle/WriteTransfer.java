@@ -0,0 +1,61 @@
+package com.qindachang.bluetoothle;
+
+import java.util.Arrays;
+
+/**
+ * A payload larger than one ATT packet, written chunk by chunk through a single queued request
+ * that reports back once. Each chunk is cut when it is sent, so it follows the MTU in effect at
+ * that moment rather than the one at queueing time.
+ */
+class WriteTransfer {
+
+    final OnLeWriteTransferListener listener;
+    final int length;
+    final LeFuture future = new LeFuture();
+    private final byte[] bytes;
+    // bytes already acknowledged, and the size of the chunk out after them
+    private int offset;
+    private int chunkLength;
+    private boolean finished;
+
+    WriteTransfer(byte[] bytes, OnLeWriteTransferListener listener) {
+        this.bytes = bytes.clone();
+        this.length = bytes.length;
+        this.listener = listener;
+    }
+
+    /**
+     * Cuts the next chunk; sending it again after a timeout cuts the same bytes again.
+     */
+    synchronized byte[] nextChunk(int maxLength) {
+        chunkLength = Math.min(length - offset, Math.max(1, maxLength));
+        return Arrays.copyOfRange(bytes, offset, offset + chunkLength);
+    }
+
+    /**
+     * @return true if this chunk was the last one and the transfer has succeeded
+     */
+    synchronized boolean chunkWritten() {
+        if (finished) {
+            return false;
+        }
+        offset += chunkLength;
+        chunkLength = 0;
+        if (offset >= length) {
+            finished = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true for the first failure, so the listener hears about it only once
+     */
+    synchronized boolean fail() {
+        if (finished) {
+            return false;
+        }
+        finished = true;
+        return true;
+    }
+}
@@ -0,0 +1,254 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.Scheduler;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The connection state machine against a {@link SimulatedPeripheral}: connects that overlap,
+ * requests queued before the link is ready, link loss and the timeouts of attempts that were
+ * already replaced. Everything runs on Robolectric's paused foreground scheduler.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ConnectionStateTest {
+
+    private static final UUID SERVICE_UUID = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID VALUE_UUID = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final int PROPERTIES = BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE;
+    // link up, the 600 ms settle delay, discovery and the MTU exchange
+    private static final int CONNECT_MILLIS = 1000;
+    private static final int LATENCY_MILLIS = 10;
+    private static final int TIMEOUT_MILLIS = 3000;
+
+    private Scheduler mScheduler;
+    private SimulatedPeripheral mPeripheral;
+    private BleManager mBleManager;
+    private BluetoothDevice mDevice;
+    private int mConnecting;
+    private int mConnected;
+    private int mDisconnected;
+
+    @Before
+    public void setUp() {
+        mScheduler = Robolectric.getForegroundThreadScheduler();
+        mScheduler.pause();
+        mPeripheral = new SimulatedPeripheral(1, mScheduler)
+                .addService(SERVICE_UUID, PROPERTIES, VALUE_UUID)
+                .setLatency(LATENCY_MILLIS, LATENCY_MILLIS)
+                .setValue(VALUE_UUID, new byte[]{1});
+        mBleManager = new BleManager(RuntimeEnvironment.application);
+        mBleManager.setTransportFactory(mPeripheral);
+        mBleManager.setTimerWheel(new SchedulerTimerWheel(mScheduler));
+        mBleManager.setReconnectRandom(new Random(1));
+        mBleManager.addConnectListener(this, new OnLeConnectListener() {
+            @Override
+            public void onDeviceConnecting() {
+                mConnecting++;
+            }
+
+            @Override
+            public void onDeviceConnected() {
+                mConnected++;
+            }
+
+            @Override
+            public void onDeviceDisconnected() {
+                mDisconnected++;
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt) {
+            }
+
+            @Override
+            public void onDeviceConnectFail() {
+            }
+        });
+        mDevice = SimulatedPeripheral.newDevice("00:11:22:33:44:55");
+    }
+
+    @Test
+    public void connectAfterDisconnect() {
+        BleConnection connection = connect();
+        connection.disconnect();
+        assertEquals(ConnectionState.DISCONNECTING, connection.getState());
+        mScheduler.advanceBy(LATENCY_MILLIS);
+        assertEquals(ConnectionState.DISCONNECTED, connection.getState());
+        assertFalse(mPeripheral.isConnected());
+
+        assertTrue(mBleManager.connect(false, mDevice));
+        assertEquals(ConnectionState.CONNECTING, connection.getState());
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(ConnectionState.READY, connection.getState());
+        assertEquals(2, mPeripheral.getLinkCount());
+        assertEquals(2, mConnected);
+        assertEquals(1, mDisconnected);
+
+        LeFuture read = read(connection);
+        mScheduler.advanceBy(LATENCY_MILLIS);
+        assertTrue(read.isSuccess());
+    }
+
+    @Test
+    public void duplicateConnectWhileConnectingKeepsOneLink() {
+        assertTrue(mBleManager.connect(false, mDevice));
+        BleConnection connection = mBleManager.getConnection(mDevice);
+        assertTrue(mBleManager.connect(false, mDevice));
+        assertEquals(ConnectionState.CONNECTING, connection.getState());
+
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(ConnectionState.READY, connection.getState());
+        // the first link was closed before it came up, only the second one went on to discovery
+        assertEquals(2, mPeripheral.getLinkCount());
+        assertEquals(2, mConnecting);
+        assertEquals(1, mConnected);
+        assertEquals(Arrays.asList("DISCOVER", "MTU " + BleManager.DEFAULT_REQUEST_MTU), mPeripheral.getOperations());
+
+        // a connect once the link is up is refused
+        assertFalse(mBleManager.connect(false, mDevice));
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(2, mPeripheral.getLinkCount());
+        assertEquals(ConnectionState.READY, connection.getState());
+    }
+
+    @Test
+    public void requestsAreHeldUntilReady() {
+        assertTrue(mBleManager.connect(false, mDevice));
+        BleConnection connection = mBleManager.getConnection(mDevice);
+        LeFuture read = read(connection);
+        LeFuture write = write(connection, new byte[]{2});
+
+        // connected and waiting out the settle delay before discovery
+        mScheduler.advanceBy(CONNECT_MILLIS / 2);
+        assertEquals(ConnectionState.CONNECTED, connection.getState());
+        assertTrue(mPeripheral.getOperations().isEmpty());
+        assertFalse(read.isDone());
+
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(ConnectionState.READY, connection.getState());
+        assertTrue(read.isSuccess());
+        assertArrayEquals(new byte[]{1}, read.getValue());
+        assertTrue(write.isSuccess());
+        // the MTU exchange goes ahead of what was queued before the link was ready
+        assertEquals(Arrays.asList("DISCOVER", "MTU " + BleManager.DEFAULT_REQUEST_MTU,
+                "READ " + VALUE_UUID, "WRITE " + VALUE_UUID), mPeripheral.getOperations());
+    }
+
+    @Test
+    public void unexpectedDisconnectPausesTheQueueUntilReconnected() {
+        mBleManager.setRetryConnectEnable(true);
+        mBleManager.setReconnectBackoff(1000, 1000);
+        BleConnection connection = connect();
+        int sent = mPeripheral.getOperations().size();
+
+        mPeripheral.dropLink(8);
+        mScheduler.advanceBy(LATENCY_MILLIS);
+        assertEquals(ConnectionState.DISCONNECTED, connection.getState());
+        assertEquals(1, mDisconnected);
+
+        // queued while the link is down, then held through the reconnect and its discovery
+        LeFuture write = write(connection, new byte[]{2});
+        mScheduler.advanceBy(CONNECT_MILLIS / 2);
+        assertEquals(ConnectionState.DISCONNECTED, connection.getState());
+        assertFalse(write.isDone());
+        assertEquals(sent, mPeripheral.getOperations().size());
+
+        mScheduler.advanceBy(CONNECT_MILLIS + CONNECT_MILLIS / 2);
+        assertEquals(ConnectionState.READY, connection.getState());
+        assertEquals(2, mPeripheral.getLinkCount());
+        assertTrue(write.isSuccess());
+        List<String> afterReconnect = mPeripheral.getOperations().subList(sent, mPeripheral.getOperations().size());
+        assertEquals(Arrays.asList("DISCOVER", "MTU " + BleManager.DEFAULT_REQUEST_MTU, "WRITE " + VALUE_UUID), afterReconnect);
+    }
+
+    @Test
+    public void connectTimeoutOfAnEarlierAttemptIsIgnored() {
+        mBleManager.setRetryConnectEnable(true);
+        mBleManager.setConnectTimeoutMillis(TIMEOUT_MILLIS);
+        // the first attempt never comes up
+        mPeripheral.holdNextCallback(10 * TIMEOUT_MILLIS);
+        assertTrue(mBleManager.connect(false, mDevice));
+        BleConnection connection = mBleManager.getConnection(mDevice);
+        mScheduler.advanceBy(TIMEOUT_MILLIS - 500);
+        connection.disconnect();
+        assertEquals(ConnectionState.DISCONNECTED, connection.getState());
+
+        // the second attempt is still connecting when the timeout of the first one fires
+        mPeripheral.holdNextCallback(1000);
+        assertTrue(mBleManager.connect(false, mDevice));
+        mScheduler.advanceBy(600);
+        assertEquals(ConnectionState.CONNECTING, connection.getState());
+        assertTrue(mPeripheral.getOperations().isEmpty());
+
+        mScheduler.advanceBy(2 * CONNECT_MILLIS);
+        assertEquals(ConnectionState.READY, connection.getState());
+        assertEquals(2, mPeripheral.getLinkCount());
+        assertEquals(1, mConnected);
+    }
+
+    @Test
+    public void serviceTimeoutOfAnEarlierAttemptIsIgnored() {
+        mBleManager.setRetryConnectEnable(true);
+        mBleManager.setReconnectBackoff(100, 100);
+        mBleManager.setServiceTimeoutMillis(TIMEOUT_MILLIS);
+        assertTrue(mBleManager.connect(false, mDevice));
+        BleConnection connection = mBleManager.getConnection(mDevice);
+        mScheduler.advanceBy(100);
+        // discovery of the first link is never answered, the link drops while it is out
+        mPeripheral.holdNextCallback(10 * TIMEOUT_MILLIS);
+        mScheduler.advanceBy(900);
+        assertEquals(ConnectionState.DISCOVERING, connection.getState());
+        mPeripheral.dropLink(8);
+
+        // reconnected after the backoff; discovery of the second link is answered late
+        mScheduler.advanceBy(500);
+        assertEquals(ConnectionState.CONNECTED, connection.getState());
+        assertEquals(2, mPeripheral.getLinkCount());
+        mPeripheral.holdNextCallback(2500);
+
+        // past the service timeout of the first attempt
+        mScheduler.advanceBy(2200);
+        assertEquals(ConnectionState.DISCOVERING, connection.getState());
+        assertTrue(mPeripheral.isConnected());
+
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(ConnectionState.READY, connection.getState());
+        assertEquals(2, mPeripheral.getLinkCount());
+    }
+
+    private BleConnection connect() {
+        assertTrue(mBleManager.connect(false, mDevice));
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        BleConnection connection = mBleManager.getConnection(mDevice);
+        assertEquals(ConnectionState.READY, connection.getState());
+        return connection;
+    }
+
+    private LeFuture read(BleConnection connection) {
+        return connection.readCharacteristicQueue(RequestPriority.NORMAL, SERVICE_UUID, VALUE_UUID);
+    }
+
+    private LeFuture write(BleConnection connection, byte[] value) {
+        return connection.writeCharacteristicQueue(RequestPriority.NORMAL, value, SERVICE_UUID, VALUE_UUID);
+    }
+}
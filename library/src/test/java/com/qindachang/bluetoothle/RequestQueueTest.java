@@ -0,0 +1,283 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The request queue of a live connection against a {@link SimulatedPeripheral}. Callbacks,
+ * timeouts and reconnects all run on Robolectric's paused foreground scheduler, so every test
+ * moves the clock itself and sees the same order of events on every run.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class RequestQueueTest {
+
+    private static final UUID SERVICE_UUID = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID VALUE_UUID = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID CONTROL_UUID = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+    private static final int PROPERTIES = BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE
+            | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE | BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+    private static final int REQUEST_TIMEOUT_MILLIS = 1000;
+    // link up, the 600 ms settle delay, discovery and the MTU exchange
+    private static final int CONNECT_MILLIS = 1000;
+    // every callback takes this long unless a test says otherwise
+    private static final int LATENCY_MILLIS = 10;
+
+    private Scheduler mScheduler;
+    private SimulatedPeripheral mPeripheral;
+    private BleManager mBleManager;
+    private BluetoothDevice mDevice;
+    private BleConnection mConnection;
+
+    @Before
+    public void setUp() {
+        mScheduler = Robolectric.getForegroundThreadScheduler();
+        mScheduler.pause();
+        mPeripheral = new SimulatedPeripheral(1, mScheduler)
+                .addService(SERVICE_UUID, PROPERTIES, VALUE_UUID, CONTROL_UUID)
+                .setLatency(LATENCY_MILLIS, LATENCY_MILLIS)
+                .setValue(VALUE_UUID, new byte[]{1})
+                .setValue(CONTROL_UUID, new byte[]{10});
+        mBleManager = new BleManager(RuntimeEnvironment.application);
+        mBleManager.setTransportFactory(mPeripheral);
+        mBleManager.setTimerWheel(new SchedulerTimerWheel(mScheduler));
+        mBleManager.setReconnectRandom(new Random(1));
+        mBleManager.setRequestTimeoutMillis(REQUEST_TIMEOUT_MILLIS);
+        mDevice = SimulatedPeripheral.newDevice("00:11:22:33:44:55");
+
+        assertTrue(mBleManager.connect(false, mDevice));
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        mConnection = mBleManager.getConnection(mDevice);
+        assertEquals(ConnectionState.READY, mConnection.getState());
+    }
+
+    @Test
+    public void timedOutRequestFailsAndTheQueueMovesOn() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.SKIP, 0);
+        mPeripheral.dropNextCallback();
+        LeFuture read = read(VALUE_UUID);
+        LeFuture write = write(new byte[]{2});
+
+        mScheduler.advanceBy(REQUEST_TIMEOUT_MILLIS - 1);
+        assertFalse(read.isDone());
+        assertEquals(0, mPeripheral.getWriteCount());
+
+        mScheduler.advanceBy(1 + LATENCY_MILLIS);
+        assertEquals(LeStatus.REQUEST_TIMEOUT, read.getStatus());
+        assertTrue(write.isSuccess());
+        assertArrayEquals(new byte[]{2}, mPeripheral.getValue(VALUE_UUID));
+    }
+
+    @Test
+    public void timedOutRequestIsSentAgain() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.RETRY, 1);
+        // the late answer to the first send arrives during the retry backoff and is dropped
+        mPeripheral.holdNextCallback(REQUEST_TIMEOUT_MILLIS + 2 * LATENCY_MILLIS);
+        LeFuture read = read(VALUE_UUID);
+
+        // the timeout, the retry backoff and the answer to the second send
+        mScheduler.advanceBy(REQUEST_TIMEOUT_MILLIS + 100);
+        assertTrue(read.isSuccess());
+        assertArrayEquals(new byte[]{1}, read.getValue());
+        assertEquals(2, mPeripheral.getReadCount());
+    }
+
+    @Test
+    public void droppedCallbackDoesNotSwallowTheNextAnswer() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.SKIP, 0);
+        mPeripheral.dropNextCallback();
+        LeFuture first = read(VALUE_UUID);
+        LeFuture second = read(VALUE_UUID);
+
+        mScheduler.advanceBy(REQUEST_TIMEOUT_MILLIS);
+        assertEquals(LeStatus.REQUEST_TIMEOUT, first.getStatus());
+        // held until the late answer to the first read can no longer come
+        assertEquals(1, mPeripheral.getReadCount());
+
+        mScheduler.advanceBy(REQUEST_TIMEOUT_MILLIS + LATENCY_MILLIS);
+        assertTrue(second.isSuccess());
+        assertArrayEquals(new byte[]{1}, second.getValue());
+
+        // nothing is left waiting for the dropped callback
+        LeFuture third = read(VALUE_UUID);
+        mScheduler.advanceBy(LATENCY_MILLIS);
+        assertTrue(third.isSuccess());
+    }
+
+    @Test
+    public void droppedCallbackIsRetried() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.RETRY, 1);
+        mPeripheral.dropNextCallback();
+        LeFuture read = read(VALUE_UUID);
+
+        mScheduler.advanceBy(2 * REQUEST_TIMEOUT_MILLIS + LATENCY_MILLIS);
+        assertTrue(read.isSuccess());
+        assertArrayEquals(new byte[]{1}, read.getValue());
+        assertEquals(2, mPeripheral.getReadCount());
+    }
+
+    @Test
+    public void retriesAreBounded() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.RETRY, 2);
+        mPeripheral.setCallbackDropRate(1);
+        LeFuture read = read(VALUE_UUID);
+
+        mScheduler.advanceBy(10 * REQUEST_TIMEOUT_MILLIS);
+        assertEquals(LeStatus.REQUEST_TIMEOUT, read.getStatus());
+        assertEquals(3, mPeripheral.getReadCount());
+    }
+
+    @Test
+    public void lateCallbackDoesNotCompleteTheNextRequest() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.SKIP, 0);
+        // the read is answered while the write sent after its timeout is still out
+        mPeripheral.holdNextCallback(REQUEST_TIMEOUT_MILLIS + LATENCY_MILLIS / 2);
+        LeFuture read = read(VALUE_UUID);
+        LeFuture write = write(new byte[]{2});
+
+        mScheduler.advanceBy(REQUEST_TIMEOUT_MILLIS + LATENCY_MILLIS / 2);
+        assertEquals(LeStatus.REQUEST_TIMEOUT, read.getStatus());
+        assertFalse(write.isDone());
+
+        mScheduler.advanceBy(LATENCY_MILLIS);
+        assertTrue(write.isSuccess());
+        assertArrayEquals(new byte[]{2}, write.getValue());
+    }
+
+    @Test
+    public void callbackOvertakingALateOneCompletesItsOwnRequest() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.SKIP, 0);
+        // the second read is answered before the late answer to the first
+        mPeripheral.holdNextCallback(REQUEST_TIMEOUT_MILLIS + 5 * LATENCY_MILLIS);
+        LeFuture first = read(VALUE_UUID);
+        LeFuture second = read(CONTROL_UUID);
+
+        mScheduler.advanceBy(REQUEST_TIMEOUT_MILLIS + LATENCY_MILLIS);
+        assertEquals(LeStatus.REQUEST_TIMEOUT, first.getStatus());
+        assertTrue(second.isSuccess());
+        assertArrayEquals(new byte[]{10}, second.getValue());
+
+        // the late answer arrives with nothing out and is dropped, the next read gets its own
+        mScheduler.advanceBy(5 * LATENCY_MILLIS);
+        mPeripheral.setValue(VALUE_UUID, new byte[]{7});
+        LeFuture third = read(VALUE_UUID);
+        mScheduler.advanceBy(LATENCY_MILLIS);
+        assertTrue(third.isSuccess());
+        assertArrayEquals(new byte[]{7}, third.getValue());
+    }
+
+    @Test
+    public void disconnectInTheMiddleOfTheQueueKeepsTheRest() {
+        mPeripheral.holdNextCallback(100);
+        LeFuture first = write(new byte[]{2});
+        LeFuture second = write(new byte[]{3});
+        LeFuture third = write(new byte[]{4});
+
+        mScheduler.advanceBy(50);
+        assertEquals(1, mPeripheral.getWriteCount());
+        mPeripheral.dropLink(8);
+        mScheduler.advanceBy(50);
+        assertEquals(ConnectionState.DISCONNECTED, mConnection.getState());
+        assertEquals(LeStatus.DISCONNECTED, first.getStatus());
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+
+        // nothing is sent while the link is down
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(1, mPeripheral.getWriteCount());
+
+        assertTrue(mBleManager.connect(false, mDevice));
+        mScheduler.advanceBy(CONNECT_MILLIS);
+        assertEquals(ConnectionState.READY, mConnection.getState());
+        assertTrue(second.isSuccess());
+        assertTrue(third.isSuccess());
+        assertEquals(3, mPeripheral.getWriteCount());
+        assertArrayEquals(new byte[]{4}, mPeripheral.getValue(VALUE_UUID));
+    }
+
+    @Test
+    public void everyRequestCompletesUnderCallbackAndLinkLoss() {
+        mBleManager.setRequestTimeoutPolicy(TimeoutPolicy.RETRY, 2);
+        mBleManager.setRetryConnectEnable(true);
+        mBleManager.setRetryConnectCount(3);
+        mBleManager.setReconnectBackoff(100, 2000);
+        mBleManager.setConnectTimeoutMillis(3000);
+        mBleManager.setServiceTimeoutMillis(3000);
+        double dropRate = 0.05;
+        mPeripheral.setLatency(5, 30)
+                .setCallbackDropRate(dropRate)
+                .setCallbackReorderRate(0.1)
+                .setLinkLossRate(0.01);
+
+        List<LeFuture> reads = new ArrayList<>();
+        List<LeFuture> futures = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            switch (i % 3) {
+                case 0:
+                    LeFuture read = read(CONTROL_UUID);
+                    reads.add(read);
+                    futures.add(read);
+                    break;
+                case 1:
+                    futures.add(write(new byte[]{(byte) i}));
+                    break;
+                default:
+                    futures.add(mConnection.writeCharacteristicNoResponseQueue(RequestPriority.NORMAL, new byte[]{(byte) i}, SERVICE_UUID, VALUE_UUID));
+                    break;
+            }
+        }
+
+        mScheduler.advanceBy(10 * 60 * 1000);
+        int successes = 0;
+        int disconnected = 0;
+        for (LeFuture future : futures) {
+            assertTrue(future.toString(), future.isDone());
+            if (future.isSuccess()) {
+                successes++;
+            } else {
+                // a timeout would take three drops of the same request in a row, one in 8000 here
+                assertEquals(future.toString(), LeStatus.DISCONNECTED, future.getStatus());
+                disconnected++;
+            }
+        }
+        // only the request that was out when a link dropped fails with it
+        assertTrue(disconnected <= mPeripheral.getLinkCount() - 1);
+        assertEquals(futures.size() - disconnected, successes);
+        // about the configured share of callbacks was dropped, and every drop was recovered by a retry
+        long operations = mPeripheral.getReadCount() + mPeripheral.getWriteCount();
+        long dropped = mPeripheral.getDroppedCallbackCount();
+        assertTrue(dropped > operations * dropRate / 2 && dropped < operations * dropRate * 2);
+        for (LeFuture read : reads) {
+            if (read.isSuccess()) {
+                assertArrayEquals(new byte[]{10}, read.getValue());
+            }
+        }
+    }
+
+    private LeFuture read(UUID characteristicUUID) {
+        return mConnection.readCharacteristicQueue(RequestPriority.NORMAL, SERVICE_UUID, characteristicUUID);
+    }
+
+    private LeFuture write(byte[] value) {
+        return mConnection.writeCharacteristicQueue(RequestPriority.NORMAL, value, SERVICE_UUID, VALUE_UUID);
+    }
+}
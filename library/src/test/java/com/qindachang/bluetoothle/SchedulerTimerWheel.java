@@ -0,0 +1,32 @@
+package com.qindachang.bluetoothle;
+
+import org.robolectric.util.Scheduler;
+
+/**
+ * Runs request timeouts on a Robolectric scheduler instead of the wheel's own thread, so they
+ * fire on the same virtual clock as the simulated peripheral's callbacks.
+ */
+class SchedulerTimerWheel extends TimerWheel {
+
+    private final Scheduler mScheduler;
+
+    SchedulerTimerWheel(Scheduler scheduler) {
+        super(1, 1);
+        mScheduler = scheduler;
+    }
+
+    @Override
+    Timeout schedule(final Runnable task, long delayMillis) {
+        // the deadline is only read by the wheel thread, which never starts here
+        final Timeout timeout = new Timeout(task, 0);
+        mScheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (!timeout.isCancelled()) {
+                    task.run();
+                }
+            }
+        }, delayMillis);
+        return timeout;
+    }
+}
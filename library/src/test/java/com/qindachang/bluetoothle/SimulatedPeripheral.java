@@ -0,0 +1,614 @@
+package com.qindachang.bluetoothle;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import org.robolectric.internal.Shadow;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A peripheral that lives in memory, for JVM tests of the request queue, retry and connection
+ * logic. Install it with {@link BleManager#setTransportFactory(GattTransport.Factory)}.
+ * <p>
+ * Callbacks are posted to the given scheduler, normally Robolectric's paused foreground scheduler,
+ * after a latency drawn from a seeded {@link Random}. A test moves the clock with
+ * {@link Scheduler#advanceBy(long)}, so the same seed and the same calls make the same choices of
+ * latency, dropped callbacks and link loss. Callbacks keep the order of the calls, unless one is
+ * held back with {@link #holdNextCallback(long)} or a reorder rate is set.
+ * <p>
+ * Like the stack, every link discovers its own copies of the services and sets the value on the
+ * client's characteristic right before a read or notification callback; the peripheral's values
+ * are kept apart. Everything runs on the scheduler's thread, so nothing here is synchronized.
+ */
+class SimulatedPeripheral implements GattTransport.Factory {
+
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private final Random mRandom;
+    private final Scheduler mScheduler;
+    private final List<BluetoothGattService> mServices = new ArrayList<>();
+    private final Map<UUID, byte[]> mValues = new HashMap<>();
+    private final Map<UUID, NotificationSource> mNotificationSources = new HashMap<>();
+    private final List<String> mOperations = new ArrayList<>();
+
+    private int mMinLatencyMillis = 5;
+    private int mMaxLatencyMillis = 15;
+    private double mCallbackDropRate;
+    private double mCallbackReorderRate;
+    private double mLinkLossRate;
+    private long mLastDueMillis;
+    private boolean mDropNextCallback;
+    private long mHoldNextCallbackMillis = -1;
+    private int mMaxMtu = 247;
+    private boolean mBonded;
+    private Link mLink;
+    private int mLinks;
+    private long mReads;
+    private long mWrites;
+    private long mNotifications;
+    private long mDroppedCallbacks;
+
+    SimulatedPeripheral(long seed, Scheduler scheduler) {
+        mRandom = new Random(seed);
+        mScheduler = scheduler;
+    }
+
+    /**
+     * The framework has no public constructor for a remote device, and its package-private one
+     * binds to the Bluetooth service, which the test runtime does not have.
+     */
+    static BluetoothDevice newDevice(String address) {
+        BluetoothDevice device = Shadow.newInstanceOf(BluetoothDevice.class);
+        ReflectionHelpers.setField(device, "mAddress", address);
+        return device;
+    }
+
+    /**
+     * Adds a primary service with one characteristic per UUID; characteristics that can notify or
+     * indicate get a client configuration descriptor.
+     */
+    SimulatedPeripheral addService(UUID serviceUUID, int properties, UUID... characteristicUUIDs) {
+        BluetoothGattService service = new BluetoothGattService(serviceUUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        for (UUID characteristicUUID : characteristicUUIDs) {
+            BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(characteristicUUID, properties,
+                    BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+            if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+                characteristic.addDescriptor(new BluetoothGattDescriptor(CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID,
+                        BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+            }
+            service.addCharacteristic(characteristic);
+        }
+        mServices.add(service);
+        return this;
+    }
+
+    SimulatedPeripheral setLatency(int minMillis, int maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("invalid latency range " + minMillis + ".." + maxMillis);
+        }
+        mMinLatencyMillis = minMillis;
+        mMaxLatencyMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * @param rate share of GATT operation callbacks the "stack" never delivers, 0..1
+     */
+    SimulatedPeripheral setCallbackDropRate(double rate) {
+        mCallbackDropRate = rate;
+        return this;
+    }
+
+    /**
+     * @param rate share of GATT operation callbacks that are not held behind those of earlier calls, 0..1
+     */
+    SimulatedPeripheral setCallbackReorderRate(double rate) {
+        mCallbackReorderRate = rate;
+        return this;
+    }
+
+    /**
+     * @param rate chance that the link drops after a GATT operation, 0..1
+     */
+    SimulatedPeripheral setLinkLossRate(double rate) {
+        mLinkLossRate = rate;
+        return this;
+    }
+
+    SimulatedPeripheral setMaxMtu(int mtu) {
+        mMaxMtu = mtu;
+        return this;
+    }
+
+    SimulatedPeripheral setBonded(boolean bonded) {
+        mBonded = bonded;
+        return this;
+    }
+
+    /**
+     * The value the peripheral answers reads with.
+     */
+    SimulatedPeripheral setValue(UUID characteristicUUID, byte[] value) {
+        mValues.put(characteristicUUID, value.clone());
+        return this;
+    }
+
+    /**
+     * @return the value last written or set, null if there was none
+     */
+    byte[] getValue(UUID characteristicUUID) {
+        byte[] value = mValues.get(characteristicUUID);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * The callback of the next call, or of the next connect, is never delivered.
+     */
+    void dropNextCallback() {
+        mDropNextCallback = true;
+    }
+
+    /**
+     * The callback of the next call arrives after the given delay instead of the drawn latency;
+     * callbacks of later calls are not held behind it and may overtake it.
+     */
+    void holdNextCallback(long delayMillis) {
+        mHoldNextCallbackMillis = delayMillis;
+    }
+
+    /**
+     * Sends the value every {@code periodMillis} while the client has enabled the characteristic's CCCD.
+     */
+    void startNotifications(UUID characteristicUUID, long periodMillis, byte[] value) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive");
+        }
+        stopNotifications(characteristicUUID);
+        NotificationSource source = new NotificationSource(characteristicUUID, periodMillis, value.clone());
+        mNotificationSources.put(characteristicUUID, source);
+        mScheduler.postDelayed(source, periodMillis);
+    }
+
+    void stopNotifications(UUID characteristicUUID) {
+        NotificationSource source = mNotificationSources.remove(characteristicUUID);
+        if (source != null) {
+            source.mStopped = true;
+        }
+    }
+
+    /**
+     * Changes the value and notifies it at once if the client has enabled the characteristic's CCCD.
+     */
+    void notifyValue(UUID characteristicUUID, byte[] value) {
+        mValues.put(characteristicUUID, value.clone());
+        Link link = mLink;
+        if (link != null) {
+            link.notifyValue(characteristicUUID, value);
+        }
+    }
+
+    /**
+     * Drops the current link as if the peripheral went out of range.
+     */
+    void dropLink(int status) {
+        if (mLink != null) {
+            mLink.lose(status);
+        }
+    }
+
+    boolean isConnected() {
+        return mLink != null && mLink.mConnected;
+    }
+
+    /**
+     * @return the links opened so far, one per connect of the client
+     */
+    int getLinkCount() {
+        return mLinks;
+    }
+
+    /**
+     * @return the GATT operations in call order, e.g. "READ uuid", "WRITE uuid" or "MTU 517"
+     */
+    List<String> getOperations() {
+        return Collections.unmodifiableList(mOperations);
+    }
+
+    long getReadCount() {
+        return mReads;
+    }
+
+    long getWriteCount() {
+        return mWrites;
+    }
+
+    long getNotificationCount() {
+        return mNotifications;
+    }
+
+    long getDroppedCallbackCount() {
+        return mDroppedCallbacks;
+    }
+
+    @Override
+    public GattTransport connect(Context context, BluetoothDevice device, boolean autoConnect, BleManagerGattCallback callback) {
+        Link link = new Link(callback);
+        if (mLink != null) {
+            mLink.mClosed = true;
+        }
+        mLink = link;
+        mLinks++;
+        link.connect();
+        return link;
+    }
+
+    /**
+     * @param held      whether dropNextCallback() and holdNextCallback() apply
+     * @param operation whether the random drop and reorder rates apply, only GATT operations
+     * @return the delay of the next callback, or -1 if it is dropped
+     */
+    private long nextDelayMillis(boolean held, boolean operation) {
+        if (held && mDropNextCallback) {
+            mDropNextCallback = false;
+            mDroppedCallbacks++;
+            return -1;
+        }
+        if (held && mHoldNextCallbackMillis >= 0) {
+            long hold = mHoldNextCallbackMillis;
+            mHoldNextCallbackMillis = -1;
+            return hold;
+        }
+        if (operation && mCallbackDropRate > 0 && mRandom.nextDouble() < mCallbackDropRate) {
+            mDroppedCallbacks++;
+            return -1;
+        }
+        long now = mScheduler.getCurrentTime();
+        int latency = mMinLatencyMillis + mRandom.nextInt(mMaxLatencyMillis - mMinLatencyMillis + 1);
+        if (operation && mCallbackReorderRate > 0 && mRandom.nextDouble() < mCallbackReorderRate) {
+            return latency;
+        }
+        // a later call never overtakes an earlier one
+        long due = Math.max(now + latency, mLastDueMillis);
+        mLastDueMillis = due;
+        return due - now;
+    }
+
+    private boolean nextLinkLoss() {
+        return mLinkLossRate > 0 && mRandom.nextDouble() < mLinkLossRate;
+    }
+
+    private static List<BluetoothGattService> copy(List<BluetoothGattService> services) {
+        List<BluetoothGattService> copies = new ArrayList<>(services.size());
+        for (BluetoothGattService service : services) {
+            BluetoothGattService copy = new BluetoothGattService(service.getUuid(), service.getType());
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                BluetoothGattCharacteristic characteristicCopy = new BluetoothGattCharacteristic(characteristic.getUuid(),
+                        characteristic.getProperties(), characteristic.getPermissions());
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    characteristicCopy.addDescriptor(new BluetoothGattDescriptor(descriptor.getUuid(), descriptor.getPermissions()));
+                }
+                copy.addCharacteristic(characteristicCopy);
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private final class NotificationSource implements Runnable {
+
+        private final UUID mCharacteristicUUID;
+        private final long mPeriodMillis;
+        private final byte[] mValue;
+        private boolean mStopped;
+
+        NotificationSource(UUID characteristicUUID, long periodMillis, byte[] value) {
+            mCharacteristicUUID = characteristicUUID;
+            mPeriodMillis = periodMillis;
+            mValue = value;
+        }
+
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            notifyValue(mCharacteristicUUID, mValue);
+            mScheduler.postDelayed(this, mPeriodMillis);
+        }
+    }
+
+    private class Link implements GattTransport {
+
+        private final BleManagerGattCallback mCallback;
+        private final Set<UUID> mNotifying = new HashSet<>();
+        private List<BluetoothGattService> mDiscovered = new ArrayList<>();
+        private boolean mConnected;
+        private boolean mConnectCancelled;
+        private boolean mClosed;
+        // bumped when the link drops, so GATT callbacks still on their way are lost with it
+        private int mEpoch;
+        // prepared writes, applied by executeReliableWrite(); null outside a reliable write
+        private Map<UUID, byte[]> mPrepared;
+
+        Link(BleManagerGattCallback callback) {
+            mCallback = callback;
+        }
+
+        private void post(final Runnable event) {
+            post(event, true, true);
+        }
+
+        private void post(final Runnable event, boolean held, boolean operation) {
+            long delay = nextDelayMillis(held, operation);
+            if (delay < 0) {
+                return;
+            }
+            final int epoch = mEpoch;
+            mScheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mClosed && epoch == mEpoch) {
+                        event.run();
+                    }
+                }
+            }, delay);
+        }
+
+        private void connect() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mConnectCancelled) {
+                        return;
+                    }
+                    mConnected = true;
+                    mCallback.onConnectionStateChange(Link.this, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED);
+                }
+            }, true, false);
+        }
+
+        private void lose(final int status) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mConnected) {
+                        mConnected = false;
+                        mEpoch++;
+                        mDiscovered = new ArrayList<>();
+                        mPrepared = null;
+                        mNotifying.clear();
+                        mCallback.onConnectionStateChange(Link.this, status, BluetoothProfile.STATE_DISCONNECTED);
+                    }
+                }
+            }, false, false);
+        }
+
+        private void afterOperation() {
+            if (nextLinkLoss()) {
+                // 0x08: supervision timeout
+                lose(8);
+            }
+        }
+
+        private void notifyValue(UUID characteristicUUID, byte[] value) {
+            if (!mConnected || mClosed || !mNotifying.contains(characteristicUUID)) {
+                return;
+            }
+            BluetoothGattCharacteristic characteristic = findCharacteristic(characteristicUUID);
+            if (characteristic != null) {
+                mNotifications++;
+                characteristic.setValue(value.clone());
+                mCallback.onCharacteristicChanged(this, characteristic);
+            }
+        }
+
+        private BluetoothGattCharacteristic findCharacteristic(UUID characteristicUUID) {
+            for (BluetoothGattService service : mDiscovered) {
+                BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUUID);
+                if (characteristic != null) {
+                    return characteristic;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public BluetoothGatt getBluetoothGatt() {
+            return null;
+        }
+
+        @Override
+        public int getBondState() {
+            return mBonded ? BluetoothDevice.BOND_BONDED : BluetoothDevice.BOND_NONE;
+        }
+
+        @Override
+        public boolean discoverServices() {
+            if (!mConnected) {
+                return false;
+            }
+            mOperations.add("DISCOVER");
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mDiscovered = copy(mServices);
+                    mCallback.onServicesDiscovered(Link.this, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public List<BluetoothGattService> getServices() {
+            return new ArrayList<>(mDiscovered);
+        }
+
+        @Override
+        public BluetoothGattService getService(UUID uuid) {
+            for (BluetoothGattService service : mDiscovered) {
+                if (service.getUuid().equals(uuid)) {
+                    return service;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            if (!mConnected) {
+                return false;
+            }
+            mReads++;
+            mOperations.add("READ " + characteristic.getUuid());
+            // answered with the value at the time of the request
+            final byte[] value = getValue(characteristic.getUuid());
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    characteristic.setValue(value == null ? new byte[0] : value);
+                    mCallback.onCharacteristicRead(Link.this, characteristic, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            afterOperation();
+            return true;
+        }
+
+        @Override
+        public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            if (!mConnected) {
+                return false;
+            }
+            byte[] value = characteristic.getValue();
+            value = value == null ? new byte[0] : value.clone();
+            if (mPrepared != null) {
+                mPrepared.put(characteristic.getUuid(), value);
+            } else {
+                mValues.put(characteristic.getUuid(), value);
+            }
+            mWrites++;
+            boolean noResponse = characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+            mOperations.add((noResponse ? "WRITE_NO_RESPONSE " : "WRITE ") + characteristic.getUuid());
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCharacteristicWrite(Link.this, characteristic, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            afterOperation();
+            return true;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+            return mConnected;
+        }
+
+        @Override
+        public boolean writeDescriptor(final BluetoothGattDescriptor descriptor) {
+            if (!mConnected) {
+                return false;
+            }
+            byte[] value = descriptor.getValue();
+            UUID characteristicUUID = descriptor.getCharacteristic().getUuid();
+            if (value != null && value.length > 0 && value[0] != 0) {
+                mNotifying.add(characteristicUUID);
+            } else {
+                mNotifying.remove(characteristicUUID);
+            }
+            mOperations.add("DESCRIPTOR " + characteristicUUID);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onDescriptorWrite(Link.this, descriptor, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            afterOperation();
+            return true;
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            if (!mConnected) {
+                return false;
+            }
+            final int negotiated = Math.min(mtu, mMaxMtu);
+            mOperations.add("MTU " + mtu);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onMtuChanged(Link.this, negotiated, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean beginReliableWrite() {
+            if (!mConnected || mPrepared != null) {
+                return false;
+            }
+            mPrepared = new HashMap<>();
+            return true;
+        }
+
+        @Override
+        public boolean executeReliableWrite() {
+            Map<UUID, byte[]> prepared = mPrepared;
+            if (!mConnected || prepared == null) {
+                return false;
+            }
+            mPrepared = null;
+            mValues.putAll(prepared);
+            mOperations.add("EXECUTE_RELIABLE_WRITE");
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onReliableWriteCompleted(Link.this, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            afterOperation();
+            return true;
+        }
+
+        @Override
+        public void abortReliableWrite() {
+            mPrepared = null;
+        }
+
+        @Override
+        public boolean refresh() {
+            mDiscovered = new ArrayList<>();
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            if (!mConnected) {
+                mConnectCancelled = true;
+            }
+            lose(BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            mConnected = false;
+        }
+    }
+}